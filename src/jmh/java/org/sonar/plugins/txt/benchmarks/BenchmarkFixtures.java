@@ -0,0 +1,103 @@
+package org.sonar.plugins.txt.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.plugins.txt.TextPlugin;
+
+/**
+ * Generates the text files the benchmarks run against, so they need neither network access nor checked-in samples.
+ * The same parameters and seed always give the same file.
+ * <p>
+ * Lines are made of filler words. A share of them, the match density, also holds a token "match{k}=v{d}" where k is
+ * one of the benchmarked rules and d a digit, so the rules built by {@link #expression(int, String)} find matches at
+ * that density.
+ */
+final class BenchmarkFixtures {
+  static final String MODULE_KEY = "bench";
+  static final String PROJECT_KEY = "bench";
+  static final String FILE_SUFFIX = ".txt";
+  static final String FILE_PATTERN = "**/*" + FILE_SUFFIX;
+
+  private static final String[] WORDS = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india", "juliet",
+      "kilo", "lima", "mike", "november", "oscar", "papa", "quebec", "romeo", "sierra", "tango", "uniform", "victor", "whiskey"};
+
+  private BenchmarkFixtures() {}
+
+  /**
+   * @param sizeBytes the file's size, give or take one line
+   * @param lineLength characters per line, line feed excluded
+   * @param matchDensity share of lines, from 0 to 1, that hold a match token
+   * @param ruleCount how many rules the match tokens are spread over
+   */
+  static String generate(final int sizeBytes, final int lineLength, final double matchDensity, final int ruleCount, final long seed) {
+    Random random = new Random(seed);
+    StringBuilder text = new StringBuilder(sizeBytes + lineLength + 1);
+    StringBuilder line = new StringBuilder(lineLength + 32);
+    while (text.length() < sizeBytes) {
+      line.setLength(0);
+      if (random.nextDouble() < matchDensity) {
+        line.append("match").append(random.nextInt(ruleCount)).append("=v").append(random.nextInt(10)).append(' ');
+      }
+      while (line.length() < lineLength) {
+        line.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+      }
+      line.setLength(Math.max(1, lineLength));
+      text.append(line).append('\n');
+    }
+    return text.toString();
+  }
+
+  /**
+   * A regular expression that finds the match tokens of one rule whose digit is in the range, for example "[0-4]"
+   */
+  static String expression(final int rule, final String digits) {
+    return "match" + rule + "=v" + digits;
+  }
+
+  static Path write(final Path directory, final String fileName, final String content) throws IOException {
+    Path file = directory.resolve(fileName);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  /**
+   * An input file for a file of the directory, which stands for the project's base directory
+   */
+  static InputFile inputFile(final Path baseDirectory, final Path file) {
+    return new TestInputFileBuilder(MODULE_KEY, baseDirectory.relativize(file).toString().replace('\\', '/'))
+        .setModuleBaseDir(baseDirectory)
+        .setLanguage(TextPlugin.LANGUAGE_KEY)
+        .setType(InputFile.Type.MAIN)
+        .setCharset(StandardCharsets.UTF_8)
+        .build();
+  }
+
+  static void delete(final Path directory) throws IOException {
+    if (directory == null || !Files.exists(directory)) {
+      return;
+    }
+    Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
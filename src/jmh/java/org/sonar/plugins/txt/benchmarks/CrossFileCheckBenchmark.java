@@ -0,0 +1,133 @@
+package org.sonar.plugins.txt.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.plugins.txt.TextPlugin;
+import org.sonar.plugins.txt.checks.AbstractCrossFileCheck;
+import org.sonar.plugins.txt.checks.CrossFileMatchStore;
+import org.sonar.plugins.txt.checks.MultiFileIfOneStringExistsThenBothMustExistCheck;
+import org.sonar.plugins.txt.checks.StringDisallowedIfMatchInAnotherFileCheck;
+import org.sonar.plugins.txt.checks.TextSourceFile;
+
+/**
+ * One whole cross-file scan per operation: every generated file is searched for every rule's parts with a fresh match
+ * store, then the rules raise their issues.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CrossFileCheckBenchmark {
+
+  @Param({"MultiFileIfOneStringExistsThenBothMustExist", "StringDisallowedIfMatchInAnotherFile"})
+  public String checkType;
+
+  @Param({"10", "200"})
+  public int fileCount;
+
+  @Param({"4096", "262144"})
+  public int fileSizeBytes;
+
+  @Param({"40", "400"})
+  public int lineLength;
+
+  @Param({"0", "0.01", "0.5"})
+  public double matchDensity;
+
+  @Param({"1", "10"})
+  public int ruleCount;
+
+  private Path directory;
+  private final List<InputFile> inputFiles = new ArrayList<>();
+  private final List<AbstractCrossFileCheck> checks = new ArrayList<>();
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("txt-bench");
+    for (int i = 0; i < fileCount; i++) {
+      Path file = BenchmarkFixtures.write(directory, "dir" + (i % 10) + "/fixture" + i + BenchmarkFixtures.FILE_SUFFIX,
+          BenchmarkFixtures.generate(fileSizeBytes, lineLength, matchDensity, ruleCount, i));
+      inputFiles.add(BenchmarkFixtures.inputFile(directory, file));
+    }
+    for (int rule = 0; rule < ruleCount; rule++) {
+      AbstractCrossFileCheck check = newCheck(checkType, rule);
+      check.setRuleKey(RuleKey.of(TextPlugin.REPOSITORY_KEY, checkType + rule));
+      check.prepare(BenchmarkFixtures.PROJECT_KEY);
+      checks.add(check);
+    }
+  }
+
+  static AbstractCrossFileCheck newCheck(final String checkType, final int rule) {
+    switch (checkType) {
+      case "MultiFileIfOneStringExistsThenBothMustExist":
+        MultiFileIfOneStringExistsThenBothMustExistCheck bothMustExist = new MultiFileIfOneStringExistsThenBothMustExistCheck();
+        bothMustExist.setTriggerExpression(BenchmarkFixtures.expression(rule, "0"));
+        bothMustExist.setTriggerFilePattern(BenchmarkFixtures.FILE_PATTERN);
+        bothMustExist.setMustAlsoExistExpression(BenchmarkFixtures.expression(rule, "9"));
+        bothMustExist.setMustAlsoExistFilePattern(BenchmarkFixtures.FILE_PATTERN);
+        bothMustExist.setMessage("both must exist " + rule);
+        return bothMustExist;
+      case "StringDisallowedIfMatchInAnotherFile":
+        StringDisallowedIfMatchInAnotherFileCheck disallowed = new StringDisallowedIfMatchInAnotherFileCheck();
+        disallowed.setTriggerExpression(BenchmarkFixtures.expression(rule, "0"));
+        disallowed.setTriggerFilePattern(BenchmarkFixtures.FILE_PATTERN);
+        disallowed.setDisallowExpression(BenchmarkFixtures.expression(rule, "[5-9]"));
+        disallowed.setDisallowFilePattern(BenchmarkFixtures.FILE_PATTERN);
+        disallowed.setMessage("disallowed " + rule);
+        return disallowed;
+      default:
+        throw new IllegalArgumentException("Unknown check type " + checkType);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    BenchmarkFixtures.delete(directory);
+  }
+
+  @Benchmark
+  public int scan() {
+    CrossFileMatchStore crossFileMatchStore = new CrossFileMatchStore();
+    for (InputFile inputFile : inputFiles) {
+      TextSourceFile textSourceFile = new TextSourceFile(inputFile);
+      try {
+        for (AbstractCrossFileCheck check : checks) {
+          check.validate(crossFileMatchStore, textSourceFile, BenchmarkFixtures.PROJECT_KEY);
+        }
+        crossFileMatchStore.fileCompleted(inputFile);
+      } finally {
+        textSourceFile.releaseContents();
+      }
+    }
+    int issues = 0;
+    for (AbstractCrossFileCheck check : checks) {
+      for (TextSourceFile textSourceFile : check.raiseIssuesAfterScan()) {
+        issues += textSourceFile.getTextIssues().size();
+      }
+    }
+    crossFileMatchStore.close();
+    return issues;
+  }
+}
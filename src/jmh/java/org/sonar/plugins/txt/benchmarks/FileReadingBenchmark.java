@@ -0,0 +1,88 @@
+package org.sonar.plugins.txt.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.plugins.txt.checks.util.FileIOUtil;
+import org.sonar.plugins.txt.checks.util.LineNumberFinderUtil;
+
+/**
+ * Reading a generated file into characters, from a stream and from its path, and counting its lines. The non-ASCII
+ * variant has one accented character per line so the decoder can't be skipped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileReadingBenchmark {
+
+  @Param({"4096", "262144", "4194304"})
+  public int fileSizeBytes;
+
+  @Param({"40", "400"})
+  public int lineLength;
+
+  @Param({"true", "false"})
+  public boolean ascii;
+
+  private Path directory;
+  private Path file;
+  private byte[] bytes;
+  private String contents;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    String text = BenchmarkFixtures.generate(fileSizeBytes, lineLength, 0.01, 1, 42);
+    if (!ascii) {
+      text = text.replace('\n', 'é').replace("é", "é\n");
+    }
+    directory = Files.createTempDirectory("txt-bench");
+    file = BenchmarkFixtures.write(directory, "fixture" + BenchmarkFixtures.FILE_SUFFIX, text);
+    bytes = text.getBytes(StandardCharsets.UTF_8);
+    contents = text;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    BenchmarkFixtures.delete(directory);
+  }
+
+  @Benchmark
+  public int readInputStreamToString() {
+    return FileIOUtil.readInputStreamToString(new ByteArrayInputStream(bytes), "fixture").length();
+  }
+
+  @Benchmark
+  public int readFileContents() throws IOException {
+    CharSequence fileContents = FileIOUtil.readFileContentsIntoThreadBuffer(file);
+    try {
+      return fileContents.length();
+    } finally {
+      FileIOUtil.releaseThreadBuffer(fileContents);
+    }
+  }
+
+  @Benchmark
+  public int countLines() {
+    return LineNumberFinderUtil.countLines(contents, contents.length());
+  }
+}
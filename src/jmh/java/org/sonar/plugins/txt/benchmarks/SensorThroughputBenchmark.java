@@ -0,0 +1,253 @@
+package org.sonar.plugins.txt.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.rule.CheckFactory;
+import org.sonar.api.batch.sensor.internal.SensorContextTester;
+import org.sonar.plugins.txt.TextPlugin;
+import org.sonar.plugins.txt.batch.TextIssueSensor;
+
+/**
+ * Runs the sensor end to end against a generated project (see {@link SyntheticProjectGenerator}), the way
+ * IssueSensorTest drives it, and records files/s, MB/s, peak heap and the issues raised. Each figure is the median over
+ * the measured runs.
+ * <p>
+ * When a baseline is given the results are compared against it and the process exits with status 1 when the issues
+ * differ: the project is generated the same way every time so they must not. It also fails when throughput dropped or
+ * peak heap grew by more than the tolerance. Those depend on the machine, so they must be recorded on the reference
+ * machine: a baseline that lacks any of them fails the run rather than letting it pass unchecked, and so does a missing
+ * baseline, unless it is being recorded.
+ * <p>
+ * Settings are passed as "--name=value" arguments, see {@link #main(String[])}.
+ */
+public final class SensorThroughputBenchmark {
+  private static final double MB = 1024.0 * 1024.0;
+
+  private SensorThroughputBenchmark() {}
+
+  /**
+   * --files, --sizes, --lineLength, --matchDensity, --rules and --seed set up the project, see
+   * {@link SyntheticProjectGenerator}. --threads is passed to the sensor. --warmupRuns and --runs count the runs,
+   * --results is the file the results are written to, --baseline the file they are compared against, --tolerance the
+   * share by which they may be worse than it and --recordBaseline=true overwrites the baseline with them.
+   */
+  public static void main(final String[] args) throws IOException {
+    Properties settings = new Properties();
+    settings.setProperty("files", "1000");
+    settings.setProperty("sizes", SyntheticProjectGenerator.DEFAULT_SIZES);
+    settings.setProperty("lineLength", "80");
+    settings.setProperty("matchDensity", "0.01");
+    settings.setProperty("rules", SyntheticProjectGenerator.DEFAULT_RULES);
+    settings.setProperty("seed", "42");
+    settings.setProperty("threads", "1");
+    settings.setProperty("warmupRuns", "1");
+    settings.setProperty("runs", "3");
+    settings.setProperty("workDir", "target/sensor-benchmark");
+    settings.setProperty("tolerance", "0.2");
+    settings.setProperty("recordBaseline", "false");
+    for (String arg : args) {
+      if (!arg.startsWith("--")) {
+        throw new IllegalArgumentException("Expected --name=value but got " + arg);
+      }
+      int equals = arg.indexOf('=');
+      settings.setProperty(arg.substring(2, equals < 0 ? arg.length() : equals), equals < 0 ? "true" : arg.substring(equals + 1));
+    }
+
+    SyntheticProjectGenerator generator = new SyntheticProjectGenerator();
+    generator.setFileCount(Integer.parseInt(settings.getProperty("files")));
+    generator.setSizeDistribution(settings.getProperty("sizes"));
+    generator.setLineLength(Integer.parseInt(settings.getProperty("lineLength")));
+    generator.setMatchDensity(Double.parseDouble(settings.getProperty("matchDensity")));
+    generator.setRuleProfile(settings.getProperty("rules"));
+    generator.setSeed(Long.parseLong(settings.getProperty("seed")));
+    String threads = settings.getProperty("threads");
+    int warmupRuns = Integer.parseInt(settings.getProperty("warmupRuns"));
+    int runs = Integer.parseInt(settings.getProperty("runs"));
+    Path workDirectory = Paths.get(settings.getProperty("workDir"));
+    Path resultsFile = Paths.get(settings.getProperty("results", workDirectory.resolve("results.properties").toString()));
+    String baseline = settings.getProperty("baseline");
+    double tolerance = Double.parseDouble(settings.getProperty("tolerance"));
+
+    Path projectDirectory = workDirectory.resolve("project");
+    BenchmarkFixtures.delete(projectDirectory);
+    List<InputFile> inputFiles = generator.generate(projectDirectory);
+    long projectBytes = 0;
+    for (InputFile inputFile : inputFiles) {
+      projectBytes += Files.size(inputFile.path());
+    }
+    System.out.printf(Locale.ROOT, "Generated %d files, %.1f MB, and %d rules in %s%n", inputFiles.size(), projectBytes / MB, generator.getRuleCount(),
+        projectDirectory);
+
+    List<Double> filesPerSecond = new ArrayList<>();
+    List<Double> mbPerSecond = new ArrayList<>();
+    List<Double> peakHeapMb = new ArrayList<>();
+    int issues = -1;
+    for (int run = -warmupRuns; run < runs; run++) {
+      SensorContextTester sensorContext = SensorContextTester.create(projectDirectory);
+      sensorContext.fileSystem().setWorkDir(workDirectory.resolve("work"));
+      sensorContext.settings().setProperty(TextPlugin.THREADS_KEY, threads);
+      for (InputFile inputFile : inputFiles) {
+        sensorContext.fileSystem().add(inputFile);
+      }
+      TextIssueSensor sensor = new TextIssueSensor(sensorContext.fileSystem(), sensorContext, new CheckFactory(generator.activeRules()));
+
+      System.gc();
+      resetPeakHeap();
+      long start = System.nanoTime();
+      sensor.execute(sensorContext);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      double peakHeap = peakHeap() / MB;
+
+      int runIssues = sensorContext.allIssues().size();
+      if (issues >= 0 && runIssues != issues) {
+        throw new IllegalStateException("Run " + run + " raised " + runIssues + " issues where the previous runs raised " + issues);
+      }
+      issues = runIssues;
+      System.out.printf(Locale.ROOT, "%s run: %.2f s, %.1f files/s, %.2f MB/s, peak heap %.1f MB, %d issues%n", run < 0 ? "Warmup" : "Measured", seconds,
+          inputFiles.size() / seconds, projectBytes / MB / seconds, peakHeap, runIssues);
+      if (run >= 0) {
+        filesPerSecond.add(inputFiles.size() / seconds);
+        mbPerSecond.add(projectBytes / MB / seconds);
+        peakHeapMb.add(peakHeap);
+      }
+    }
+
+    Properties results = new Properties();
+    for (String setting : new String[] {"files", "sizes", "lineLength", "matchDensity", "rules", "seed", "threads"}) {
+      results.setProperty("setting." + setting, settings.getProperty(setting));
+    }
+    results.setProperty("filesPerSecond", format(median(filesPerSecond)));
+    results.setProperty("mbPerSecond", format(median(mbPerSecond)));
+    results.setProperty("peakHeapMb", format(median(peakHeapMb)));
+    results.setProperty("issues", Integer.toString(issues));
+    store(results, resultsFile);
+    System.out.println("Results written to " + resultsFile);
+
+    if (baseline == null) {
+      return;
+    }
+    Path baselineFile = Paths.get(baseline);
+    if (Boolean.parseBoolean(settings.getProperty("recordBaseline"))) {
+      store(results, baselineFile);
+      System.out.println("Baseline recorded in " + baselineFile);
+      return;
+    }
+    if (!Files.exists(baselineFile)) {
+      System.out.println("No baseline in " + baselineFile + ", record one with --recordBaseline=true");
+      System.exit(1);
+    }
+    List<String> regressions = compare(results, load(baselineFile), tolerance);
+    for (String regression : regressions) {
+      System.out.println("REGRESSION: " + regression);
+    }
+    if (!regressions.isEmpty()) {
+      System.exit(1);
+    }
+    System.out.println("No regression against " + baselineFile);
+  }
+
+  /**
+   * @return a description of every way in which the results are worse than the baseline by more than the tolerance,
+   *         and of every figure the baseline lacks
+   */
+  static List<String> compare(final Properties results, final Properties baseline, final double tolerance) {
+    List<String> regressions = new ArrayList<>();
+    for (String key : baseline.stringPropertyNames()) {
+      if (key.startsWith("setting.") && !baseline.getProperty(key).equals(results.getProperty(key))) {
+        regressions.add("the baseline was recorded with " + key + "=" + baseline.getProperty(key) + ", not " + results.getProperty(key));
+      }
+    }
+    if (!regressions.isEmpty()) {
+      return regressions;
+    }
+    for (String key : new String[] {"issues", "filesPerSecond", "mbPerSecond", "peakHeapMb"}) {
+      if (!baseline.containsKey(key)) {
+        regressions.add("the baseline holds no " + key + ", record it on the reference machine with -Dsensor.benchmark.recordBaseline=true");
+      }
+    }
+    if (!regressions.isEmpty()) {
+      return regressions;
+    }
+    if (!baseline.getProperty("issues").equals(results.getProperty("issues"))) {
+      regressions.add(results.getProperty("issues") + " issues raised instead of " + baseline.getProperty("issues"));
+    }
+    for (String key : new String[] {"filesPerSecond", "mbPerSecond"}) {
+      double expected = Double.parseDouble(baseline.getProperty(key));
+      double actual = Double.parseDouble(results.getProperty(key));
+      if (actual < expected * (1 - tolerance)) {
+        regressions.add(String.format(Locale.ROOT, "%s dropped from %.2f to %.2f", key, expected, actual));
+      }
+    }
+    double expectedHeap = Double.parseDouble(baseline.getProperty("peakHeapMb"));
+    double actualHeap = Double.parseDouble(results.getProperty("peakHeapMb"));
+    if (actualHeap > expectedHeap * (1 + tolerance)) {
+      regressions.add(String.format(Locale.ROOT, "peakHeapMb grew from %.1f to %.1f", expectedHeap, actualHeap));
+    }
+    return regressions;
+  }
+
+  private static void resetPeakHeap() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  /**
+   * The sum of each heap pool's peak since the last reset. The pools needn't all peak at once, so this can overstate
+   * the true peak a little, but it does so the same way from one run to the next.
+   */
+  private static long peakHeap() {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+
+  private static double median(final List<Double> values) {
+    List<Double> sorted = new ArrayList<>(values);
+    Collections.sort(sorted);
+    int middle = sorted.size() / 2;
+    return sorted.size() % 2 == 1 ? sorted.get(middle) : (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+  }
+
+  private static String format(final double value) {
+    return String.format(Locale.ROOT, "%.2f", value);
+  }
+
+  private static Properties load(final Path file) throws IOException {
+    Properties properties = new Properties();
+    try (InputStream in = Files.newInputStream(file)) {
+      properties.load(in);
+    }
+    return properties;
+  }
+
+  private static void store(final Properties properties, final Path file) throws IOException {
+    Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    try (OutputStream out = Files.newOutputStream(file)) {
+      properties.store(out, "Text plugin sensor throughput");
+    }
+  }
+}
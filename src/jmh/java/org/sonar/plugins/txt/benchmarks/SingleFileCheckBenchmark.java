@@ -0,0 +1,120 @@
+package org.sonar.plugins.txt.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.plugins.txt.TextPlugin;
+import org.sonar.plugins.txt.checks.AbstractTextCheck;
+import org.sonar.plugins.txt.checks.MultilineTextMatchCheck;
+import org.sonar.plugins.txt.checks.RequiredStringNotPresentCheck;
+import org.sonar.plugins.txt.checks.SimpleTextMatchCheck;
+import org.sonar.plugins.txt.checks.TextSourceFile;
+
+/**
+ * Evaluates rules of one of the single-file templates against one generated file, the way the sensor does: a fresh
+ * {@link TextSourceFile} per operation, so the file is read and decoded every time, and every rule evaluated against it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SingleFileCheckBenchmark {
+
+  @Param({"SimpleTextMatch", "MultilineTextMatch", "RequiredStringNotPresent"})
+  public String checkType;
+
+  @Param({"4096", "262144", "4194304"})
+  public int fileSizeBytes;
+
+  @Param({"40", "400"})
+  public int lineLength;
+
+  @Param({"0", "0.01", "0.5"})
+  public double matchDensity;
+
+  @Param({"1", "10"})
+  public int ruleCount;
+
+  private Path directory;
+  private InputFile inputFile;
+  private final List<AbstractTextCheck> checks = new ArrayList<>();
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("txt-bench");
+    Path file = BenchmarkFixtures.write(directory, "fixture" + BenchmarkFixtures.FILE_SUFFIX,
+        BenchmarkFixtures.generate(fileSizeBytes, lineLength, matchDensity, ruleCount, 42));
+    inputFile = BenchmarkFixtures.inputFile(directory, file);
+    for (int rule = 0; rule < ruleCount; rule++) {
+      AbstractTextCheck check = newCheck(checkType, rule);
+      check.setRuleKey(RuleKey.of(TextPlugin.REPOSITORY_KEY, checkType + rule));
+      check.prepare(BenchmarkFixtures.PROJECT_KEY);
+      checks.add(check);
+    }
+  }
+
+  static AbstractTextCheck newCheck(final String checkType, final int rule) {
+    switch (checkType) {
+      case "SimpleTextMatch":
+        SimpleTextMatchCheck simple = new SimpleTextMatchCheck();
+        simple.setExpression(BenchmarkFixtures.expression(rule, "[0-4]"));
+        simple.setFilePattern(BenchmarkFixtures.FILE_PATTERN);
+        simple.setMessage("simple " + rule);
+        return simple;
+      case "MultilineTextMatch":
+        MultilineTextMatchCheck multiline = new MultilineTextMatchCheck();
+        multiline.setSearchRegularExpression(BenchmarkFixtures.expression(rule, "[0-4]") + "\\s+\\w+");
+        multiline.setFilePattern(BenchmarkFixtures.FILE_PATTERN);
+        multiline.setMessage("multiline " + rule);
+        return multiline;
+      case "RequiredStringNotPresent":
+        RequiredStringNotPresentCheck required = new RequiredStringNotPresentCheck();
+        required.setTriggerExpression(BenchmarkFixtures.expression(rule, "\\d"));
+        required.setMustExistExpression(BenchmarkFixtures.expression(rule, "9"));
+        required.setFilePattern(BenchmarkFixtures.FILE_PATTERN);
+        required.setMessage("required " + rule);
+        return required;
+      default:
+        throw new IllegalArgumentException("Unknown check type " + checkType);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    BenchmarkFixtures.delete(directory);
+  }
+
+  @Benchmark
+  public int validate() {
+    TextSourceFile textSourceFile = new TextSourceFile(inputFile);
+    try {
+      for (AbstractTextCheck check : checks) {
+        check.validate(textSourceFile, BenchmarkFixtures.PROJECT_KEY);
+      }
+      return textSourceFile.getTextIssues().size();
+    } finally {
+      textSourceFile.releaseContents();
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package org.sonar.plugins.txt.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.batch.rule.ActiveRules;
+import org.sonar.api.batch.rule.internal.ActiveRulesBuilder;
+import org.sonar.api.batch.rule.internal.NewActiveRule;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.plugins.txt.TextPlugin;
+
+/**
+ * Generates a whole project for the end-to-end benchmark: files spread over nested directories, with sizes drawn from a
+ * weighted distribution, and a quality profile of rules created from the plugin's templates. The same settings and seed
+ * always give the same project, and so the same issues.
+ * <p>
+ * Distributions and profiles are written "key:count,key:count", for example sizes "1024:60,65536:39,4194304:1" (60% of
+ * the files 1 KB, 39% 64 KB and 1% 4 MB) and rules "SimpleRegexMatchCheck:20,StringDisallowedIfMatchInAnotherFileCheck:2".
+ * The rule keys are those of the templates.
+ */
+final class SyntheticProjectGenerator {
+  static final String DEFAULT_SIZES = "1024:60,16384:30,262144:9,4194304:1";
+  static final String DEFAULT_RULES = "SimpleRegexMatchCheck:20,MultilineTextMatchCheck:2,RequiredStringNotPresentRegexMatchCheck:2,"
+      + "MultiFileIfOneStringExistsThenBothMustExistCheck:2,StringDisallowedIfMatchInAnotherFileCheck:2";
+
+  private static final int FILES_PER_DIRECTORY = 50;
+
+  private int fileCount = 1000;
+  private Map<String, Integer> sizeDistribution = parseCounts(DEFAULT_SIZES);
+  private int lineLength = 80;
+  private double matchDensity = 0.01;
+  private Map<String, Integer> ruleProfile = parseCounts(DEFAULT_RULES);
+  private long seed = 42;
+
+  void setFileCount(final int fileCount) {
+    this.fileCount = fileCount;
+  }
+
+  void setSizeDistribution(final String sizeDistribution) {
+    this.sizeDistribution = parseCounts(sizeDistribution);
+  }
+
+  void setLineLength(final int lineLength) {
+    this.lineLength = lineLength;
+  }
+
+  void setMatchDensity(final double matchDensity) {
+    this.matchDensity = matchDensity;
+  }
+
+  void setRuleProfile(final String ruleProfile) {
+    this.ruleProfile = parseCounts(ruleProfile);
+  }
+
+  void setSeed(final long seed) {
+    this.seed = seed;
+  }
+
+  int getRuleCount() {
+    int ruleCount = 0;
+    for (int count : ruleProfile.values()) {
+      ruleCount += count;
+    }
+    return ruleCount;
+  }
+
+  /**
+   * Writes the project's files under the base directory
+   * @return the files, each with the metadata the sensor needs to place issues on lines
+   */
+  List<InputFile> generate(final Path baseDirectory) throws IOException {
+    Random random = new Random(seed);
+    int totalWeight = 0;
+    for (int weight : sizeDistribution.values()) {
+      totalWeight += weight;
+    }
+    int ruleCount = Math.max(1, getRuleCount());
+
+    List<InputFile> inputFiles = new ArrayList<>(fileCount);
+    for (int i = 0; i < fileCount; i++) {
+      int size = pickSize(random.nextInt(totalWeight));
+      String content = BenchmarkFixtures.generate(size, lineLength, matchDensity, ruleCount, random.nextLong());
+      String relativePath = "module" + (i / (FILES_PER_DIRECTORY * FILES_PER_DIRECTORY)) + "/dir" + (i / FILES_PER_DIRECTORY) + "/file" + i
+          + BenchmarkFixtures.FILE_SUFFIX;
+      BenchmarkFixtures.write(baseDirectory, relativePath, content);
+      InputFile inputFile = new TestInputFileBuilder(BenchmarkFixtures.MODULE_KEY, relativePath)
+          .setModuleBaseDir(baseDirectory)
+          .setLanguage(TextPlugin.LANGUAGE_KEY)
+          .setType(InputFile.Type.MAIN)
+          .setCharset(StandardCharsets.UTF_8)
+          .initMetadata(content)
+          .build();
+      inputFiles.add(inputFile);
+    }
+    return inputFiles;
+  }
+
+  private int pickSize(final int draw) {
+    int remaining = draw;
+    for (Map.Entry<String, Integer> size : sizeDistribution.entrySet()) {
+      remaining -= size.getValue();
+      if (remaining < 0) {
+        return Integer.parseInt(size.getKey());
+      }
+    }
+    throw new IllegalStateException("Draw " + draw + " is beyond the size distribution " + sizeDistribution);
+  }
+
+  /**
+   * The quality profile: rules created from the templates, each looking for the match tokens of a rule index of its own
+   */
+  ActiveRules activeRules() {
+    ActiveRulesBuilder activeRules = new ActiveRulesBuilder();
+    int rule = 0;
+    for (Map.Entry<String, Integer> template : ruleProfile.entrySet()) {
+      for (int i = 0; i < template.getValue(); i++, rule++) {
+        NewActiveRule.Builder activeRule = new NewActiveRule.Builder()
+            .setRuleKey(RuleKey.of(TextPlugin.REPOSITORY_KEY, template.getKey() + "_" + i))
+            .setTemplateRuleKey(template.getKey())
+            .setLanguage(TextPlugin.LANGUAGE_KEY)
+            .setParam("message", template.getKey() + " " + i);
+        for (Map.Entry<String, String> param : paramsOf(template.getKey(), rule).entrySet()) {
+          activeRule.setParam(param.getKey(), param.getValue());
+        }
+        activeRules.addRule(activeRule.build());
+      }
+    }
+    return activeRules.build();
+  }
+
+  private static Map<String, String> paramsOf(final String template, final int rule) {
+    Map<String, String> params = new LinkedHashMap<>();
+    switch (template) {
+      case "SimpleRegexMatchCheck":
+        params.put("expression", BenchmarkFixtures.expression(rule, "[0-4]"));
+        params.put("filePattern", BenchmarkFixtures.FILE_PATTERN);
+        break;
+      case "MultilineTextMatchCheck":
+        params.put("regularExpression", BenchmarkFixtures.expression(rule, "[0-4]") + "\\s+\\w+");
+        params.put("filePattern", BenchmarkFixtures.FILE_PATTERN);
+        break;
+      case "RequiredStringNotPresentRegexMatchCheck":
+        params.put("triggerRegularExpression", BenchmarkFixtures.expression(rule, "\\d"));
+        params.put("mustExistRegularExpression", BenchmarkFixtures.expression(rule, "9"));
+        params.put("filePattern", BenchmarkFixtures.FILE_PATTERN);
+        break;
+      case "MultiFileIfOneStringExistsThenBothMustExistCheck":
+        params.put("triggerExpression", BenchmarkFixtures.expression(rule, "0"));
+        params.put("triggerFilePattern", BenchmarkFixtures.FILE_PATTERN);
+        params.put("mustAlsoExistExpression", BenchmarkFixtures.expression(rule, "9"));
+        params.put("mustAlsoExistFilePattern", BenchmarkFixtures.FILE_PATTERN);
+        break;
+      case "StringDisallowedIfMatchInAnotherFileCheck":
+        params.put("triggerExpression", BenchmarkFixtures.expression(rule, "0"));
+        params.put("triggerFilePattern", BenchmarkFixtures.FILE_PATTERN);
+        params.put("disallowExpression", BenchmarkFixtures.expression(rule, "[5-9]"));
+        params.put("disallowFilePattern", BenchmarkFixtures.FILE_PATTERN);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown rule template " + template);
+    }
+    return params;
+  }
+
+  static Map<String, Integer> parseCounts(final String counts) {
+    Map<String, Integer> parsed = new LinkedHashMap<>();
+    for (String entry : counts.split(",")) {
+      String[] keyAndCount = entry.trim().split(":");
+      if (keyAndCount.length != 2) {
+        throw new IllegalArgumentException("Expected 'key:count' but got '" + entry + "' in '" + counts + "'");
+      }
+      parsed.put(keyAndCount[0].trim(), Integer.parseInt(keyAndCount[1].trim()));
+    }
+    return parsed;
+  }
+}
@@ -1,13 +1,25 @@
 package org.sonar.plugins.txt;
 
 import org.sonar.api.Plugin;
+import org.sonar.api.PropertyType;
 import org.sonar.api.config.PropertyDefinition;
 import org.sonar.plugins.txt.batch.TextIssueSensor;
+import org.sonar.plugins.txt.checks.util.RegexBudget;
 
 public final class TextPlugin implements Plugin {
 
   public static final String FILE_SUFFIXES_DEFAULT_VALUE = ".properties,.txt";
   public static final String FILE_SUFFIXES_KEY = "sonar.txt.file.suffixes";
+  public static final String THREADS_DEFAULT_VALUE = "1";
+  public static final String THREADS_KEY = "sonar.txt.threads";
+  public static final String CROSS_FILE_TWO_PHASE_DEFAULT_VALUE = "false";
+  public static final String CROSS_FILE_TWO_PHASE_KEY = "sonar.txt.crossFile.twoPhase";
+  public static final String CROSS_FILE_MEMORY_BUDGET_DEFAULT_VALUE = "0";
+  public static final String CROSS_FILE_MEMORY_BUDGET_KEY = "sonar.txt.crossFile.memoryBudgetMb";
+  public static final String REGEX_STEPS_PER_CHARACTER_DEFAULT_VALUE = Long.toString(RegexBudget.DEFAULT_STEPS_PER_CHARACTER);
+  public static final String REGEX_STEPS_PER_CHARACTER_KEY = "sonar.txt.regexBudget.stepsPerCharacter";
+  public static final String REGEX_BUDGET_DISABLE_AFTER_FILES_DEFAULT_VALUE = "0";
+  public static final String REGEX_BUDGET_DISABLE_AFTER_FILES_KEY = "sonar.txt.regexBudget.disableRuleAfterFiles";
   public static final String REPOSITORY_KEY = "txt";
   public static final String LANGUAGE_KEY = "txt";
   public static final String NAME = "Text (Community)";
@@ -24,6 +36,46 @@ public final class TextPlugin implements Plugin {
             .multiValues(true)
             .category(TextPlugin.NAME)
             .build(),
+        PropertyDefinition.builder(TextPlugin.THREADS_KEY)
+            .name("Analysis threads")
+            .description("Number of files to analyze concurrently. Use 0 to use one thread per available processor.")
+            .defaultValue(TextPlugin.THREADS_DEFAULT_VALUE)
+            .type(PropertyType.INTEGER)
+            .category(TextPlugin.NAME)
+            .build(),
+        PropertyDefinition.builder(TextPlugin.CROSS_FILE_TWO_PHASE_KEY)
+            .name("Two-phase cross-file rules")
+            .description("Look for the triggers of every cross-file rule first and only then look for the rest of the rules whose trigger was found, "
+                + "in a second pass over the files. Saves most of the cross-file work when triggers are rare, at the cost of reading some files twice.")
+            .defaultValue(TextPlugin.CROSS_FILE_TWO_PHASE_DEFAULT_VALUE)
+            .type(PropertyType.BOOLEAN)
+            .category(TextPlugin.NAME)
+            .build(),
+        PropertyDefinition.builder(TextPlugin.CROSS_FILE_MEMORY_BUDGET_KEY)
+            .name("Cross-file rule memory budget (MB)")
+            .description("How much heap the matches of cross-file rules may take before the matches of further files are moved to temp files "
+                + "in the scanner's work directory. Use 0 to keep every match in memory.")
+            .defaultValue(TextPlugin.CROSS_FILE_MEMORY_BUDGET_DEFAULT_VALUE)
+            .type(PropertyType.INTEGER)
+            .category(TextPlugin.NAME)
+            .build(),
+        PropertyDefinition.builder(TextPlugin.REGEX_STEPS_PER_CHARACTER_KEY)
+            .name("Regular expression budget (steps per character)")
+            .description("How much work a rule's regular expressions may do against a file, as the number of characters they may read per character of the file. "
+                + "A rule that uses up its budget, typically because its expression backtracks catastrophically, is abandoned for that file and a warning is logged. "
+                + "Use 0 for no limit.")
+            .defaultValue(TextPlugin.REGEX_STEPS_PER_CHARACTER_DEFAULT_VALUE)
+            .type(PropertyType.INTEGER)
+            .category(TextPlugin.NAME)
+            .build(),
+        PropertyDefinition.builder(TextPlugin.REGEX_BUDGET_DISABLE_AFTER_FILES_KEY)
+            .name("Disable rules over their regular expression budget after (files)")
+            .description("Stop evaluating a rule for the rest of the scan once it used up its regular expression budget on this many files. "
+                + "Use 0 to keep evaluating every rule.")
+            .defaultValue(TextPlugin.REGEX_BUDGET_DISABLE_AFTER_FILES_DEFAULT_VALUE)
+            .type(PropertyType.INTEGER)
+            .category(TextPlugin.NAME)
+            .build(),
         TextIssueSensor.class,
         TextLanguage.class,
         TextRulesDefinition.class,
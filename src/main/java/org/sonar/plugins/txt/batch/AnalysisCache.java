@@ -0,0 +1,110 @@
+package org.sonar.plugins.txt.batch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.sensor.SensorContext;
+
+/**
+ * Values kept from one analysis of the project to the next. Backed by SonarQube's analysis cache
+ * (SensorContext.previousCache() / nextCache()).
+ */
+interface AnalysisCache {
+
+  /**
+   * @return the value stored under key by the previous analysis, or null
+   */
+  byte[] read(String key);
+
+  /**
+   * Stores a value for the next analysis. Each key may be written once per analysis.
+   */
+  void write(String key, byte[] value);
+
+  /**
+   * @return null when the server doesn't offer an analysis cache (SonarQube before 9.4) or it is disabled
+   */
+  static AnalysisCache forContext(final SensorContext sensorContext) {
+    return SonarAnalysisCache.forContext(sensorContext);
+  }
+
+  /**
+   * The plugin is built against the 9.3 plugin API, which predates the analysis cache, so the cache methods are looked
+   * up reflectively through their public interfaces. Servers that don't have them simply get no cache.
+   */
+  final class SonarAnalysisCache implements AnalysisCache {
+    private static final Logger LOG = LoggerFactory.getLogger(SonarAnalysisCache.class);
+
+    private final Object previousCache;
+    private final Object nextCache;
+    private final Method contains;
+    private final Method read;
+    private final Method write;
+
+    private SonarAnalysisCache(final Object previousCache, final Object nextCache, final Method contains, final Method read, final Method write) {
+      this.previousCache = previousCache;
+      this.nextCache = nextCache;
+      this.contains = contains;
+      this.read = read;
+      this.write = write;
+    }
+
+    static AnalysisCache forContext(final SensorContext sensorContext) {
+      try {
+        Method isCacheEnabled = SensorContext.class.getMethod("isCacheEnabled");
+        if (!Boolean.TRUE.equals(isCacheEnabled.invoke(sensorContext))) {
+          return null;
+        }
+        Method previousCacheMethod = SensorContext.class.getMethod("previousCache");
+        Method nextCacheMethod = SensorContext.class.getMethod("nextCache");
+        Class<?> readCacheType = previousCacheMethod.getReturnType();
+        Class<?> writeCacheType = nextCacheMethod.getReturnType();
+        return new SonarAnalysisCache(
+            previousCacheMethod.invoke(sensorContext),
+            nextCacheMethod.invoke(sensorContext),
+            readCacheType.getMethod("contains", String.class),
+            readCacheType.getMethod("read", String.class),
+            writeCacheType.getMethod("write", String.class, byte[].class));
+      } catch (NoSuchMethodException e) {
+        LOG.debug("This version of SonarQube has no analysis cache. Every text file will be analysed.");
+        return null;
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        LOG.warn("Could not access the analysis cache. Every text file will be analysed.", e);
+        return null;
+      }
+    }
+
+    @Override
+    public synchronized byte[] read(final String key) {
+      try {
+        if (!Boolean.TRUE.equals(contains.invoke(previousCache, key))) {
+          return null;
+        }
+        try (InputStream in = (InputStream) read.invoke(previousCache, key)) {
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          byte[] buffer = new byte[8192];
+          int bytesRead;
+          while ((bytesRead = in.read(buffer)) != -1) {
+            out.write(buffer, 0, bytesRead);
+          }
+          return out.toByteArray();
+        }
+      } catch (ReflectiveOperationException | IOException e) {
+        throw new IllegalStateException("Could not read '" + key + "' from the analysis cache", e);
+      }
+    }
+
+    @Override
+    public synchronized void write(final String key, final byte[] value) {
+      try {
+        write.invoke(nextCache, key, value);
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("Could not write '" + key + "' to the analysis cache", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package org.sonar.plugins.txt.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sonar.api.batch.fs.FilePredicate;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.plugins.txt.checks.AbstractTextCheck;
+import org.sonar.plugins.txt.checks.TextSourceFile;
+import org.sonar.plugins.txt.checks.util.FilePatternMatcher;
+
+/**
+ * Keeps the files that at least one active rule could raise an issue on or record a match in, judging by their path,
+ * file name and size alone. Handed to the FileSystem query so that the other files are never read nor passed to any
+ * check.
+ */
+final class ApplicableFilePredicate implements FilePredicate {
+
+  private final List<AbstractTextCheck> preparedChecks;
+  private final FilePatternMatcher filePatternMatcher;
+
+  /**
+   * @param preparedChecks checks on which prepare() returned true
+   * @param filePatternMatcher the file patterns of those checks compiled together
+   */
+  ApplicableFilePredicate(final List<AbstractTextCheck> preparedChecks, final FilePatternMatcher filePatternMatcher) {
+    this.preparedChecks = new ArrayList<>(preparedChecks);
+    this.filePatternMatcher = filePatternMatcher;
+  }
+
+  @Override
+  public boolean apply(final InputFile inputFile) {
+    TextSourceFile textSourceFile = new TextSourceFile(inputFile, filePatternMatcher);
+    for (AbstractTextCheck check : preparedChecks) {
+      if (check.mayApplyTo(textSourceFile)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,81 @@
+package org.sonar.plugins.txt.batch;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.plugins.txt.checks.AbstractTextCheck;
+import org.sonar.plugins.txt.checks.CrossFileMatchStore;
+
+/**
+ * Remembers the preliminary matches the cross-file rules recorded in each file, so that on the next analysis a file
+ * whose content and cross-file rule configuration haven't changed has those matches restored into the match store
+ * instead of being scanned again. The cross-file issues are then raised from the restored and fresh matches together.
+ * <p>
+ * Entries are replayed and keyed like those of {@link IssueCache}: only for files the scanner reports as unchanged, by
+ * the file, the scanner's hash of its content and a fingerprint of every active cross-file rule's configuration.
+ */
+final class CrossFileMatchCache {
+  private static final Logger LOG = LoggerFactory.getLogger(CrossFileMatchCache.class);
+
+  private static final String KEY_PREFIX = "txt:crossfile:";
+
+  private final AnalysisCache cache;
+  private final String rulesFingerprint;
+  private final AtomicInteger replayedFiles = new AtomicInteger();
+
+  CrossFileMatchCache(final AnalysisCache cache, final List<AbstractTextCheck> crossFileChecks) {
+    this.cache = cache;
+    this.rulesFingerprint = IssueCache.fingerprint(crossFileChecks);
+  }
+
+  /**
+   * @return true when the file's matches were restored from the cache into the store; false when the file has to be
+   *         scanned by the cross-file rules. A cached entry is carried over to the next analysis.
+   */
+  boolean replay(final InputFile inputFile, final CrossFileMatchStore crossFileMatchStore) {
+    try {
+      String key = IssueCache.unchanged(inputFile) ? keyFor(inputFile) : null;
+      if (key == null) {
+        return false;
+      }
+      byte[] value = cache.read(key);
+      if (value == null) {
+        return false;
+      }
+      crossFileMatchStore.restoreMatchesOf(inputFile, value);
+      cache.write(key, value);
+      replayedFiles.incrementAndGet();
+      return true;
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Could not use the cached cross-file matches of {}. The file will be scanned.", inputFile, e);
+      return false;
+    }
+  }
+
+  void store(final InputFile inputFile, final CrossFileMatchStore crossFileMatchStore) {
+    try {
+      String key = keyFor(inputFile);
+      if (key != null) {
+        cache.write(key, crossFileMatchStore.serializeMatchesOf(inputFile));
+      }
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Could not cache the cross-file matches of {}", inputFile, e);
+    }
+  }
+
+  int getReplayedFileCount() {
+    return replayedFiles.get();
+  }
+
+  /**
+   * @return null when the scanner doesn't expose the file's content hash
+   */
+  String keyFor(final InputFile inputFile) {
+    String contentHash = IssueCache.contentHash(inputFile);
+    return (contentHash == null) ? null : KEY_PREFIX + inputFile.key() + ":" + contentHash + ":" + rulesFingerprint;
+  }
+}
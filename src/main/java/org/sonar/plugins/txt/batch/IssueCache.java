@@ -0,0 +1,210 @@
+package org.sonar.plugins.txt.batch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.check.RuleProperty;
+import org.sonar.plugins.txt.checks.AbstractTextCheck;
+import org.sonar.plugins.txt.checks.TextIssue;
+
+/**
+ * Remembers which issues the single-file rules raised on each file, so that on the next analysis a file whose content
+ * and rule configuration haven't changed gets those issues replayed instead of being read and scanned again.
+ * <p>
+ * Only files the scanner reports as {@link InputFile.Status#SAME} are replayed. Entries are keyed by the file, the
+ * content hash the scanner computed to work out that status and a fingerprint of every active single-file rule's
+ * configuration, so any change to either simply produces a key the previous analysis never wrote. The file itself is
+ * never read to decide: without a hash from the scanner it is a cache miss.
+ */
+final class IssueCache {
+  private static final Logger LOG = LoggerFactory.getLogger(IssueCache.class);
+
+  // Bump whenever the serialized form or the meaning of a cached entry changes
+  private static final int FORMAT_VERSION = 1;
+  private static final String KEY_PREFIX = "txt:issues:";
+
+  private final AnalysisCache cache;
+  private final String rulesFingerprint;
+  private final AtomicInteger replayedFiles = new AtomicInteger();
+
+  IssueCache(final AnalysisCache cache, final List<AbstractTextCheck> singleFileChecks) {
+    this.cache = cache;
+    this.rulesFingerprint = fingerprint(singleFileChecks);
+  }
+
+  /**
+   * @return the issues cached for the file, or null when they have to be computed. A cached entry is carried over to
+   *         the next analysis.
+   */
+  List<TextIssue> replay(final InputFile inputFile) {
+    try {
+      String key = unchanged(inputFile) ? keyFor(inputFile) : null;
+      if (key == null) {
+        return null;
+      }
+      byte[] value = cache.read(key);
+      if (value == null) {
+        return null;
+      }
+      List<TextIssue> issues = deserialize(value);
+      cache.write(key, value);
+      replayedFiles.incrementAndGet();
+      return issues;
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Could not use the cached issues of {}. The file will be analysed.", inputFile, e);
+      return null;
+    }
+  }
+
+  void store(final InputFile inputFile, final List<TextIssue> issues) {
+    try {
+      String key = keyFor(inputFile);
+      if (key != null) {
+        cache.write(key, serialize(issues));
+      }
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Could not cache the issues of {}", inputFile, e);
+    }
+  }
+
+  int getReplayedFileCount() {
+    return replayedFiles.get();
+  }
+
+  /**
+   * @return null when the scanner doesn't expose the file's content hash
+   */
+  String keyFor(final InputFile inputFile) {
+    String contentHash = contentHash(inputFile);
+    return (contentHash == null) ? null : KEY_PREFIX + inputFile.key() + ":" + contentHash + ":" + rulesFingerprint;
+  }
+
+  /**
+   * Whether the scanner found the file's content unchanged since the previous analysis
+   */
+  static boolean unchanged(final InputFile inputFile) {
+    return inputFile.status() == InputFile.Status.SAME;
+  }
+
+  /**
+   * The hash the scanner already computed to work out the file's status. The 9.3 plugin API doesn't declare
+   * md5Hash() yet, but the scanner's InputFile implementation has long had it as a public method.
+   * @return null when the scanner doesn't expose it; the file is never read to compute one
+   */
+  static String contentHash(final InputFile inputFile) {
+    try {
+      Method md5Hash = inputFile.getClass().getMethod("md5Hash");
+      Object hash = md5Hash.invoke(inputFile);
+      return (hash instanceof String) ? (String) hash : null;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Hash of everything that decides which issues a rule raises on a given file: its key, its implementation and the
+   * value of every rule property.
+   */
+  static String fingerprint(final List<AbstractTextCheck> checks) {
+    List<AbstractTextCheck> sorted = new ArrayList<>(checks);
+    sorted.sort(Comparator.comparing(check -> String.valueOf(check.getRuleKey())));
+
+    StringBuilder description = new StringBuilder().append(FORMAT_VERSION);
+    for (AbstractTextCheck check : sorted) {
+      description.append('\n').append(check.getRuleKey()).append(' ').append(check.getClass().getName());
+      for (Class<?> type = check.getClass(); type != null; type = type.getSuperclass()) {
+        List<Field> properties = new ArrayList<>();
+        for (Field field : type.getDeclaredFields()) {
+          if (field.isAnnotationPresent(RuleProperty.class)) {
+            properties.add(field);
+          }
+        }
+        properties.sort(Comparator.comparing(Field::getName));
+        for (Field field : properties) {
+          field.setAccessible(true);
+          try {
+            description.append(' ').append(field.getName()).append('=').append(field.get(check)).append('\u0000');
+          } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Could not read rule property " + field, e);
+          }
+        }
+      }
+    }
+    return toHex(newDigest("SHA-256").digest(description.toString().getBytes(StandardCharsets.UTF_8)));
+  }
+
+  static byte[] serialize(final List<TextIssue> issues) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(issues.size());
+      for (TextIssue issue : issues) {
+        writeString(out, issue.getRuleKey().repository());
+        writeString(out, issue.getRuleKey().rule());
+        out.writeInt(issue.getLine());
+        writeString(out, issue.getMessage());
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  static List<TextIssue> deserialize(final byte[] value) throws IOException {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(value))) {
+      if (in.readInt() != FORMAT_VERSION) {
+        throw new IOException("Unknown cache entry format");
+      }
+      int count = in.readInt();
+      List<TextIssue> issues = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        RuleKey ruleKey = RuleKey.of(readString(in), readString(in));
+        int line = in.readInt();
+        issues.add(new TextIssue(ruleKey, line, readString(in)));
+      }
+      return issues;
+    }
+  }
+
+  private static void writeString(final DataOutputStream out, final String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(final DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static MessageDigest newDigest(final String algorithm) {
+    try {
+      return MessageDigest.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(algorithm + " is not available", e);
+    }
+  }
+
+  private static String toHex(final byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+}
@@ -0,0 +1,62 @@
+package org.sonar.plugins.txt.batch;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.plugins.txt.checks.AbstractTextCheck;
+
+/**
+ * Keeps count, over one scan, of the files against which each rule used up its regular expression budget (see
+ * {@link org.sonar.plugins.txt.checks.util.RegexBudget}). A rule that keeps running out of budget usually has an
+ * expression prone to catastrophic backtracking; it is reported at the end of the scan and, when configured, no longer
+ * evaluated once it ran out on enough files. Thread-safe.
+ */
+final class RegexBudgetTracker {
+  private static final Logger LOG = LoggerFactory.getLogger(RegexBudgetTracker.class);
+
+  private final int disableRuleAfterFiles;
+  // Keyed by check instance: there is one per active rule
+  private final Map<AbstractTextCheck, AtomicInteger> filesOverBudget = new ConcurrentHashMap<>();
+  private final Map<AbstractTextCheck, Boolean> disabledChecks = new ConcurrentHashMap<>();
+
+  /**
+   * @param disableRuleAfterFiles 0 or less to keep evaluating every rule however often it runs out of budget
+   */
+  RegexBudgetTracker(final int disableRuleAfterFiles) {
+    this.disableRuleAfterFiles = disableRuleAfterFiles;
+  }
+
+  void budgetExceeded(final AbstractTextCheck check, final InputFile inputFile) {
+    LOG.warn("Rule \"{}\" used up its regular expression budget on file {}. Skipping evaluation of just this one rule against this one file. "
+        + "The rule's expression is likely to backtrack catastrophically.", check.getRuleKey(), inputFile.uri().toString());
+    int files = filesOverBudget.computeIfAbsent(check, key -> new AtomicInteger()).incrementAndGet();
+    if (disableRuleAfterFiles > 0 && files >= disableRuleAfterFiles && disabledChecks.putIfAbsent(check, Boolean.TRUE) == null) {
+      LOG.warn("Rule \"{}\" used up its regular expression budget on {} files and will not be evaluated for the rest of this scan.", check.getRuleKey(), files);
+    }
+  }
+
+  boolean isDisabled(final AbstractTextCheck check) {
+    return disabledChecks.containsKey(check);
+  }
+
+  boolean hasDisabledChecks() {
+    return !disabledChecks.isEmpty();
+  }
+
+  /**
+   * Logs every rule that ran out of budget, in the order in which the rules are given
+   */
+  void logSummary(final List<? extends AbstractTextCheck> checks) {
+    for (AbstractTextCheck check : checks) {
+      AtomicInteger files = filesOverBudget.get(check);
+      if (files != null) {
+        LOG.warn("Rule \"{}\" used up its regular expression budget on {} files{}. Please review its expression.", check.getRuleKey(), files.get(),
+            isDisabled(check) ? " and was disabled for part of the scan" : "");
+      }
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package org.sonar.plugins.txt.batch;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.plugins.txt.checks.AbstractTextCheck;
+import org.sonar.plugins.txt.checks.TextSourceFile;
+
+/**
+ * Collects, over one scan, what each rule cost: the files it was evaluated against or skipped, how much of them it
+ * read, its regular expression evaluations and those its literal prefilters avoided, its issues and the time it took. Each thread counts into counters of its
+ * own, without any synchronisation, and the counters of every thread are only added up for the report at the end of
+ * the scan, so profiling can stay on.
+ * <p>
+ * The rules evaluated together by the {@link org.sonar.plugins.txt.checks.LiteralRuleScanner} share one pass over each
+ * file; that pass's time and regular expression evaluations are reported once, for the scanner as a whole.
+ */
+final class RuleProfiler {
+  private static final Logger LOG = LoggerFactory.getLogger(RuleProfiler.class);
+
+  static final String REPORT_FILE_NAME = "txt-rule-profile.json";
+  private static final int RULES_LOGGED = 5;
+
+  private final List<AbstractTextCheck> checks;
+  private final Map<AbstractTextCheck, Integer> indexByCheck = new IdentityHashMap<>();
+  private final Map<RuleKey, Integer> indexByRuleKey = new HashMap<>();
+  private final boolean[] fused;
+  // One array per thread that counted anything, holding a slot per rule and a last one for the literal scanner
+  private final Queue<RuleCounters[]> countersOfEveryThread = new ConcurrentLinkedQueue<>();
+  private final ThreadLocal<RuleCounters[]> threadCounters = ThreadLocal.withInitial(this::newThreadCounters);
+
+  /**
+   * @param checks every rule evaluated during the scan
+   * @param fusedChecks those of them evaluated by the literal scanner
+   */
+  RuleProfiler(final List<? extends AbstractTextCheck> checks, final List<? extends AbstractTextCheck> fusedChecks) {
+    this.checks = new ArrayList<>(checks);
+    this.fused = new boolean[checks.size()];
+    for (int i = 0; i < checks.size(); i++) {
+      AbstractTextCheck check = checks.get(i);
+      indexByCheck.put(check, i);
+      if (check.getRuleKey() != null) {
+        indexByRuleKey.put(check.getRuleKey(), i);
+      }
+      fused[i] = fusedChecks.contains(check);
+    }
+  }
+
+  private RuleCounters[] newThreadCounters() {
+    RuleCounters[] counters = new RuleCounters[checks.size() + 1];
+    for (int i = 0; i < counters.length; i++) {
+      counters[i] = new RuleCounters();
+    }
+    countersOfEveryThread.add(counters);
+    return counters;
+  }
+
+  /**
+   * The calling thread's counters of the rule
+   */
+  RuleCounters countersOf(final AbstractTextCheck check) {
+    return threadCounters.get()[indexByCheck.get(check)];
+  }
+
+  /**
+   * The calling thread's counters of the literal scanner's pass
+   */
+  RuleCounters literalScannerCounters() {
+    return threadCounters.get()[checks.size()];
+  }
+
+  /**
+   * Lets go of the calling thread's counters, which stay counted in the report. To be called by threads that outlive
+   * the scan.
+   */
+  void releaseThreadCounters() {
+    threadCounters.remove();
+  }
+
+  void issueSaved(final RuleKey ruleKey) {
+    Integer index = indexByRuleKey.get(ruleKey);
+    if (index != null) {
+      threadCounters.get()[index].issues++;
+    }
+  }
+
+  /**
+   * Counts one evaluation of a rule against the file: its time, its regular expression evaluations and, when it read
+   * the file, the file's bytes and, when a check already worked them out, its lines.
+   * @param contentsRequestsBefore {@link TextSourceFile#getContentsRequests()} when the evaluation started
+   */
+  static void evaluated(final RuleCounters counters, final TextSourceFile textSourceFile, final int contentsRequestsBefore, final long startNanos) {
+    long nanos = System.nanoTime() - startNanos;
+    counters.filesEvaluated++;
+    counters.totalNanos += nanos;
+    counters.maxNanos = Math.max(counters.maxNanos, nanos);
+    counters.regexEvaluations += textSourceFile.takeRegexEvaluations();
+    counters.regexEvaluationsAvoided += textSourceFile.takeEvaluationsAvoided();
+    if (textSourceFile.getContentsRequests() > contentsRequestsBefore) {
+      counters.contentScanned(textSourceFile);
+    }
+  }
+
+  /**
+   * Adds time a rule took outside of the evaluation of any one file
+   */
+  static void timeSpent(final RuleCounters counters, final long startNanos) {
+    counters.totalNanos += System.nanoTime() - startNanos;
+  }
+
+  /**
+   * Writes the report into the directory and logs the rules that took the most time. Only called once every thread
+   * that counted anything is done.
+   * @param reportDirectory null to only log
+   */
+  void report(final Path reportDirectory) {
+    List<RuleCounters> totals = new ArrayList<>();
+    for (int i = 0; i <= checks.size(); i++) {
+      RuleCounters total = new RuleCounters();
+      for (RuleCounters[] counters : countersOfEveryThread) {
+        total.add(counters[i]);
+      }
+      totals.add(total);
+    }
+    RuleCounters literalScannerTotal = totals.remove(checks.size());
+
+    List<Integer> byTime = new ArrayList<>();
+    for (int i = 0; i < checks.size(); i++) {
+      byTime.add(i);
+    }
+    byTime.sort(Comparator.comparingLong((Integer i) -> totals.get(i).totalNanos).reversed());
+
+    long regexEvaluationsAvoided = literalScannerTotal.regexEvaluationsAvoided;
+    for (RuleCounters total : totals) {
+      regexEvaluationsAvoided += total.regexEvaluationsAvoided;
+    }
+    LOG.info("Literal prefilters avoided {} regular expression evaluations", regexEvaluationsAvoided);
+    if (literalScannerTotal.filesEvaluated > 0) {
+      LOG.info("Literal scanner: {} ms over {} files", toMillis(literalScannerTotal.totalNanos), literalScannerTotal.filesEvaluated);
+    }
+    for (int i = 0; i < Math.min(RULES_LOGGED, byTime.size()); i++) {
+      RuleCounters total = totals.get(byTime.get(i));
+      if (total.totalNanos > 0) {
+        LOG.info("Rule \"{}\": {} ms over {} files, {} ms at most on one file, {} regular expression evaluations", checks.get(byTime.get(i)).getRuleKey(),
+            toMillis(total.totalNanos), total.filesEvaluated, toMillis(total.maxNanos), total.regexEvaluations);
+      }
+    }
+
+    if (reportDirectory == null) {
+      return;
+    }
+    Path reportFile = reportDirectory.resolve(REPORT_FILE_NAME);
+    try {
+      Files.createDirectories(reportDirectory);
+      try (Writer writer = Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8)) {
+        writer.write("{\n  \"literalScanner\": ");
+        writer.write(literalScannerTotal.toJson());
+        writer.write(",\n  \"rules\": [");
+        for (int i = 0; i < byTime.size(); i++) {
+          int index = byTime.get(i);
+          writer.write(i == 0 ? "\n    " : ",\n    ");
+          RuleKey ruleKey = checks.get(index).getRuleKey();
+          writer.write("{\"ruleKey\": " + (ruleKey == null ? "null" : toJsonString(ruleKey.toString())) + ", \"literalScanner\": " + fused[index] + ", ");
+          writer.write(totals.get(index).toJson().substring(1));
+        }
+        writer.write("\n  ]\n}\n");
+      }
+      LOG.info("Rule profile written to {}", reportFile);
+    } catch (IOException e) {
+      LOG.warn("Could not write the rule profile to {}", reportFile, e);
+    }
+  }
+
+  private static String toMillis(final long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+  }
+
+  private static String toJsonString(final String value) {
+    StringBuilder json = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < 0x20) {
+        json.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+    return json.append('"').toString();
+  }
+
+  /**
+   * Plain fields: each instance is only ever written by the thread it belongs to
+   */
+  static final class RuleCounters {
+    long filesEvaluated;
+    long filesSkippedByPattern;
+    long bytesScanned;
+    long linesScanned;
+    long regexEvaluations;
+    long regexEvaluationsAvoided;
+    long issues;
+    long totalNanos;
+    long maxNanos;
+
+    void contentScanned(final TextSourceFile textSourceFile) {
+      bytesScanned += Math.max(0, textSourceFile.getSizeInBytes());
+      // Only known when a check split the file into lines; counting them here would be another pass over the file
+      linesScanned += Math.max(0, textSourceFile.getLineCount());
+    }
+
+    private void add(final RuleCounters other) {
+      filesEvaluated += other.filesEvaluated;
+      filesSkippedByPattern += other.filesSkippedByPattern;
+      bytesScanned += other.bytesScanned;
+      linesScanned += other.linesScanned;
+      regexEvaluations += other.regexEvaluations;
+      regexEvaluationsAvoided += other.regexEvaluationsAvoided;
+      issues += other.issues;
+      totalNanos += other.totalNanos;
+      maxNanos = Math.max(maxNanos, other.maxNanos);
+    }
+
+    private String toJson() {
+      return new StringBuilder("{")
+          .append("\"filesEvaluated\": ").append(filesEvaluated)
+          .append(", \"filesSkippedByPattern\": ").append(filesSkippedByPattern)
+          .append(", \"bytesScanned\": ").append(bytesScanned)
+          .append(", \"linesScanned\": ").append(linesScanned)
+          .append(", \"regexEvaluations\": ").append(regexEvaluations)
+          .append(", \"regexEvaluationsAvoided\": ").append(regexEvaluationsAvoided)
+          .append(", \"issues\": ").append(issues)
+          .append(", \"totalTimeMs\": ").append(toMillis(totalNanos))
+          .append(", \"maxTimeMs\": ").append(toMillis(maxNanos))
+          .append('}').toString();
+    }
+  }
+}
@@ -1,10 +1,19 @@
 package org.sonar.plugins.txt.batch;
 
-import java.util.HashMap;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.FilePredicate;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.rule.CheckFactory;
@@ -14,23 +23,39 @@ import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.batch.sensor.SensorDescriptor;
 import org.sonar.api.batch.sensor.issue.NewIssue;
 import org.sonar.api.batch.sensor.issue.NewIssueLocation;
+import org.sonar.api.config.Configuration;
 import org.sonar.api.scanner.fs.InputProject;
 import org.sonar.plugins.txt.TextPlugin;
 import org.sonar.plugins.txt.checks.AbstractCrossFileCheck;
 import org.sonar.plugins.txt.checks.AbstractTextCheck;
-import org.sonar.plugins.txt.checks.CrossFileScanPrelimIssue;
+import org.sonar.plugins.txt.checks.CrossFileMatchStore;
+import org.sonar.plugins.txt.checks.LiteralRuleScanner;
 import org.sonar.plugins.txt.checks.TextChecksList;
 import org.sonar.plugins.txt.checks.TextIssue;
 import org.sonar.plugins.txt.checks.TextSourceFile;
+import org.sonar.plugins.txt.checks.util.FileIOUtil;
+import org.sonar.plugins.txt.checks.util.FilePatternMatcher;
+import org.sonar.plugins.txt.checks.util.RegexBudgetExceededException;
 
 public class TextIssueSensor implements Sensor {
   private final Logger LOG = LoggerFactory.getLogger(TextIssueSensor.class);
 
+  // How far the workers may run ahead of the thread saving issues. Bounds the number of analysed files held in memory.
+  private static final int PENDING_FILES_PER_THREAD = 4;
+
   private final Checks<Object> checks;
   private final FileSystem fs;
   private final SensorContext sensorContext;
   private final InputProject project;
-  final Map<InputFile, List<CrossFileScanPrelimIssue>> crossFileChecksRawResults;
+  // Created for each execution since its memory budget comes from the analysis configuration
+  CrossFileMatchStore crossFileMatchStore;
+  // Every active rule's file patterns, compiled once per execution
+  private FilePatternMatcher filePatternMatcher;
+  // Null when cross-file matches aren't cached in this execution
+  private CrossFileMatchCache crossFileMatchCache;
+  private long regexStepsPerCharacter;
+  private RegexBudgetTracker regexBudgetTracker;
+  private RuleProfiler ruleProfiler;
 
   /**
    * Use of IoC to get FileSystem
@@ -42,9 +67,6 @@ public class TextIssueSensor implements Sensor {
     this.project = sensorContext.project();
     this.sensorContext = sensorContext;
 
-    // This data structure is shared across all cross-file checks so they can see each others' data.
-    // Each file with any trigger or disallow match gets a listitem indicating the specifics of the Check that matched including line number. This object reference stays with the check and gets referenced later inside the "raiseIssuesAfterScan()" method call.
-    this.crossFileChecksRawResults = new HashMap<>();
   }
 
   @Override
@@ -55,54 +77,463 @@ public class TextIssueSensor implements Sensor {
 
   @Override
   public void execute(final SensorContext sensorContext) {
+    List<AbstractTextCheck> activeChecks = prepareChecks();
+    if (activeChecks.isEmpty()) {
+      LOG.info("No text rule is active for this project. No file will be analysed.");
+      return;
+    }
+    filePatternMatcher = createFilePatternMatcher(activeChecks);
+    regexStepsPerCharacter = sensorContext.config().getLong(TextPlugin.REGEX_STEPS_PER_CHARACTER_KEY)
+        .orElse(Long.parseLong(TextPlugin.REGEX_STEPS_PER_CHARACTER_DEFAULT_VALUE));
+    regexBudgetTracker = new RegexBudgetTracker(sensorContext.config().getInt(TextPlugin.REGEX_BUDGET_DISABLE_AFTER_FILES_KEY)
+        .orElse(Integer.parseInt(TextPlugin.REGEX_BUDGET_DISABLE_AFTER_FILES_DEFAULT_VALUE)));
+    // Files that no active rule could apply to, judging by their path, name and size, are never visited
+    FilePredicate filesToAnalyse = fs.predicates().and(fs.predicates().hasType(InputFile.Type.MAIN), new ApplicableFilePredicate(activeChecks, filePatternMatcher));
 
-    for (InputFile inputFile : fs.inputFiles(fs.predicates().hasType(InputFile.Type.MAIN))) {
-      analyseIndividualFile(inputFile);
+    // Single-line rules that look for, or require, literal text are evaluated together by one automaton; every other rule keeps its own regex evaluation
+    LiteralRuleScanner literalRuleScanner = LiteralRuleScanner.create(activeChecks);
+    ruleProfiler = new RuleProfiler(activeChecks, literalRuleScanner.getFusedChecks());
+    if (!literalRuleScanner.getFusedChecks().isEmpty()) {
+      LOG.info("{} single-line rules will be evaluated in a single pass over each line", literalRuleScanner.getFusedChecks().size());
+      activeChecks.removeAll(literalRuleScanner.getFusedChecks());
     }
 
-    raiseCrossFileCheckIssues();
+    AnalysisCache analysisCache = AnalysisCache.forContext(sensorContext);
+    IssueCache issueCache = createIssueCache(analysisCache, literalRuleScanner, activeChecks);
+    boolean crossFileTwoPhase = sensorContext.config().getBoolean(TextPlugin.CROSS_FILE_TWO_PHASE_KEY)
+        .orElse(Boolean.parseBoolean(TextPlugin.CROSS_FILE_TWO_PHASE_DEFAULT_VALUE));
+    // The first pass of the two-phase mode only looks for triggers so it leaves nothing complete enough to be cached
+    crossFileMatchCache = crossFileTwoPhase ? null : createCrossFileMatchCache(analysisCache, activeChecks);
 
+    // This data structure is shared across all cross-file checks. Every trigger, disallow or must-exist match is recorded under its rule and rule part including line number. This object reference stays with the check and gets referenced later inside the "raiseIssuesAfterScan()" method call.
+    // Files are analysed concurrently when more than one thread is configured so the store is thread-safe.
+    crossFileMatchStore = createCrossFileMatchStore(sensorContext, crossFileMatchCache != null);
+    for (AbstractTextCheck check : activeChecks) {
+      if (check instanceof AbstractCrossFileCheck) {
+        // Handed over up front as no file may need scanning when all of them come from the cache
+        ((AbstractCrossFileCheck) check).setCrossFileMatchStore(crossFileMatchStore);
+      }
+    }
+    try {
+      analyseFiles(sensorContext, filesToAnalyse, literalRuleScanner, activeChecks, issueCache, crossFileTwoPhase);
+    } finally {
+      crossFileMatchStore.close();
+      // Files and issues are handled on the scanner's thread when a single thread is configured; the scanner keeps
+      // that thread for its other sensors, so it mustn't keep the buffers and counters of this analysis. Worker
+      // threads take theirs with them when they end.
+      FileIOUtil.releaseThreadState();
+      ruleProfiler.releaseThreadCounters();
+    }
+
+    if (issueCache != null) {
+      LOG.info("Issues of {} unchanged files were taken from the analysis cache", issueCache.getReplayedFileCount());
+    }
+    if (crossFileMatchCache != null) {
+      LOG.info("Cross-file matches of {} unchanged files were taken from the analysis cache", crossFileMatchCache.getReplayedFileCount());
+    }
+
+    regexBudgetTracker.logSummary(literalRuleScanner.getFusedChecks());
+    regexBudgetTracker.logSummary(activeChecks);
+    File workDir = sensorContext.fileSystem().workDir();
+    ruleProfiler.report(workDir == null ? null : workDir.toPath());
   }
 
-  private void analyseIndividualFile(final InputFile inputFile) {
-    TextSourceFile textSourceFile = new TextSourceFile(inputFile);
+  private void analyseFiles(final SensorContext sensorContext, final FilePredicate filesToAnalyse, final LiteralRuleScanner literalRuleScanner,
+                            final List<AbstractTextCheck> activeChecks, final IssueCache issueCache, final boolean crossFileTwoPhase) {
+    Iterable<InputFile> inputFiles = fs.inputFiles(filesToAnalyse);
+    int threads = getThreadCount(sensorContext.config());
+
+    if (threads == 1) {
+      for (InputFile inputFile : inputFiles) {
+        TextSourceFile textSourceFile = analyseIndividualFile(inputFile, literalRuleScanner, activeChecks, issueCache, crossFileTwoPhase);
+        saveIssues(textSourceFile.getTextIssues(), textSourceFile.getInputFile());
+      }
+    } else {
+      analyseFilesConcurrently(inputFiles, literalRuleScanner, activeChecks, issueCache, crossFileTwoPhase, threads);
+    }
+
+    if (crossFileTwoPhase) {
+      scanDependentPartsOfTriggeredCrossFileChecks(inputFiles, activeChecks, threads);
+    }
+
+    raiseCrossFileCheckIssues(activeChecks, threads);
+  }
+
+  /**
+   * Compiles every rule's regular expressions up front and leaves out the rules that cannot raise anything in this scan:
+   * those excluded for this project and those whose configuration doesn't compile. Each problem is logged once here
+   * rather than once per file.
+   */
+  private List<AbstractTextCheck> prepareChecks() {
+    List<AbstractTextCheck> activeChecks = new ArrayList<>();
 
     for (Object check : checks.all()) {
+      AbstractTextCheck textCheck = (AbstractTextCheck) check;
+      textCheck.setRuleKey(checks.ruleKey(check));
       try {
-        if (check instanceof AbstractCrossFileCheck) {
-          // Calls to cross-file checks need to pass in the data structure used to collect match data
-          AbstractCrossFileCheck crossFileCheck = (AbstractCrossFileCheck) check;
-          crossFileCheck.setRuleKey(checks.ruleKey(check));
-          crossFileCheck.validate(crossFileChecksRawResults, textSourceFile, project.key());
+        if (textCheck.prepare(project.key())) {
+          activeChecks.add(textCheck);
         } else {
-          AbstractTextCheck textCheck = (AbstractTextCheck) check;
-          textCheck.setRuleKey(checks.ruleKey(check));
-          textCheck.validate(textSourceFile, project.key());
+          LOG.debug("Rule \"{}\" is excluded for project {}.", textCheck.getRuleKey(), project.key());
         }
       } catch (Exception e) {
-        LOG.warn("Check for rule \"{}\" choked on file {}. Continuing the scan. Skipping evaluation of just this one rule against this one file.", ((AbstractTextCheck) check).getRuleKey(), inputFile.uri().toString());
-        LOG.warn("Check failure details:", e);
+        LOG.error("Rule \"{}\" could not be prepared and will not be evaluated during this scan. Please fix its configuration.", textCheck.getRuleKey(), e);
       }
     }
 
-    saveIssues(textSourceFile.getTextIssues(), textSourceFile.getInputFile());
+    return activeChecks;
   }
 
-  private void raiseCrossFileCheckIssues() {
-    for (Object check : checks.all()) {
+  /**
+   * Which rules apply to a file is then worked out in one pass over its path rather than by matching each rule's
+   * patterns in turn.
+   */
+  private static FilePatternMatcher createFilePatternMatcher(final List<AbstractTextCheck> activeChecks) {
+    List<String> filePatterns = new ArrayList<>();
+    for (AbstractTextCheck check : activeChecks) {
+      filePatterns.addAll(check.getFilePatterns());
+    }
+    return FilePatternMatcher.build(filePatterns);
+  }
+
+  /**
+   * @param matchesOfEveryFileNeeded true when each file's matches are cached on their own
+   */
+  private static CrossFileMatchStore createCrossFileMatchStore(final SensorContext sensorContext, final boolean matchesOfEveryFileNeeded) {
+    long memoryBudgetMb = sensorContext.config().getLong(TextPlugin.CROSS_FILE_MEMORY_BUDGET_KEY)
+        .orElse(Long.parseLong(TextPlugin.CROSS_FILE_MEMORY_BUDGET_DEFAULT_VALUE));
+    if (memoryBudgetMb <= 0) {
+      return new CrossFileMatchStore(0, null, matchesOfEveryFileNeeded);
+    }
+    return new CrossFileMatchStore(memoryBudgetMb * 1024 * 1024, sensorContext.fileSystem().workDir().toPath(), matchesOfEveryFileNeeded);
+  }
+
+  /**
+   * @return null when SonarQube offers no analysis cache or no cross-file rule is active; every file is then scanned by
+   *         the cross-file rules
+   */
+  private static CrossFileMatchCache createCrossFileMatchCache(final AnalysisCache analysisCache, final List<AbstractTextCheck> activeChecks) {
+    if (analysisCache == null) {
+      return null;
+    }
+    List<AbstractTextCheck> crossFileChecks = new ArrayList<>();
+    for (AbstractTextCheck check : activeChecks) {
       if (check instanceof AbstractCrossFileCheck) {
-        List<TextSourceFile> textSourceFiles = ((AbstractCrossFileCheck) check).raiseIssuesAfterScan();
+        crossFileChecks.add(check);
+      }
+    }
+    return crossFileChecks.isEmpty() ? null : new CrossFileMatchCache(analysisCache, crossFileChecks);
+  }
+
+  /**
+   * @return null when SonarQube offers no analysis cache; every file is then analysed
+   */
+  private static IssueCache createIssueCache(final AnalysisCache analysisCache, final LiteralRuleScanner literalRuleScanner, final List<AbstractTextCheck> activeChecks) {
+    if (analysisCache == null) {
+      return null;
+    }
+    List<AbstractTextCheck> singleFileChecks = new ArrayList<>(literalRuleScanner.getFusedChecks());
+    for (AbstractTextCheck check : activeChecks) {
+      if (!(check instanceof AbstractCrossFileCheck)) {
+        singleFileChecks.add(check);
+      }
+    }
+    return new IssueCache(analysisCache, singleFileChecks);
+  }
 
-        for (TextSourceFile file : textSourceFiles) {
-          saveIssues(file.getTextIssues(), file.getInputFile());
+  /**
+   * Issues are saved on the calling thread in the order in which the file system listed the files, not in the order in
+   * which the workers finish them, so that the same project always produces the same sequence of issues.
+   */
+  private void analyseFilesConcurrently(final Iterable<InputFile> inputFiles, final LiteralRuleScanner literalRuleScanner, final List<AbstractTextCheck> activeChecks,
+                                        final IssueCache issueCache, final boolean crossFileTwoPhase, final int threads) {
+    LOG.info("Analysing text files using {} threads", threads);
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new AnalysisThreadFactory());
+    Deque<Future<TextSourceFile>> pendingResults = new ArrayDeque<>();
+
+    try {
+      for (InputFile inputFile : inputFiles) {
+        pendingResults.add(executor.submit(() -> analyseIndividualFile(inputFile, literalRuleScanner, activeChecks, issueCache, crossFileTwoPhase)));
+        if (pendingResults.size() >= threads * PENDING_FILES_PER_THREAD) {
+          saveIssues(pendingResults.poll());
         }
       }
+      while (!pendingResults.isEmpty()) {
+        saveIssues(pendingResults.poll());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * @param crossFileTwoPhase when true cross-file checks only look for their triggers; the rest of each rule is left to
+   *        {@link #scanDependentPartsOfTriggeredCrossFileChecks}
+   */
+  private TextSourceFile analyseIndividualFile(final InputFile inputFile, final LiteralRuleScanner literalRuleScanner, final List<AbstractTextCheck> activeChecks,
+                                               final IssueCache issueCache, final boolean crossFileTwoPhase) {
+    // Every check gets this same instance so the file is read and decoded at most once no matter how many rules are active
+    TextSourceFile textSourceFile = new TextSourceFile(inputFile, filePatternMatcher, regexStepsPerCharacter);
+
+    // An unchanged file analysed with unchanged rules gets the single-file rules' issues of the previous analysis
+    List<TextIssue> cachedIssues = (issueCache == null) ? null : issueCache.replay(inputFile);
+    // Issues are only cached when every single-file rule could be evaluated
+    boolean allSingleFileChecksCompleted = true;
+    try {
+      if (cachedIssues != null) {
+        cachedIssues.forEach(textSourceFile::addViolation);
+      } else if (!literalRuleScanner.getFusedChecks().isEmpty()) {
+        int contentsRequestsBefore = textSourceFile.getContentsRequests();
+        long startNanos = System.nanoTime();
+        try {
+          for (AbstractTextCheck checkOverBudget : literalRuleScanner.scan(textSourceFile, regexBudgetTracker::isDisabled)) {
+            allSingleFileChecksCompleted = false;
+            regexBudgetTracker.budgetExceeded(checkOverBudget, inputFile);
+          }
+        } catch (Exception e) {
+          allSingleFileChecksCompleted = false;
+          LOG.warn("Literal text rules choked on file {}. Continuing the scan. Skipping evaluation of just those rules against this one file.", inputFile.uri().toString());
+          LOG.warn("Check failure details:", e);
+        } finally {
+          profileLiteralScan(literalRuleScanner, textSourceFile, contentsRequestsBefore, startNanos);
+        }
+      }
+
+      // Likewise the cross-file rules' matches in the file, which are merged with the fresh matches of the changed files
+      boolean crossFileMatchesReplayed = crossFileMatchCache != null && crossFileMatchCache.replay(inputFile, crossFileMatchStore);
+      boolean allCrossFileChecksCompleted = true;
+
+      for (AbstractTextCheck check : activeChecks) {
+        boolean resultReplayed = (check instanceof AbstractCrossFileCheck) ? crossFileMatchesReplayed : cachedIssues != null;
+        if (resultReplayed || regexBudgetTracker.isDisabled(check)) {
+          continue;
+        }
+        RuleProfiler.RuleCounters counters = ruleProfiler.countersOf(check);
+        if (!check.mayApplyTo(textSourceFile)) {
+          counters.filesSkippedByPattern++;
+          continue;
+        }
+        int contentsRequestsBefore = textSourceFile.getContentsRequests();
+        long startNanos = System.nanoTime();
+        try {
+          if (check instanceof AbstractCrossFileCheck) {
+            // Calls to cross-file checks need to pass in the data structure used to collect match data
+            AbstractCrossFileCheck crossFileCheck = (AbstractCrossFileCheck) check;
+            if (crossFileTwoPhase) {
+              crossFileCheck.validateTrigger(crossFileMatchStore, textSourceFile, project.key());
+            } else {
+              crossFileCheck.validate(crossFileMatchStore, textSourceFile, project.key());
+            }
+          } else {
+            check.validate(textSourceFile, project.key());
+          }
+        } catch (RegexBudgetExceededException e) {
+          allSingleFileChecksCompleted &= (check instanceof AbstractCrossFileCheck);
+          allCrossFileChecksCompleted &= !(check instanceof AbstractCrossFileCheck);
+          regexBudgetTracker.budgetExceeded(check, inputFile);
+        } catch (Exception e) {
+          allSingleFileChecksCompleted &= (check instanceof AbstractCrossFileCheck);
+          allCrossFileChecksCompleted &= !(check instanceof AbstractCrossFileCheck);
+          LOG.warn("Check for rule \"{}\" choked on file {}. Continuing the scan. Skipping evaluation of just this one rule against this one file.", check.getRuleKey(), inputFile.uri().toString());
+          LOG.warn("Check failure details:", e);
+        } finally {
+          RuleProfiler.evaluated(counters, textSourceFile, contentsRequestsBefore, startNanos);
+        }
+      }
+      // Results without the rules disabled for going over their regex budget must not be reused by the next analysis
+      if (regexBudgetTracker.hasDisabledChecks()) {
+        allSingleFileChecksCompleted = false;
+        allCrossFileChecksCompleted = false;
+      }
+      // Taken before the file is completed, which may move its matches to disk
+      if (crossFileMatchCache != null && !crossFileMatchesReplayed && allCrossFileChecksCompleted) {
+        crossFileMatchCache.store(inputFile, crossFileMatchStore);
+      }
+      crossFileMatchStore.fileCompleted(inputFile);
+    } finally {
+      // Only the issues are used from here on; the thread's decoding buffer goes to its next file even when the
+      // analysis of this one failed
+      textSourceFile.releaseContents();
+    }
+
+    if (issueCache != null && cachedIssues == null && allSingleFileChecksCompleted) {
+      issueCache.store(inputFile, textSourceFile.getTextIssues());
+    }
+    return textSourceFile;
+  }
+
+  /**
+   * The literal scanner's pass is timed as a whole; each of its rules is only counted as having scanned or skipped the
+   * file.
+   */
+  private void profileLiteralScan(final LiteralRuleScanner literalRuleScanner, final TextSourceFile textSourceFile, final int contentsRequestsBefore, final long startNanos) {
+    RuleProfiler.evaluated(ruleProfiler.literalScannerCounters(), textSourceFile, contentsRequestsBefore, startNanos);
+    boolean contentsRead = textSourceFile.getContentsRequests() > contentsRequestsBefore;
+    for (AbstractTextCheck check : literalRuleScanner.getFusedChecks()) {
+      RuleProfiler.RuleCounters counters = ruleProfiler.countersOf(check);
+      if (!check.mayApplyTo(textSourceFile)) {
+        counters.filesSkippedByPattern++;
+      } else if (!regexBudgetTracker.isDisabled(check)) {
+        counters.filesEvaluated++;
+        if (contentsRead) {
+          counters.contentScanned(textSourceFile);
+        }
+      }
+    }
+  }
+
+  /**
+   * Second pass of the two-phase cross-file scan. Only the rules whose trigger was found during the first pass look for
+   * the rest of their parts; when no trigger fired the files aren't read again at all.
+   */
+  private void scanDependentPartsOfTriggeredCrossFileChecks(final Iterable<InputFile> inputFiles, final List<AbstractTextCheck> activeChecks, final int threads) {
+    List<AbstractCrossFileCheck> triggeredChecks = new ArrayList<>();
+    for (AbstractTextCheck check : activeChecks) {
+      if (check instanceof AbstractCrossFileCheck && ((AbstractCrossFileCheck) check).isTriggered()) {
+        triggeredChecks.add((AbstractCrossFileCheck) check);
+      }
+    }
+    LOG.info("{} cross-file rules were triggered and need a second pass over the files", triggeredChecks.size());
+    if (triggeredChecks.isEmpty()) {
+      return;
+    }
+
+    if (threads == 1) {
+      for (InputFile inputFile : inputFiles) {
+        scanDependentRuleParts(inputFile, triggeredChecks);
+      }
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new AnalysisThreadFactory());
+    Deque<Future<?>> pendingScans = new ArrayDeque<>();
+    try {
+      for (InputFile inputFile : inputFiles) {
+        pendingScans.add(executor.submit(() -> scanDependentRuleParts(inputFile, triggeredChecks)));
+        if (pendingScans.size() >= threads * PENDING_FILES_PER_THREAD) {
+          awaitScan(pendingScans.poll());
+        }
+      }
+      while (!pendingScans.isEmpty()) {
+        awaitScan(pendingScans.poll());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void scanDependentRuleParts(final InputFile inputFile, final List<AbstractCrossFileCheck> triggeredChecks) {
+    TextSourceFile textSourceFile = new TextSourceFile(inputFile, filePatternMatcher, regexStepsPerCharacter);
+    try {
+      for (AbstractCrossFileCheck check : triggeredChecks) {
+        if (regexBudgetTracker.isDisabled(check) || !check.mayApplyTo(textSourceFile)) {
+          continue;
+        }
+        int contentsRequestsBefore = textSourceFile.getContentsRequests();
+        long startNanos = System.nanoTime();
+        try {
+          check.validateDependentParts(crossFileMatchStore, textSourceFile, project.key());
+        } catch (RegexBudgetExceededException e) {
+          regexBudgetTracker.budgetExceeded(check, inputFile);
+        } catch (Exception e) {
+          LOG.warn("Check for rule \"{}\" choked on file {}. Continuing the scan. Skipping evaluation of just this one rule against this one file.", check.getRuleKey(), inputFile.uri().toString());
+          LOG.warn("Check failure details:", e);
+        } finally {
+          RuleProfiler.evaluated(ruleProfiler.countersOf(check), textSourceFile, contentsRequestsBefore, startNanos);
+        }
+      }
+      crossFileMatchStore.fileCompleted(inputFile);
+    } finally {
+      textSourceFile.releaseContents();
+    }
+  }
+
+  private void awaitScan(final Future<?> pendingScan) {
+    try {
+      pendingScan.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for text file analysis to complete", e);
+    } catch (ExecutionException e) {
+      LOG.error("Choked while analysing a file. Continuing the scan.", e.getCause());
+    }
+  }
+
+  /**
+   * Each cross-file rule only reads its own matches from the store so the rules are evaluated independently of each
+   * other, in parallel when more than one thread is configured. Their issues are still saved on the calling thread, rule
+   * by rule in the order in which the rules were activated and file by file in the order of their uris.
+   * <p>
+   * Once matches were spilled to disk the rules are evaluated one at a time and each file's issues are saved as soon as
+   * they are raised, so that the issues of a broad rule are never all held in memory.
+   */
+  private void raiseCrossFileCheckIssues(final List<AbstractTextCheck> activeChecks, final int threads) {
+    List<AbstractCrossFileCheck> crossFileChecks = new ArrayList<>();
+    for (AbstractTextCheck check : activeChecks) {
+      if (!(check instanceof AbstractCrossFileCheck)) {
+        continue;
+      }
+      if (regexBudgetTracker.isDisabled(check)) {
+        // Its matches only cover part of the files; an issue for something missing could be wrong
+        LOG.warn("Cross-file rule \"{}\" was disabled during the scan and raises no issue.", check.getRuleKey());
+      } else {
+        crossFileChecks.add((AbstractCrossFileCheck) check);
+      }
+    }
+
+    if (threads == 1 || crossFileChecks.size() < 2 || crossFileMatchStore.hasSpilled()) {
+      for (AbstractCrossFileCheck check : crossFileChecks) {
+        long startNanos = System.nanoTime();
+        check.raiseIssuesAfterScan(file -> saveIssues(file.getTextIssues(), file.getInputFile()));
+        RuleProfiler.timeSpent(ruleProfiler.countersOf(check), startNanos);
+      }
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, crossFileChecks.size()), new AnalysisThreadFactory());
+    try {
+      List<Future<List<TextSourceFile>>> pendingResults = new ArrayList<>();
+      for (AbstractCrossFileCheck check : crossFileChecks) {
+        pendingResults.add(executor.submit(() -> {
+          long startNanos = System.nanoTime();
+          List<TextSourceFile> filesWithIssues = check.raiseIssuesAfterScan();
+          RuleProfiler.timeSpent(ruleProfiler.countersOf(check), startNanos);
+          return filesWithIssues;
+        }));
+      }
+      for (int i = 0; i < pendingResults.size(); i++) {
+        try {
+          for (TextSourceFile file : pendingResults.get(i).get()) {
+            saveIssues(file.getTextIssues(), file.getInputFile());
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while waiting for cross-file rules to be evaluated", e);
+        } catch (ExecutionException e) {
+          LOG.error("Cross-file rule \"{}\" choked while raising its issues. Continuing the scan.", crossFileChecks.get(i).getRuleKey(), e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void saveIssues(final Future<TextSourceFile> pendingResult) {
+    try {
+      TextSourceFile textSourceFile = pendingResult.get();
+      saveIssues(textSourceFile.getTextIssues(), textSourceFile.getInputFile());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for text file analysis to complete", e);
+    } catch (ExecutionException e) {
+      LOG.error("Choked while analysing a file. Continuing the scan.", e.getCause());
     }
   }
 
   private void saveIssues(final List<TextIssue> issuesList, final InputFile againstThisFile) {
     try {
       for (TextIssue issue : issuesList) {
+        ruleProfiler.issueSaved(issue.getRuleKey());
         NewIssue newIssue = sensorContext.newIssue();
 
         NewIssueLocation primaryLocation = newIssue.newLocation()
@@ -121,4 +552,20 @@ public class TextIssueSensor implements Sensor {
       LOG.error("Choked while savind issues identified for file {}. Continuing the scan. Issues were: \n\n{}.", againstThisFile.uri().toString(), issuesList.toString(), e);
     }
   }
+
+  static int getThreadCount(final Configuration config) {
+    int threads = config.getInt(TextPlugin.THREADS_KEY).orElse(Integer.parseInt(TextPlugin.THREADS_DEFAULT_VALUE));
+    return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+  }
+
+  private static final class AnalysisThreadFactory implements ThreadFactory {
+    private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      Thread thread = new Thread(runnable, "txt-analysis-" + threadNumber.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
 }
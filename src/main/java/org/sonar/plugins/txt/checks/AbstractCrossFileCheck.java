@@ -1,14 +1,24 @@
 package org.sonar.plugins.txt.checks;
 
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-
-import org.sonar.api.batch.fs.InputFile;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.txt.checks.util.LargeFileEncounteredException;
+import org.sonar.plugins.txt.checks.util.LineIterator;
+import org.sonar.plugins.txt.checks.util.LiteralPrefilter;
+import org.sonar.plugins.txt.checks.util.RegexBudget;
 
 public abstract class AbstractCrossFileCheck extends AbstractTextCheck {
-  Map<InputFile, List<CrossFileScanPrelimIssue>> crossFileChecksRawResults;
+  private static final Logger LOG = LoggerFactory.getLogger(AbstractCrossFileCheck.class);
+
+  volatile CrossFileMatchStore crossFileMatchStore;
 
   @Override
   public void validate(final TextSourceFile sourceFile, final String projectKey) {
@@ -16,64 +26,211 @@ public abstract class AbstractCrossFileCheck extends AbstractTextCheck {
   }
 
   // Later will be moved to a new parent abstract class used by cross-file checks
-  protected final void recordMatch(final RulePart rulePart, final Integer linePosition, final String message) {
+  protected final void recordMatch(final TextSourceFile fileToReportAgainst, final RulePart rulePart, final Integer linePosition, final String message) {
+    if (isExistenceOnly(rulePart) && !crossFileMatchStore.keepsMatchesOfEveryFile()) {
+      crossFileMatchStore.markPresent(getRuleKey(), rulePart);
+      return;
+    }
 
-    CrossFileScanPrelimIssue issueToRecord = new CrossFileScanPrelimIssue(rulePart, this.getRuleKey(), linePosition, message);
+    crossFileMatchStore.record(fileToReportAgainst.getInputFile(), getRuleKey(), rulePart, linePosition, message);
+  }
 
-    TextSourceFile fileToReportAgainst = getTextSourceFile();
-    List<CrossFileScanPrelimIssue> prelimIssuesForOneFile = crossFileChecksRawResults.get(fileToReportAgainst.getInputFile());
+  /**
+   * Set by the sensor before the scan so that the rule can raise its issues even when none of the files had to be
+   * scanned again. The validate methods set it too.
+   */
+  public void setCrossFileMatchStore(final CrossFileMatchStore crossFileMatchStore) {
+    this.crossFileMatchStore = crossFileMatchStore;
+  }
 
-    if (prelimIssuesForOneFile == null) {
-      prelimIssuesForOneFile = new LinkedList<CrossFileScanPrelimIssue>();
-      prelimIssuesForOneFile.add(issueToRecord);
-      crossFileChecksRawResults.put(fileToReportAgainst.getInputFile(), prelimIssuesForOneFile);
-    } else {
-      prelimIssuesForOneFile.add(issueToRecord);
-    }
+  /**
+   * Looks for every part of the rule in the file.
+   */
+  public final void validate(final CrossFileMatchStore crossFileMatchStore, final TextSourceFile textSourceFile, final String projectKey) {
+    validate(crossFileMatchStore, textSourceFile, projectKey, EnumSet.allOf(RulePart.class));
+  }
 
+  /**
+   * First phase of a two-phase scan: only looks for the rule's trigger in the file.
+   */
+  public final void validateTrigger(final CrossFileMatchStore crossFileMatchStore, final TextSourceFile textSourceFile, final String projectKey) {
+    validate(crossFileMatchStore, textSourceFile, projectKey, EnumSet.of(RulePart.TriggerPattern));
+  }
 
+  /**
+   * Second phase of a two-phase scan: looks for the parts of the rule that only matter once the trigger was found.
+   */
+  public final void validateDependentParts(final CrossFileMatchStore crossFileMatchStore, final TextSourceFile textSourceFile, final String projectKey) {
+    validate(crossFileMatchStore, textSourceFile, projectKey, EnumSet.complementOf(EnumSet.of(RulePart.TriggerPattern)));
   }
 
-  protected void setCrossFileChecksRawResults(final Map<InputFile, List<CrossFileScanPrelimIssue>> crossFileChecksRawResults) {
-    this.crossFileChecksRawResults = crossFileChecksRawResults;
+  /**
+   * @return true when the trigger was found in at least one of the files scanned so far
+   */
+  public boolean isTriggered() {
+    return isRuleTriggerPresent();
   }
 
-  public abstract void validate(Map<InputFile, List<CrossFileScanPrelimIssue>> crossFileChecksRawResults,
+  protected abstract void validate(CrossFileMatchStore crossFileMatchStore,
                        TextSourceFile textSourceFile,
-                       String projectKey
+                       String projectKey,
+                       Set<RulePart> ruleParts
                       );
 
-  private boolean isRuleTriggerPresent() {
-    boolean ruleTriggered = false;
-    for (Entry<InputFile, List<CrossFileScanPrelimIssue>> currentInputFileEntry : crossFileChecksRawResults.entrySet()) {
-      List<CrossFileScanPrelimIssue> prelimIssues = currentInputFileEntry.getValue();
-      for (CrossFileScanPrelimIssue currentPrelimIssue : prelimIssues) {
-        if (RulePart.TriggerPattern == currentPrelimIssue.getRulePart() && this.getRuleKey().equals(currentPrelimIssue.getRuleKey())) {
-          ruleTriggered = true;
-//          System.out.println("Trigger detected during final cross-file processing: " + currentPrelimIssue);
-          break;
+  /**
+   * Looks for every given rule part in the file in a single pass, each part still being recorded separately. In
+   * line-at-a-time mode each line is handed to every part's regex before moving on to the next line; in DOTALL mode
+   * every part's regex is applied to the same decoded contents. A part that only needs to exist stops being evaluated
+   * at its first match.
+   */
+  protected final void recordMatches(final TextSourceFile textSourceFile, final List<RulePartScan> scans, final boolean oneLineAtATime, final String message) {
+    if (scans.isEmpty()) {
+      return;
+    }
+    LOG.debug("Checking file: {}", textSourceFile.getInputFile().uri());
+
+    if (oneLineAtATime) {
+      recordMatchesOneLineAtATime(textSourceFile, scans, message);
+    } else {
+      recordMatchesUsingDOTALLFriendlyApproach(textSourceFile, scans, message);
+    }
+  }
+
+  private void recordMatchesOneLineAtATime(final TextSourceFile textSourceFile, final List<RulePartScan> scans, final String message) {
+    // Apply each pattern to search this empty string just to get a matcher reference. We'll reset them for each real line.
+    Matcher[] matchers = new Matcher[scans.size()];
+    boolean[] finished = new boolean[scans.size()];
+    for (int i = 0; i < matchers.length; i++) {
+      matchers[i] = scans.get(i).pattern.matcher("");
+    }
+    int unfinished = matchers.length;
+
+    LineIterator lines = textSourceFile.lineIterator();
+    // Every part shares the rule's budget
+    RegexBudget budget = textSourceFile.newRegexBudget();
+    while (lines.next()) {
+      CharSequence line = lines.line();
+      int lineNumber = lines.lineNumber();
+      for (int i = 0; i < matchers.length; i++) {
+        RulePartScan scan = scans.get(i);
+        if (finished[i]) {
+          continue;
+        }
+        if (scan.prefilter != null && !scan.prefilter.mightMatch(line)) {
+          textSourceFile.evaluationsAvoided(1);
+          continue;
+        }
+        if (matchers[i].reset(budget.guard(line)).find()) {
+          LOG.debug("{} match found: '{}' on line {} of file '{}'.", scan.rulePart, line, lineNumber, textSourceFile.getInputFile().uri());
+          recordMatch(textSourceFile, scan.rulePart, lineNumber, message);
+          if (isExistenceOnly(scan.rulePart)) {
+            finished[i] = true;
+            unfinished--;
+          }
         }
       }
+      if (unfinished == 0) {
+        return;
+      }
     }
+  }
 
-    return ruleTriggered;
+  private void recordMatchesUsingDOTALLFriendlyApproach(final TextSourceFile textSourceFile, final List<RulePartScan> scans, final String message) {
+    CharSequence entireFileAsString;
+
+    try {
+      entireFileAsString = textSourceFile.getContents();
+    } catch (LargeFileEncounteredException ex) {
+      // Only files over 2 GB end up here. Note: The source file logs a warning so this doesn't completely hide/swallow the concern
+      return;
+    }
+
+    RegexBudget budget = textSourceFile.newRegexBudget();
+    for (RulePartScan scan : scans) {
+      if (scan.prefilter != null && !scan.prefilter.mightMatch(entireFileAsString)) {
+        textSourceFile.evaluationsAvoided(1);
+        continue;
+      }
+      Matcher matcher = scan.pattern.matcher(budget.guard(entireFileAsString));
+      if (matcher.find()) {
+        int lineNumberOfMatch = textSourceFile.getLineIndex().lineOf(matcher.start());
+        LOG.debug("{} match found: on line {} of file '{}'.", scan.rulePart, lineNumberOfMatch, textSourceFile.getInputFile().uri());
+        recordMatch(textSourceFile, scan.rulePart, lineNumberOfMatch, message);
+      }
+    }
+  }
+
+  /**
+   * @return true when this check only needs to know whether the rule part matched somewhere in the project, not where.
+   *         Scanning for such a part can stop at its first match, in the file and across the project.
+   */
+  protected boolean isExistenceOnly(final RulePart rulePart) {
+    return false;
+  }
+
+  /**
+   * @return true when the rule part only needs to exist and a match was already found, so files needn't be scanned for it
+   */
+  protected final boolean isAlreadySatisfied(final RulePart rulePart) {
+    return isExistenceOnly(rulePart) && !crossFileMatchStore.keepsMatchesOfEveryFile() && crossFileMatchStore.hasMatches(getRuleKey(), rulePart);
+  }
+
+  private boolean isRuleTriggerPresent() {
+    return crossFileMatchStore != null && crossFileMatchStore.hasMatches(getRuleKey(), RulePart.TriggerPattern);
+  }
+
+  /**
+   * Raises an issue on every line matched by the given part of this rule, with the message the matches were recorded
+   * with. Files are handed to the consumer one at a time in the order of their uris.
+   */
+  protected final void raiseIssuesOnMatches(final RulePart rulePart, final Consumer<TextSourceFile> sourceFiles) {
+    String recordedMessage = crossFileMatchStore.getMessage(getRuleKey());
+    crossFileMatchStore.forEachFile(getRuleKey(), rulePart, (inputFile, lines) -> {
+      TextSourceFile textSourceFile = new TextSourceFile(inputFile);
+      for (int line : lines) {
+        createViolation(textSourceFile, line, recordedMessage);
+      }
+      sourceFiles.accept(textSourceFile);
+    });
   }
 
   /**
    * After the first "labelling" pass analyze the files that were flagged to determine which need an issue raised for the current check
-   * @param
-   * @return
+   * @return the files with issues, in the order of their uris
    */
   public List<TextSourceFile> raiseIssuesAfterScan() {
     List<TextSourceFile> textSourceFiles = new LinkedList<TextSourceFile>();
+    raiseIssuesAfterScan(textSourceFiles::add);
+    return textSourceFiles;
+  }
 
+  /**
+   * Same as {@link #raiseIssuesAfterScan()} but hands each file with issues to the consumer as soon as it is ready, so
+   * the issues of a broad rule needn't all be held in memory at once.
+   */
+  public void raiseIssuesAfterScan(final Consumer<TextSourceFile> sourceFiles) {
     if (isRuleTriggerPresent()) {
-      raiseAppropriateViolationsAgainstSourceFiles(textSourceFiles);
+      raiseAppropriateViolationsAgainstSourceFiles(sourceFiles);
     }
-    return textSourceFiles;
   }
 
-  abstract protected void raiseAppropriateViolationsAgainstSourceFiles(List<TextSourceFile> sourceFiles);
+  abstract protected void raiseAppropriateViolationsAgainstSourceFiles(Consumer<TextSourceFile> sourceFiles);
+
+  /**
+   * One part of a rule to look for in a file: the compiled expression, its optional literal prefilter and the part it
+   * gets recorded as.
+   */
+  static final class RulePartScan {
+    final RulePart rulePart;
+    final Pattern pattern;
+    final LiteralPrefilter prefilter;
+
+    RulePartScan(final RulePart rulePart, final Pattern pattern, final LiteralPrefilter prefilter) {
+      this.rulePart = rulePart;
+      this.pattern = pattern;
+      this.prefilter = prefilter;
+    }
+  }
 
   enum RulePart {
     TriggerPattern("TriggerPattern"), DisallowPattern("DisallowPattern"), MustAlsoExistPattern("MustAlsoExistPattern");
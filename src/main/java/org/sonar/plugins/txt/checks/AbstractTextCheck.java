@@ -1,17 +1,16 @@
 package org.sonar.plugins.txt.checks;
 
-import java.util.regex.Matcher;
+import java.util.Collections;
+import java.util.List;
 import java.util.regex.Pattern;
 
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.rule.RuleKey;
-import org.sonar.api.utils.WildcardPattern;
 import org.sonar.check.RuleProperty;
 
 public abstract class AbstractTextCheck {
 
   private RuleKey ruleKey;
-  private TextSourceFile textSourceFile;
 
   @RuleProperty(key = "doNotFireForTheseProjectKeys", type = "TEXT", defaultValue = "", description = "Use to exclude certain projects from this rule. Sample RegEx patterns: '^someMavenGroupIdPrefix' or 'someArtifactIdEndingDenotingSpecialProjectsToBeExcludedFromRule$'")
   private String doNotFireForProjectKeysRegex;
@@ -19,35 +18,117 @@ public abstract class AbstractTextCheck {
   @RuleProperty(key = "doNotFireForTheseFileNames", type = "TEXT", defaultValue = "", description = "Use to exclude certain file names from this rule. Sample RegEx pattern: '^(local\\.properties|README.txt)$'")
   private String doNotFireForTheseFileNamesRegex;
 
-  protected final void createViolation(final Integer linePosition, final String message) {
+  // Compiled state, built once per scan by prepare(). Written under the lock and published by the volatile write of preparedForProjectKey.
+  private volatile String preparedForProjectKey;
+  private boolean firesForProject;
+  private Pattern doNotFireForTheseFileNamesPattern;
+
+  /**
+   * The file being checked is passed in rather than held by the check because one check instance is evaluated
+   * against several files at the same time when the sensor runs with more than one thread.
+   */
+  protected final void createViolation(final TextSourceFile textSourceFile, final Integer linePosition, final String message) {
     textSourceFile.addViolation(new TextIssue(ruleKey, linePosition, message));
   }
 
   /**
    * Apply the Ant style file pattern to decide if the file is included
    */
-  protected boolean isFileIncluded(final String filePattern) {
-    return (filePattern == null) ? true :  WildcardPattern.create(filePattern).match(textSourceFile.getLogicalPath());
+  protected boolean isFileIncluded(final String filePattern, final TextSourceFile textSourceFile) {
+    return (filePattern == null) ? true : textSourceFile.matchesFilePattern(filePattern);
   }
 
-  protected boolean shouldFireForProject(final String currentProjectKey) {
-    if (doNotFireForProjectKeysRegex == null || "".equals(doNotFireForProjectKeysRegex.trim())) {
+  /**
+   * Every file pattern this rule passes to {@link #isFileIncluded}, so that the sensor can compile the patterns of all
+   * rules into one {@link org.sonar.plugins.txt.checks.util.FilePatternMatcher}. Values may be null.
+   */
+  public List<String> getFilePatterns() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Whether the rule could raise an issue on the file, or record a match in it, judging only by the file's path and
+   * metadata: one of its file patterns includes the file, its file name exclusion doesn't apply and the file isn't
+   * empty unless the rule can match an empty file. Only valid once {@link #prepare(String)} has returned true.
+   */
+  public final boolean mayApplyTo(final TextSourceFile textSourceFile) {
+    if (isExcludedFileName(textSourceFile.getInputFile()) || (!canMatchEmptyFile() && textSourceFile.isEmptyFile())) {
+      return false;
+    }
+    List<String> filePatterns = getFilePatterns();
+    if (filePatterns.isEmpty()) {
       return true;
-    } else {
-  	  Pattern regexp = Pattern.compile(doNotFireForProjectKeysRegex);
-      Matcher matcher = regexp.matcher(currentProjectKey);
-      return !matcher.find();
     }
+    for (String filePattern : filePatterns) {
+      if (isFileIncluded(filePattern, textSourceFile)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Rules applied one line at a time can't match a file that has no lines. Only valid once prepare() was called.
+   */
+  protected boolean canMatchEmptyFile() {
+    return true;
   }
 
+  protected static boolean matchesEmptyText(final Pattern pattern) {
+    return pattern != null && pattern.matcher("").find();
+  }
+
+  /**
+   * Compiles this rule's regular expressions and decides once whether the rule applies to the project being scanned.
+   * The sensor calls this before the scan starts so a bad regular expression is reported once instead of once per file;
+   * when a check is driven directly the first call to validate() does it.
+   * @return false when the project key matches the rule's project exclusion
+   * @throws java.util.regex.PatternSyntaxException when one of the rule's regular expressions is invalid
+   */
+  public final boolean prepare(final String projectKey) {
+    if (!projectKey.equals(preparedForProjectKey)) {
+      synchronized (this) {
+        if (!projectKey.equals(preparedForProjectKey)) {
+          Pattern doNotFireForProjectKeysPattern = compileExclusion(doNotFireForProjectKeysRegex);
+          firesForProject = doNotFireForProjectKeysPattern == null || !doNotFireForProjectKeysPattern.matcher(projectKey).find();
+          doNotFireForTheseFileNamesPattern = compileExclusion(doNotFireForTheseFileNamesRegex);
+          compileExpressions();
+          preparedForProjectKey = projectKey;
+        }
+      }
+    }
+    return firesForProject;
+  }
+
+  /**
+   * Compile the rule's own regular expressions into fields that validate() reuses for every file.
+   */
+  protected abstract void compileExpressions();
+
+  /**
+   * Setters of properties that feed compileExpressions() call this so that the next prepare() recompiles.
+   */
+  protected final void resetCompiledExpressions() {
+    preparedForProjectKey = null;
+  }
+
+  private static Pattern compileExclusion(final String regex) {
+    return (regex == null || "".equals(regex.trim())) ? null : Pattern.compile(regex);
+  }
+
+  protected boolean shouldFireForProject(final String currentProjectKey) {
+    return prepare(currentProjectKey);
+  }
+
+  /**
+   * Only valid once {@link #shouldFireForProject(String)} has returned true for the current scan.
+   */
   protected boolean shouldFireOnFile(final InputFile currentFile) {
-	  if (doNotFireForTheseFileNamesRegex == null || "".equals(doNotFireForTheseFileNamesRegex.trim())) {
-	    return true;
-	  } else {
-	    Pattern regexp = Pattern.compile(doNotFireForTheseFileNamesRegex);
-	    Matcher matcher = regexp.matcher(currentFile.filename());
-	    return !matcher.find();
-	  }
+    return !isExcludedFileName(currentFile);
+  }
+
+  private boolean isExcludedFileName(final InputFile currentFile) {
+    return doNotFireForTheseFileNamesPattern != null && doNotFireForTheseFileNamesPattern.matcher(currentFile.filename()).find();
   }
 
   public final void setRuleKey(final RuleKey ruleKey) {
@@ -60,20 +141,14 @@ public abstract class AbstractTextCheck {
 
   public void setDoNotFireForProjectKeysRegex(final String doNotFireForProjectKeysRegex) {
     this.doNotFireForProjectKeysRegex = doNotFireForProjectKeysRegex;
+    resetCompiledExpressions();
   }
 
   public void setDoNotFireForTheseFileNamesRegex(final String doNotFireForTheseFileNamesRegex) {
     this.doNotFireForTheseFileNamesRegex = doNotFireForTheseFileNamesRegex;
-  }
-
-  protected void setTextSourceFile(final TextSourceFile sourceFile) {
-    this.textSourceFile = sourceFile;
+    resetCompiledExpressions();
   }
 
   public abstract void validate(TextSourceFile sourceFile, String projectKey);
 
-  protected TextSourceFile getTextSourceFile() {
-    return textSourceFile;
-  }
-
 }
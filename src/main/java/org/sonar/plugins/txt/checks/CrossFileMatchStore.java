@@ -0,0 +1,585 @@
+package org.sonar.plugins.txt.checks;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.plugins.txt.checks.AbstractCrossFileCheck.RulePart;
+
+/**
+ * Preliminary matches recorded by the cross-file checks while the files are scanned, indexed by rule and by the part of
+ * the rule that matched. Each rule only ever looks at its own matches when deciding which issues to raise, and finding
+ * out whether any file matched a given part of a rule doesn't depend on how many matches were recorded.
+ * <p>
+ * Broad rules can match millions of lines so matches are kept in primitive form: every file that has a match is given
+ * an ordinal once, and each part of each rule keeps a growable int array of line numbers per file ordinal. A rule
+ * reports all of its matches with the same message, which is kept once per rule.
+ * <p>
+ * When a memory budget is given and the store goes over it, the line numbers of every completed file still in memory
+ * are written to a temp file as one run sorted by rule, rule part and file uri, and only where each rule part's section
+ * of the run starts is kept in memory. Only the files still being analysed stay in memory. Reading the matches of a
+ * rule part back merges its sections of every run with what is still in memory, a buffer at a time, so the files
+ * still come in uri order without any run being loaded whole.
+ * <p>
+ * Parts of a rule whose matches are only ever used to know that one exists somewhere in the project are marked as
+ * present instead of having each match recorded, unless the matches of every file are needed on their own (to be
+ * cached for the next analysis): then the first match in each file is recorded.
+ * <p>
+ * Matches may be recorded by several threads at once as long as a given file is analysed by a single thread. Reading
+ * them back is only meant to happen once every file has been scanned.
+ */
+public final class CrossFileMatchStore implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(CrossFileMatchStore.class);
+
+  // Rough per-object costs on a 64 bit JVM with compressed references, used to estimate the store's heap footprint
+  private static final int ARRAY_HEADER_BYTES = 16;
+  private static final int FILE_ENTRY_BYTES = 96;
+  private static final int RUN_SECTION_BYTES = 48;
+  private static final int SPILL_BUFFER_BYTES = 64 * 1024;
+  private static final int READ_BUFFER_BYTES = 8 * 1024;
+  // Bump whenever the form written by serializeMatchesOf() changes
+  private static final int SERIALIZED_FORMAT_VERSION = 1;
+
+  private final ConcurrentMap<RuleKey, RuleEntry> matchesByRule = new ConcurrentHashMap<>();
+  private final ConcurrentMap<InputFile, Integer> fileOrdinals = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Integer, InputFile> filesByOrdinal = new ConcurrentHashMap<>();
+  private final AtomicInteger nextFileOrdinal = new AtomicInteger();
+  private final LongAdder estimatedHeapBytes = new LongAdder();
+  // Files whose matches may be spilled: completed, and not recorded into again since
+  private final Set<Integer> completedInMemory = ConcurrentHashMap.newKeySet();
+
+  private final long memoryBudgetBytes;
+  private final Path spillDirectory;
+  private final boolean matchesOfEveryFileNeeded;
+  private final List<SpillRun> spillRuns = new ArrayList<>();
+  private volatile boolean spilled;
+
+  /**
+   * Keeps every match in memory.
+   */
+  public CrossFileMatchStore() {
+    this(0, null, false);
+  }
+
+  /**
+   * @param memoryBudgetBytes how many bytes of matches to keep in memory before spilling completed files to disk; 0 to
+   *        never spill
+   * @param spillDirectory where the spill files are created
+   * @param matchesOfEveryFileNeeded true when each file's matches must be complete on their own, see
+   *        {@link #keepsMatchesOfEveryFile()}
+   */
+  public CrossFileMatchStore(final long memoryBudgetBytes, final Path spillDirectory, final boolean matchesOfEveryFileNeeded) {
+    this.memoryBudgetBytes = memoryBudgetBytes;
+    this.spillDirectory = spillDirectory;
+    this.matchesOfEveryFileNeeded = matchesOfEveryFileNeeded;
+  }
+
+  /**
+   * @return true when every file has to be searched for every part of every rule and each file's matches recorded,
+   *         even for parts that only need to exist somewhere in the project
+   */
+  public boolean keepsMatchesOfEveryFile() {
+    return matchesOfEveryFileNeeded;
+  }
+
+  void record(final InputFile inputFile, final RuleKey ruleKey, final RulePart rulePart, final int line, final String message) {
+    RuleEntry ruleEntry = matchesByRule.computeIfAbsent(ruleKey, k -> new RuleEntry(message));
+    if (ruleEntry.message == null) {
+      // The entry was created when a part of the rule was marked present, which carries no message
+      ruleEntry.message = message;
+    }
+    Integer ordinal = fileOrdinal(inputFile);
+    if (completedInMemory.contains(ordinal)) {
+      // A completed file is scanned again for the dependent parts of triggered rules
+      reopen(ordinal);
+    }
+    // The per-file line numbers need no locking because each file is analysed by exactly one thread
+    ruleEntry.linesByPart.get(rulePart)
+        .computeIfAbsent(ordinal, k -> new LineNumbers())
+        .add(line, estimatedHeapBytes);
+  }
+
+  void markPresent(final RuleKey ruleKey, final RulePart rulePart) {
+    matchesByRule.computeIfAbsent(ruleKey, k -> new RuleEntry(null)).presentParts.add(rulePart);
+  }
+
+  /**
+   * To be called by the thread that analysed the file once every cross-file check is done with it. When the store is
+   * over its memory budget, the matches of every completed file still in memory are spilled to disk, this file's
+   * included.
+   */
+  public void fileCompleted(final InputFile inputFile) {
+    if (memoryBudgetBytes <= 0) {
+      return;
+    }
+    Integer ordinal = fileOrdinals.get(inputFile);
+    if (ordinal != null) {
+      completedInMemory.add(ordinal);
+    }
+    if (estimatedHeapBytes.sum() > memoryBudgetBytes) {
+      spillCompletedFiles();
+    }
+  }
+
+  /**
+   * Serializes the matches recorded for one file, to be restored into the store of a later analysis. Must be called by
+   * the thread that analysed the file, before {@link #fileCompleted}.
+   */
+  public byte[] serializeMatchesOf(final InputFile inputFile) throws IOException {
+    Integer ordinal = fileOrdinals.get(inputFile);
+    List<RuleKey> ruleKeys = new ArrayList<>(matchesByRule.keySet());
+    ruleKeys.sort(Comparator.comparing(RuleKey::toString));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(SERIALIZED_FORMAT_VERSION);
+      for (RuleKey ruleKey : ruleKeys) {
+        RuleEntry ruleEntry = matchesByRule.get(ruleKey);
+        for (RulePart rulePart : RulePart.values()) {
+          LineNumbers lines = (ordinal == null) ? null : ruleEntry.linesByPart.get(rulePart).get(ordinal);
+          if (lines != null) {
+            out.writeBoolean(true);
+            out.writeUTF(ruleKey.repository());
+            out.writeUTF(ruleKey.rule());
+            out.writeUTF(rulePart.name());
+            out.writeUTF(ruleEntry.message == null ? "" : ruleEntry.message);
+            out.writeInt(lines.size);
+            for (int i = 0; i < lines.size; i++) {
+              out.writeInt(lines.lines[i]);
+            }
+          }
+        }
+      }
+      out.writeBoolean(false);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Records the matches a previous analysis serialized for the file, as if the file had just been scanned. Nothing is
+   * recorded when the value can't be read.
+   */
+  public void restoreMatchesOf(final InputFile inputFile, final byte[] serializedMatches) throws IOException {
+    List<CachedLines> entries = new ArrayList<>();
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(serializedMatches))) {
+      if (in.readInt() != SERIALIZED_FORMAT_VERSION) {
+        throw new IOException("Unknown serialized match format");
+      }
+      while (in.readBoolean()) {
+        RuleKey ruleKey = RuleKey.of(in.readUTF(), in.readUTF());
+        RulePart rulePart = RulePart.valueOf(in.readUTF());
+        String message = in.readUTF();
+        int[] lines = new int[in.readInt()];
+        for (int i = 0; i < lines.length; i++) {
+          lines[i] = in.readInt();
+        }
+        entries.add(new CachedLines(ruleKey, rulePart, message, lines));
+      }
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Unknown rule part in serialized matches", e);
+    }
+
+    // Only recorded once the whole value was read so that a damaged value leaves nothing behind
+    for (CachedLines entry : entries) {
+      for (int line : entry.lines) {
+        record(inputFile, entry.ruleKey, entry.rulePart, line, entry.message);
+      }
+    }
+  }
+
+  /**
+   * @return true when some of the matches were moved to disk
+   */
+  public boolean hasSpilled() {
+    return spilled;
+  }
+
+  /**
+   * @return whether the part of the rule matched anywhere, either as a recorded match or by being marked as present
+   */
+  boolean hasMatches(final RuleKey ruleKey, final RulePart rulePart) {
+    RuleEntry ruleEntry = matchesByRule.get(ruleKey);
+    return ruleEntry != null
+        && (ruleEntry.presentParts.contains(rulePart) || !ruleEntry.linesByPart.get(rulePart).isEmpty() || !ruleEntry.sectionsByPart.get(rulePart).isEmpty());
+  }
+
+  /**
+   * Hands the line numbers matched by one part of one rule to the consumer one file at a time, in the order of the
+   * files' uris. Within a file the lines come in the order they were recorded.
+   */
+  void forEachFile(final RuleKey ruleKey, final RulePart rulePart, final BiConsumer<InputFile, int[]> consumer) {
+    RuleEntry ruleEntry = matchesByRule.get(ruleKey);
+    if (ruleEntry == null) {
+      return;
+    }
+    Map<Integer, LineNumbers> inMemory = ruleEntry.linesByPart.get(rulePart);
+    List<Integer> ordinalsInMemory = new ArrayList<>(inMemory.keySet());
+    ordinalsInMemory.sort(inUriOrder());
+
+    // Every run's section is already in uri order; the lines a file got in several runs come in the order of the runs
+    Comparator<SectionCursor> cursorOrder = Comparator.comparing((SectionCursor cursor) -> cursor.ordinal, inUriOrder())
+        .thenComparingInt(cursor -> cursor.sequence);
+    PriorityQueue<SectionCursor> cursors = new PriorityQueue<>(cursorOrder);
+    List<RunSection> sections = ruleEntry.sectionsByPart.get(rulePart);
+    for (int i = 0; i < sections.size(); i++) {
+      SectionCursor cursor = new SectionCursor(sections.get(i), i);
+      if (cursor.nextFile()) {
+        cursors.add(cursor);
+      }
+    }
+
+    int nextInMemory = 0;
+    while (!cursors.isEmpty() || nextInMemory < ordinalsInMemory.size()) {
+      Integer ordinal;
+      if (cursors.isEmpty()) {
+        ordinal = ordinalsInMemory.get(nextInMemory);
+      } else if (nextInMemory == ordinalsInMemory.size()) {
+        ordinal = cursors.peek().ordinal;
+      } else {
+        ordinal = (inUriOrder().compare(cursors.peek().ordinal, ordinalsInMemory.get(nextInMemory)) <= 0) ? cursors.peek().ordinal : ordinalsInMemory.get(nextInMemory);
+      }
+
+      int[] lines = new int[0];
+      while (!cursors.isEmpty() && cursors.peek().ordinal.equals(ordinal)) {
+        SectionCursor cursor = cursors.poll();
+        lines = cursor.appendLinesTo(lines);
+        if (cursor.nextFile()) {
+          cursors.add(cursor);
+        }
+      }
+      if (nextInMemory < ordinalsInMemory.size() && ordinalsInMemory.get(nextInMemory).equals(ordinal)) {
+        lines = inMemory.get(ordinal).appendTo(lines);
+        nextInMemory++;
+      }
+      consumer.accept(filesByOrdinal.get(ordinal), lines);
+    }
+  }
+
+  /**
+   * @return the line numbers matched by one part of one rule, grouped by the file they were found in. Empty when
+   *         nothing matched.
+   */
+  Map<InputFile, int[]> getMatches(final RuleKey ruleKey, final RulePart rulePart) {
+    Map<InputFile, int[]> matches = new HashMap<>();
+    forEachFile(ruleKey, rulePart, matches::put);
+    return matches;
+  }
+
+  /**
+   * @return the message the rule recorded its matches with, null when it recorded none
+   */
+  String getMessage(final RuleKey ruleKey) {
+    RuleEntry ruleEntry = matchesByRule.get(ruleKey);
+    return ruleEntry == null ? null : ruleEntry.message;
+  }
+
+  /**
+   * @return the number of files that have at least one recorded match for any rule
+   */
+  int fileCount() {
+    return fileOrdinals.size();
+  }
+
+  /**
+   * @return an estimate of the heap taken by the recorded line numbers still in memory and the per-file bookkeeping around them
+   */
+  long estimatedHeapBytes() {
+    return estimatedHeapBytes.sum();
+  }
+
+  /**
+   * Deletes the spill files.
+   */
+  @Override
+  public synchronized void close() {
+    for (SpillRun spillRun : spillRuns) {
+      try {
+        spillRun.channel.close();
+        Files.deleteIfExists(spillRun.path);
+      } catch (IOException e) {
+        LOG.warn("Could not delete cross-file match spill file {}", spillRun.path, e);
+      }
+    }
+    spillRuns.clear();
+  }
+
+  private Integer fileOrdinal(final InputFile inputFile) {
+    return fileOrdinals.computeIfAbsent(inputFile, k -> {
+      Integer ordinal = nextFileOrdinal.getAndIncrement();
+      filesByOrdinal.put(ordinal, inputFile);
+      estimatedHeapBytes.add(FILE_ENTRY_BYTES);
+      return ordinal;
+    });
+  }
+
+  private Comparator<Integer> inUriOrder() {
+    return Comparator.comparing(ordinal -> filesByOrdinal.get(ordinal).uri());
+  }
+
+  /**
+   * Takes the file back from those that may be spilled; waits for a spill that is writing its matches to finish.
+   */
+  private synchronized void reopen(final Integer ordinal) {
+    completedInMemory.remove(ordinal);
+  }
+
+  private synchronized void spillCompletedFiles() {
+    // Another thread may have spilled while this one waited
+    if (estimatedHeapBytes.sum() <= memoryBudgetBytes || completedInMemory.isEmpty()) {
+      return;
+    }
+    if (!spilled) {
+      LOG.info("Cross-file rule matches exceed their memory budget of {} bytes. Matches of completed files are moved to {}", memoryBudgetBytes, spillDirectory);
+      spilled = true;
+    }
+    // Files are only added to the set by the threads completing them, and only taken out under this lock
+    List<Integer> ordinals = new ArrayList<>(completedInMemory);
+    completedInMemory.removeAll(ordinals);
+    ordinals.sort(inUriOrder());
+    List<RuleEntry> ruleEntries = new ArrayList<>(matchesByRule.values());
+
+    Path path = null;
+    try {
+      path = Files.createTempFile(spillDirectory, "txt-cross-file-matches-", ".bin");
+      SpillRun spillRun = new SpillRun(path, FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE));
+      // Registered first so that close() deletes it whatever happens next
+      spillRuns.add(spillRun);
+
+      // Flushed rather than closed: the channel stays open for reading the run back
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(spillRun.channel), SPILL_BUFFER_BYTES));
+      List<RunSection> sections = new ArrayList<>();
+      List<List<RunSection>> sectionLists = new ArrayList<>();
+      long position = 0;
+      for (RuleEntry ruleEntry : ruleEntries) {
+        for (RulePart rulePart : RulePart.values()) {
+          long start = position;
+          Map<Integer, LineNumbers> inMemory = ruleEntry.linesByPart.get(rulePart);
+          for (Integer ordinal : ordinals) {
+            LineNumbers lines = inMemory.get(ordinal);
+            if (lines != null) {
+              out.writeInt(ordinal);
+              out.writeInt(lines.size);
+              for (int i = 0; i < lines.size; i++) {
+                out.writeInt(lines.lines[i]);
+              }
+              position += 8L + 4L * lines.size;
+            }
+          }
+          if (position > start) {
+            sections.add(new RunSection(spillRun, start, position));
+            sectionLists.add(ruleEntry.sectionsByPart.get(rulePart));
+          }
+        }
+      }
+      out.flush();
+
+      // Published before the lines leave memory so that the matches can be found all along
+      for (int i = 0; i < sections.size(); i++) {
+        sectionLists.get(i).add(sections.get(i));
+        estimatedHeapBytes.add(RUN_SECTION_BYTES);
+      }
+      for (RuleEntry ruleEntry : ruleEntries) {
+        for (RulePart rulePart : RulePart.values()) {
+          Map<Integer, LineNumbers> inMemory = ruleEntry.linesByPart.get(rulePart);
+          for (Integer ordinal : ordinals) {
+            LineNumbers lines = inMemory.remove(ordinal);
+            if (lines != null) {
+              estimatedHeapBytes.add(-lines.heapBytes());
+            }
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Choked while moving cross-file rule matches to " + (path == null ? spillDirectory : path), e);
+    }
+  }
+
+  private static final class RuleEntry {
+    // Every match of a rule comes with the same message, so threads racing to set it all set the same value
+    private volatile String message;
+    private final Map<RulePart, ConcurrentMap<Integer, LineNumbers>> linesByPart = new EnumMap<>(RulePart.class);
+    // Sections of the spill runs, in the order the runs were written
+    private final Map<RulePart, List<RunSection>> sectionsByPart = new EnumMap<>(RulePart.class);
+    private final Set<RulePart> presentParts = ConcurrentHashMap.newKeySet();
+
+    private RuleEntry(final String message) {
+      this.message = message;
+      // Every part gets its maps up front so the EnumMaps themselves are never modified once they have been published
+      for (RulePart rulePart : RulePart.values()) {
+        linesByPart.put(rulePart, new ConcurrentHashMap<>());
+        sectionsByPart.put(rulePart, new CopyOnWriteArrayList<>());
+      }
+    }
+  }
+
+  /**
+   * Growable array of the line numbers matched in one file.
+   */
+  private static final class LineNumbers {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private int[] lines = new int[INITIAL_CAPACITY];
+    private int size;
+
+    private LineNumbers() {
+    }
+
+    private void add(final int line, final LongAdder estimatedHeapBytes) {
+      if (size == lines.length) {
+        int newCapacity = lines.length + (lines.length >> 1);
+        estimatedHeapBytes.add(4L * (newCapacity - lines.length));
+        lines = Arrays.copyOf(lines, newCapacity);
+      } else if (size == 0) {
+        estimatedHeapBytes.add(heapBytes());
+      }
+      lines[size++] = line;
+    }
+
+    private int[] appendTo(final int[] earlier) {
+      int[] all = Arrays.copyOf(earlier, earlier.length + size);
+      System.arraycopy(lines, 0, all, earlier.length, size);
+      return all;
+    }
+
+    private long heapBytes() {
+      return ARRAY_HEADER_BYTES + 4L * lines.length;
+    }
+  }
+
+  /**
+   * One spill file, holding the matches of the files completed since the previous one.
+   */
+  private static final class SpillRun {
+    private final Path path;
+    private final FileChannel channel;
+
+    private SpillRun(final Path path, final FileChannel channel) {
+      this.path = path;
+      this.channel = channel;
+    }
+  }
+
+  /**
+   * The bytes of a spill run holding one rule part's matches: for each file in uri order, its ordinal, its number of
+   * lines and the lines.
+   */
+  private static final class RunSection {
+    private final SpillRun run;
+    private final long start;
+    private final long end;
+
+    private RunSection(final SpillRun run, final long start, final long end) {
+      this.run = run;
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  /**
+   * Reads a section back one file at a time through a small buffer. Positional reads leave the channel alone, so any
+   * number of cursors can share it.
+   */
+  private static final class SectionCursor {
+    private final RunSection section;
+    private final int sequence;
+    private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+    private long position;
+    private Integer ordinal;
+    private int count;
+
+    private SectionCursor(final RunSection section, final int sequence) {
+      this.section = section;
+      this.sequence = sequence;
+      this.position = section.start;
+      buffer.limit(0);
+    }
+
+    /**
+     * @return false once every file of the section was read
+     */
+    private boolean nextFile() {
+      if (!buffer.hasRemaining() && position >= section.end) {
+        return false;
+      }
+      ordinal = nextInt();
+      count = nextInt();
+      return true;
+    }
+
+    private int[] appendLinesTo(final int[] earlier) {
+      int[] lines = Arrays.copyOf(earlier, earlier.length + count);
+      for (int i = 0; i < count; i++) {
+        lines[earlier.length + i] = nextInt();
+      }
+      return lines;
+    }
+
+    private int nextInt() {
+      if (buffer.remaining() < 4) {
+        fill();
+      }
+      return buffer.getInt();
+    }
+
+    private void fill() {
+      buffer.compact();
+      try {
+        while (buffer.position() < 4) {
+          buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + section.end - position));
+          int read = section.run.channel.read(buffer, position);
+          if (read < 0) {
+            throw new EOFException("Spill file ends before " + section.end);
+          }
+          position += read;
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Choked while reading cross-file rule matches back from " + section.run.path, e);
+      }
+      buffer.flip();
+    }
+  }
+
+  private static final class CachedLines {
+    private final RuleKey ruleKey;
+    private final RulePart rulePart;
+    private final String message;
+    private final int[] lines;
+
+    private CachedLines(final RuleKey ruleKey, final RulePart rulePart, final String message, final int[] lines) {
+      this.ruleKey = ruleKey;
+      this.rulePart = rulePart;
+      this.message = message;
+      this.lines = lines;
+    }
+  }
+}
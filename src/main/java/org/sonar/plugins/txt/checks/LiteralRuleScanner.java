@@ -0,0 +1,199 @@
+package org.sonar.plugins.txt.checks;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+
+import org.sonar.plugins.txt.checks.util.AhoCorasickAutomaton;
+import org.sonar.plugins.txt.checks.util.LineIterator;
+import org.sonar.plugins.txt.checks.util.RegexBudget;
+import org.sonar.plugins.txt.checks.util.RegexBudgetExceededException;
+
+/**
+ * Evaluates every {@link SimpleTextMatchCheck} whose expression boils down to "the line contains one of these strings"
+ * with a single Aho-Corasick pass over each line. The cost per line then no longer depends on how many such rules are
+ * active.
+ * <p>
+ * Rules that need real regular expression matching but whose matches always contain one of a few literals (see
+ * {@link org.sonar.plugins.txt.checks.util.LiteralPrefilter}) share the same pass: their regex only runs against the
+ * lines on which one of those literals was found. Rules offering neither keep running through java.util.regex.
+ */
+public final class LiteralRuleScanner {
+
+  // Keeps the automaton's trie and transition table to a sensible size. Rules that don't fit keep using their regex.
+  private static final int MAX_LITERAL_CHARACTERS = 100_000;
+
+  private final List<SimpleTextMatchCheck> fusedChecks;
+  // Set for the checks whose literals only make a line a candidate; their regex decides
+  private final BitSet needsRegexConfirmation;
+  private final int[] checkIndexByLiteral;
+  private final AhoCorasickAutomaton automaton;
+
+  private LiteralRuleScanner(final List<SimpleTextMatchCheck> fusedChecks, final BitSet needsRegexConfirmation, final int[] checkIndexByLiteral,
+                             final AhoCorasickAutomaton automaton) {
+    this.fusedChecks = fusedChecks;
+    this.needsRegexConfirmation = needsRegexConfirmation;
+    this.checkIndexByLiteral = checkIndexByLiteral;
+    this.automaton = automaton;
+  }
+
+  /**
+   * @param preparedChecks checks on which prepare() has already been called
+   */
+  public static LiteralRuleScanner create(final List<AbstractTextCheck> preparedChecks) {
+    List<SimpleTextMatchCheck> fusedChecks = new ArrayList<>();
+    BitSet needsRegexConfirmation = new BitSet();
+    List<String> literals = new ArrayList<>();
+    List<Integer> checkIndexes = new ArrayList<>();
+    int literalCharacters = 0;
+    BitSet asciiChars = new BitSet(128);
+
+    for (AbstractTextCheck check : preparedChecks) {
+      if (!(check instanceof SimpleTextMatchCheck)) {
+        continue;
+      }
+      SimpleTextMatchCheck simpleCheck = (SimpleTextMatchCheck) check;
+      List<String> alternatives = simpleCheck.getLiteralAlternatives();
+      boolean confirmWithRegex = false;
+      // The automaton compares characters exactly, so prefilters that ignore case stay with their own check
+      if (alternatives == null && simpleCheck.getPrefilter() != null && !simpleCheck.getPrefilter().ignoresCase()) {
+        alternatives = simpleCheck.getPrefilter().getLiterals();
+        confirmWithRegex = true;
+      }
+      if (alternatives == null || containsLineTerminator(alternatives)) {
+        continue;
+      }
+      int checkCharacters = 0;
+      BitSet checkAsciiChars = (BitSet) asciiChars.clone();
+      for (String alternative : alternatives) {
+        checkCharacters += alternative.length();
+        for (int i = 0; i < alternative.length(); i++) {
+          if (alternative.charAt(i) < 128) {
+            checkAsciiChars.set(alternative.charAt(i));
+          }
+        }
+      }
+      // Non-ASCII characters fall back to sparse transitions on their own, but the ASCII columns are always dense
+      if (literalCharacters + checkCharacters > MAX_LITERAL_CHARACTERS
+          || AhoCorasickAutomaton.denseTableEntries(literalCharacters + checkCharacters, checkAsciiChars.cardinality()) > AhoCorasickAutomaton.MAX_TABLE_ENTRIES) {
+        continue;
+      }
+
+      literalCharacters += checkCharacters;
+      asciiChars = checkAsciiChars;
+      for (String alternative : alternatives) {
+        literals.add(alternative);
+        checkIndexes.add(fusedChecks.size());
+      }
+      needsRegexConfirmation.set(fusedChecks.size(), confirmWithRegex);
+      fusedChecks.add(simpleCheck);
+    }
+
+    int[] checkIndexByLiteral = new int[checkIndexes.size()];
+    for (int i = 0; i < checkIndexByLiteral.length; i++) {
+      checkIndexByLiteral[i] = checkIndexes.get(i);
+    }
+    AhoCorasickAutomaton automaton = literals.isEmpty() ? null : AhoCorasickAutomaton.build(literals);
+    return new LiteralRuleScanner(fusedChecks, needsRegexConfirmation, checkIndexByLiteral, automaton);
+  }
+
+  /**
+   * The checks that this scanner evaluates. The caller must not also call validate() on them.
+   */
+  public List<SimpleTextMatchCheck> getFusedChecks() {
+    return Collections.unmodifiableList(fusedChecks);
+  }
+
+  public boolean isFused(final AbstractTextCheck check) {
+    return fusedChecks.contains(check);
+  }
+
+  /**
+   * Raises the same issues against the file that calling validate() on each fused check would have raised.
+   */
+  public void scan(final TextSourceFile textSourceFile) {
+    scan(textSourceFile, check -> false);
+  }
+
+  /**
+   * Same as {@link #scan(TextSourceFile)} but leaves out the checks for which skipCheck is true. A check whose regular
+   * expression uses up its budget against the file (see {@link TextSourceFile#newRegexBudget()}) stops being evaluated
+   * against the rest of the file while the other checks carry on; issues it raised on earlier lines are kept.
+   * @return the checks that used up their budget, usually none
+   */
+  public List<SimpleTextMatchCheck> scan(final TextSourceFile textSourceFile, final Predicate<? super SimpleTextMatchCheck> skipCheck) {
+    if (automaton == null) {
+      return Collections.emptyList();
+    }
+
+    BitSet applicableChecks = new BitSet(fusedChecks.size());
+    for (int i = 0; i < fusedChecks.size(); i++) {
+      if (!skipCheck.test(fusedChecks.get(i)) && fusedChecks.get(i).isApplicableTo(textSourceFile)) {
+        applicableChecks.set(i);
+      }
+    }
+    if (applicableChecks.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<SimpleTextMatchCheck> checksOverBudget = new ArrayList<>();
+
+    // Without this scanner every applicable check would have run its regex against every line
+    long applicableCount = applicableChecks.cardinality();
+    long regexEvaluations = 0;
+    BitSet foundLiterals = new BitSet(checkIndexByLiteral.length);
+    BitSet matchedChecks = new BitSet(fusedChecks.size());
+    // Created on the first candidate line of each check that needs its regex, then reset onto the following ones
+    Matcher[] lineMatchers = new Matcher[fusedChecks.size()];
+    RegexBudget[] budgets = new RegexBudget[fusedChecks.size()];
+    LineIterator lines = textSourceFile.lineIterator();
+    while (lines.next()) {
+      CharSequence line = lines.line();
+      automaton.findAll(line, 0, line.length(), foundLiterals);
+      if (foundLiterals.isEmpty()) {
+        continue;
+      }
+
+      for (int literal = foundLiterals.nextSetBit(0); literal >= 0; literal = foundLiterals.nextSetBit(literal + 1)) {
+        matchedChecks.set(checkIndexByLiteral[literal]);
+      }
+      matchedChecks.and(applicableChecks);
+      for (int check = matchedChecks.nextSetBit(0); check >= 0; check = matchedChecks.nextSetBit(check + 1)) {
+        SimpleTextMatchCheck fusedCheck = fusedChecks.get(check);
+        if (needsRegexConfirmation.get(check)) {
+          regexEvaluations++;
+          if (lineMatchers[check] == null) {
+            lineMatchers[check] = fusedCheck.newLineMatcher();
+            budgets[check] = textSourceFile.newRegexBudget();
+          }
+          try {
+            if (!lineMatchers[check].reset(budgets[check].guard(line)).find()) {
+              continue;
+            }
+          } catch (RegexBudgetExceededException e) {
+            applicableChecks.clear(check);
+            checksOverBudget.add(fusedCheck);
+            continue;
+          }
+        }
+        fusedCheck.reportMatch(textSourceFile, lines.lineNumber());
+      }
+
+      foundLiterals.clear();
+      matchedChecks.clear();
+    }
+    textSourceFile.evaluationsAvoided(applicableCount * lines.lineNumber() - regexEvaluations);
+    return checksOverBudget;
+  }
+
+  private static boolean containsLineTerminator(final List<String> literals) {
+    for (String literal : literals) {
+      if (literal.indexOf('\n') >= 0 || literal.indexOf('\r') >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
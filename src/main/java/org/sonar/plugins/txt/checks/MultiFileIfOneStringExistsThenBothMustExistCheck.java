@@ -1,32 +1,24 @@
 package org.sonar.plugins.txt.checks;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.regex.Matcher;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.sonar.api.batch.fs.InputFile;
 import org.sonar.check.Priority;
 import org.sonar.check.Rule;
 import org.sonar.check.RuleProperty;
-import org.sonar.plugins.txt.checks.util.FileIOUtil;
-import org.sonar.plugins.txt.checks.util.LargeFileEncounteredException;
-import org.sonar.plugins.txt.checks.util.LineNumberFinderUtil;
+import org.sonar.plugins.txt.checks.util.LiteralPrefilter;
 
 @Rule(key = "MultiFileIfOneStringExistsThenBothMustExistCheck",
       priority = Priority.MAJOR,
       name = "If a string is present then another string must also be present (cross-file)", description = "Checks for a 'trigger match' in one file. Only if that is present a second expression is checked against a defined set of files. If that other expression is not present in the project the triggering line of code will have an issue raised against it. Regex is applied in simple non-DOTALL mode / is single-line-based.")
 public class MultiFileIfOneStringExistsThenBothMustExistCheck extends AbstractCrossFileCheck {
   private static final Logger LOG = LoggerFactory.getLogger(MultiFileIfOneStringExistsThenBothMustExistCheck.class);
-  protected static final int MAX_CHARACTERS_SCANNED = 500001;
 
   @RuleProperty(key = "triggerExpression", type = "TEXT", defaultValue = "^some single-line.*regex search string$")
   private String triggerExpression;
@@ -40,103 +32,78 @@ public class MultiFileIfOneStringExistsThenBothMustExistCheck extends AbstractCr
   @RuleProperty(key = "mustAlsoExistFilePattern", defaultValue = "**/*.properties", description = "Ant Style path expression. To include all of the files in this project use '**/*'. \n\nFiles scanned will be limited by the list of file extensions configured for this language AND by the values of 'sonar.sources' and 'sonar.exclusions'. Also, using just 'filename.txt' here to point the rule to a file at the root of the project does not appear to work (as of SQ v4.5.5). Use '**/filename.txt' instead.")
   private String mustAlsoExistFilePattern;
 
-  @RuleProperty(type = "BOOLEAN", key = "applyExpressionToOneLineOfTextAtATime", defaultValue = "true", description = "Select this to feed the regular expression evaluator one line at a time. Uncheck it if your expression needs to 'see' multiple lines. When not checked only the first " + (MAX_CHARACTERS_SCANNED-1) + " characters of each file will be processed.")
+  @RuleProperty(type = "BOOLEAN", key = "applyExpressionToOneLineOfTextAtATime", defaultValue = "true", description = "Select this to feed the regular expression evaluator one line at a time. Uncheck it if your expression needs to 'see' multiple lines.")
   private boolean applyExpressionToOneLineOfTextAtATime = true;
 
   @RuleProperty(key = "message")
   private String message;
 
+  private Pattern triggerPattern;
+  private Pattern mustAlsoExistPattern;
+  private LiteralPrefilter triggerPrefilter;
+  private LiteralPrefilter mustAlsoExistPrefilter;
+
   @Override
-  public void validate(final Map<InputFile, List<CrossFileScanPrelimIssue>> crossFileChecksRawResults,
+  protected void compileExpressions() {
+    triggerPattern = (triggerExpression == null) ? null : Pattern.compile(triggerExpression);
+    mustAlsoExistPattern = (mustAlsoExistExpression == null) ? null : Pattern.compile(mustAlsoExistExpression);
+    triggerPrefilter = (triggerExpression == null) ? null : LiteralPrefilter.forExpression(triggerExpression);
+    mustAlsoExistPrefilter = (mustAlsoExistExpression == null) ? null : LiteralPrefilter.forExpression(mustAlsoExistExpression);
+  }
+
+  @Override
+  protected void validate(final CrossFileMatchStore crossFileMatchStore,
                         final TextSourceFile textSourceFile,
-                        final String projectKey
+                        final String projectKey,
+                        final Set<RulePart> ruleParts
                       ) {
-    setTextSourceFile(textSourceFile);
-    setCrossFileChecksRawResults(crossFileChecksRawResults);
+    setCrossFileMatchStore(crossFileMatchStore);
     LOG.debug("Current file: {}", textSourceFile.getInputFile().uri());
     LOG.debug("validating");
 
     if (shouldFireForProject(projectKey) &&
         shouldFireOnFile(textSourceFile.getInputFile())) {
-      recordMatches(textSourceFile, RulePart.TriggerPattern);
-      recordMatches(textSourceFile, RulePart.MustAlsoExistPattern);
+      // Both parts are looked for in the same pass over the file
+      List<RulePartScan> scans = new ArrayList<>(2);
+      if (ruleParts.contains(RulePart.TriggerPattern)) {
+        addScanIfApplicable(scans, textSourceFile, RulePart.TriggerPattern, triggerPattern, triggerPrefilter, triggerFilePattern);
+      }
+      if (ruleParts.contains(RulePart.MustAlsoExistPattern)) {
+        addScanIfApplicable(scans, textSourceFile, RulePart.MustAlsoExistPattern, mustAlsoExistPattern, mustAlsoExistPrefilter, mustAlsoExistFilePattern);
+      }
+      recordMatches(textSourceFile, scans, applyExpressionToOneLineOfTextAtATime, message);
     }
   }
 
-  private void recordMatches(final TextSourceFile textSourceFile, final RulePart rulePart) {
-    final String regularExpression;
-    final String fileMatchPattern;
-
-    if (RulePart.TriggerPattern.equals(rulePart)) {
-      regularExpression = triggerExpression;
-      fileMatchPattern = triggerFilePattern;
-    } else {
-      regularExpression = mustAlsoExistExpression;
-      fileMatchPattern = mustAlsoExistFilePattern;
+  private void addScanIfApplicable(final List<RulePartScan> scans, final TextSourceFile textSourceFile, final RulePart rulePart,
+                                   final Pattern regularExpression, final LiteralPrefilter prefilter, final String fileMatchPattern) {
+    if (isAlreadySatisfied(rulePart)) {
+      // Another file already provided the one match this part of the rule needs
+      return;
     }
 
-    if (regularExpression != null && isFileIncluded(fileMatchPattern)) {
-      LOG.debug("Checking file: {}", textSourceFile.getInputFile().uri());
-
-      if (applyExpressionToOneLineOfTextAtATime) {
-        recordMatchesOneLineAtATime(textSourceFile, regularExpression, rulePart);
-      } else {
-        recordMatchesUsingDOTALLFriendlyApproach(textSourceFile, regularExpression, rulePart);
-      }
+    if (regularExpression != null && isFileIncluded(fileMatchPattern, textSourceFile)) {
+      scans.add(new RulePartScan(rulePart, regularExpression, prefilter));
     } else {
       LOG.debug("Did not check file '{}' for " + rulePart + " because it looked like a file that I shouldn't process.", textSourceFile.getInputFile().absolutePath());
     }
-
   }
 
-  private void recordMatchesOneLineAtATime(final TextSourceFile textSourceFile, final String regularExpression, final RulePart recordMatchAsRulePart) {
-    Pattern regexp = Pattern.compile(regularExpression);
-    Matcher matcher = regexp.matcher(""); // Apply the pattern to search this empty string just to get a matcher reference. We'll reset it in a moment to work against a real string.
-
-    try (InputStream is = textSourceFile.getInputFile().inputStream();
-        InputStreamReader streamReader =  FileIOUtil.createTolerantInputStreamReader(is);
-        BufferedReader reader = new BufferedReader(streamReader);
-        LineNumberReader lineReader = new LineNumberReader(reader);
-        ) {
-          String line = null;
-          while ((line = lineReader.readLine()) != null) {
-            matcher.reset(line); //reset the input
-            if (matcher.find()) {
-              LOG.debug("{} match found: '{}' on line {} of file '{}'.", recordMatchAsRulePart.toString(), line, lineReader.getLineNumber(), textSourceFile.getInputFile().uri());
-              recordMatch(recordMatchAsRulePart, lineReader.getLineNumber(), message);
-            }
-          }
-      }
-      catch (IOException ex){
-        throw new RuntimeException("Choked while looking for matches in file " + textSourceFile.getInputFile().uri(), ex);
-      }
-
+  public String getTriggerExpression() {
+    return triggerExpression;
   }
 
-  private void recordMatchesUsingDOTALLFriendlyApproach(final TextSourceFile textSourceFile, final String regularExpression, final RulePart recordMatchAsRulePart) {
-    String entireFileAsString;
-    int lineNumberOfTriggerMatch = -1;
-
-    try {
-      entireFileAsString = FileIOUtil.readFileAsString(textSourceFile, MAX_CHARACTERS_SCANNED);
-    } catch (LargeFileEncounteredException ex) {
-      // Note: The FileIOUtil method logs a warning so this doesn't completely hide/swallow the concern
-      return;
-    }
-
-    Pattern regexp = Pattern.compile(regularExpression);
-    Matcher matcher = regexp.matcher(entireFileAsString);
-    if (matcher.find()) {
-      int positionOfMatch = matcher.start();
-      lineNumberOfTriggerMatch = LineNumberFinderUtil.countLines(entireFileAsString, positionOfMatch);
-      LOG.debug("{} match found: on line {} of file '{}'.", recordMatchAsRulePart.toString(), message, lineNumberOfTriggerMatch, textSourceFile.getInputFile().file().toPath());
-      recordMatch(recordMatchAsRulePart, lineNumberOfTriggerMatch, message);
-    }
-
+  /**
+   * A match in an empty file can only come from the DOTALL mode; an empty file has no lines.
+   */
+  @Override
+  protected boolean canMatchEmptyFile() {
+    return !applyExpressionToOneLineOfTextAtATime && (matchesEmptyText(triggerPattern) || matchesEmptyText(mustAlsoExistPattern));
   }
 
-  public String getTriggerExpression() {
-    return triggerExpression;
+  @Override
+  public List<String> getFilePatterns() {
+    return Arrays.asList(triggerFilePattern, mustAlsoExistFilePattern);
   }
 
   public String getTriggerFilePattern() {
@@ -149,6 +116,7 @@ public class MultiFileIfOneStringExistsThenBothMustExistCheck extends AbstractCr
 
   public void setTriggerExpression(final String expression) {
     this.triggerExpression = expression;
+    resetCompiledExpressions();
   }
 
   public void setTriggerFilePattern(final String filePattern) {
@@ -165,6 +133,7 @@ public class MultiFileIfOneStringExistsThenBothMustExistCheck extends AbstractCr
 
   public void setMustAlsoExistExpression(final String disallowExpression) {
     this.mustAlsoExistExpression = disallowExpression;
+    resetCompiledExpressions();
   }
 
   public String getMustAlsoExistFilePattern() {
@@ -184,34 +153,19 @@ public class MultiFileIfOneStringExistsThenBothMustExistCheck extends AbstractCr
   }
 
   @Override
-  protected void raiseAppropriateViolationsAgainstSourceFiles(final List<TextSourceFile> sourceFiles) {
-    boolean occurrenceFound = false;
-
-    for (Entry<InputFile, List<CrossFileScanPrelimIssue>> currentInputFileEntry : crossFileChecksRawResults.entrySet()) {
-      List<CrossFileScanPrelimIssue> prelimIssues = currentInputFileEntry.getValue();
-      setTextSourceFile(new TextSourceFile(currentInputFileEntry.getKey()));
-
-      for (CrossFileScanPrelimIssue currentPrelimIssue : prelimIssues) {
-        if (RulePart.MustAlsoExistPattern == currentPrelimIssue.getRulePart()
-            && this.getRuleKey().equals(currentPrelimIssue.getRuleKey())) {
-          // System.out.println("Raising issue on: " + currentPrelimIssue);
-          occurrenceFound = true;
-          break;
-        }
-      }
-
-      if (!occurrenceFound) {
-        for (CrossFileScanPrelimIssue currentPrelimIssue : prelimIssues) {
-          if (RulePart.TriggerPattern == currentPrelimIssue.getRulePart()
-              && this.getRuleKey().equals(currentPrelimIssue.getRuleKey())) {
-            createViolation(currentPrelimIssue.getLine(), currentPrelimIssue.getMessage());
-          }
-        }
-        sourceFiles.add(getTextSourceFile());
-      }
+  protected boolean isExistenceOnly(final RulePart rulePart) {
+    return RulePart.MustAlsoExistPattern == rulePart;
+  }
 
+  @Override
+  protected void raiseAppropriateViolationsAgainstSourceFiles(final Consumer<TextSourceFile> sourceFiles) {
+    // A single match anywhere in the project satisfies the rule for every trigger match
+    if (crossFileMatchStore.hasMatches(getRuleKey(), RulePart.MustAlsoExistPattern)) {
+      return;
     }
 
+    raiseIssuesOnMatches(RulePart.TriggerPattern, sourceFiles);
+
   }
 
 
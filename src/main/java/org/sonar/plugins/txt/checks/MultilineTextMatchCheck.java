@@ -1,18 +1,19 @@
 package org.sonar.plugins.txt.checks;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.sonar.check.Priority;
 import org.sonar.check.Rule;
 import org.sonar.check.RuleProperty;
-import org.sonar.plugins.txt.checks.util.FileIOUtil;
 import org.sonar.plugins.txt.checks.util.LargeFileEncounteredException;
-import org.sonar.plugins.txt.checks.util.LineNumberFinderUtil;
+import org.sonar.plugins.txt.checks.util.LiteralPrefilter;
 
 @Rule(key = "MultilineTextMatchCheck",
       priority = Priority.MAJOR,
-      name = "Multiline Regex Check", description = "Multiline (Java Match.DOTALL) regular expression matcher. Scans only text files containing less than " + (MultilineTextMatchCheck.MAX_CHARACTERS_SCANNED-1) + " characters. Note that ^ and $ character matching is to beginning and end of file UNLESS you start your expression with (?m).")
+      name = "Multiline Regex Check", description = "Multiline (Java Match.DOTALL) regular expression matcher. Note that ^ and $ character matching is to beginning and end of file UNLESS you start your expression with (?m).")
 public class MultilineTextMatchCheck extends AbstractTextCheck {
   @RuleProperty(key = "regularExpression", type = "TEXT", defaultValue = "(?m)^some.*regex search string\\. dot matches all$")
   private String searchRegularExpression;
@@ -24,10 +25,23 @@ public class MultilineTextMatchCheck extends AbstractTextCheck {
     key = "message")
   private String message;
 
+  private Pattern searchPattern;
+  private LiteralPrefilter searchPrefilter;
+
   public String getExpression() {
     return searchRegularExpression;
   }
 
+  @Override
+  protected boolean canMatchEmptyFile() {
+    return matchesEmptyText(searchPattern);
+  }
+
+  @Override
+  public List<String> getFilePatterns() {
+    return Collections.singletonList(filePattern);
+  }
+
   public String getFilePattern() {
     return filePattern;
   }
@@ -38,6 +52,7 @@ public class MultilineTextMatchCheck extends AbstractTextCheck {
 
   public void setSearchRegularExpression(final String expression) {
     this.searchRegularExpression = expression;
+    resetCompiledExpressions();
   }
 
   public void setFilePattern(final String filePattern) {
@@ -48,36 +63,41 @@ public class MultilineTextMatchCheck extends AbstractTextCheck {
     this.message = message;
   }
 
-  protected static final int MAX_CHARACTERS_SCANNED = 500001;
+
+  @Override
+  protected void compileExpressions() {
+    searchPattern = (searchRegularExpression == null) ? null : Pattern.compile(searchRegularExpression, Pattern.DOTALL);
+    searchPrefilter = (searchRegularExpression == null) ? null : LiteralPrefilter.forExpression(searchRegularExpression);
+  }
 
   @Override
   public void validate(final TextSourceFile textSourceFile, final String projectKey) {
     int lineNumberOfTriggerMatch = -1;
 
-    setTextSourceFile(textSourceFile);
 
-    if (searchRegularExpression != null &&
-        isFileIncluded(filePattern) &&
-        shouldFireForProject(projectKey) &&
+    if (shouldFireForProject(projectKey) &&
+        searchPattern != null &&
+        isFileIncluded(filePattern, textSourceFile) &&
         shouldFireOnFile(textSourceFile.getInputFile())
         ) {
 
-      String entireFileAsString;
+      CharSequence entireFileAsString;
       try {
-        entireFileAsString = FileIOUtil.readFileAsString(textSourceFile, MAX_CHARACTERS_SCANNED);
+        entireFileAsString = textSourceFile.getContents();
       } catch (LargeFileEncounteredException ex) {
-        // The util class logs the fact that we're skipping this file...
+        // Only files over 2 GB end up here. The source file logs the fact that we're skipping this file...
+        return;
+      }
+      if (searchPrefilter != null && !searchPrefilter.mightMatch(entireFileAsString)) {
+        textSourceFile.evaluationsAvoided(1);
         return;
       }
 
-      Pattern regexp = Pattern.compile(searchRegularExpression, Pattern.DOTALL);
-      Matcher matcher = regexp.matcher(entireFileAsString);
+      Matcher matcher = searchPattern.matcher(textSourceFile.newRegexBudget().guard(entireFileAsString));
       if (matcher.find()) {
-//        System.out.println("Match: " + line + " on line " + lineReader.getLineNumber());
         int positionOfMatchBegin = matcher.start();
-//        int positionOfMatchEnd = matcher.end();
-        lineNumberOfTriggerMatch = LineNumberFinderUtil.countLines(entireFileAsString, positionOfMatchBegin);
-        createViolation(lineNumberOfTriggerMatch, message);
+        lineNumberOfTriggerMatch = textSourceFile.getLineIndex().lineOf(positionOfMatchBegin);
+        createViolation(textSourceFile, lineNumberOfTriggerMatch, message);
       }
 
     }
@@ -1,25 +1,21 @@
 package org.sonar.plugins.txt.checks;
 
-import java.io.IOException;
-import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.sonar.check.Priority;
 import org.sonar.check.Rule;
 import org.sonar.check.RuleProperty;
-import org.sonar.plugins.txt.checks.util.FileIOUtil;
 import org.sonar.plugins.txt.checks.util.LargeFileEncounteredException;
-import org.sonar.plugins.txt.checks.util.LineNumberFinderUtil;
+import org.sonar.plugins.txt.checks.util.LiteralPrefilter;
+import org.sonar.plugins.txt.checks.util.RegexBudget;
 
 @Rule(key = "RequiredStringNotPresentRegexMatchCheck",
       priority = Priority.MAJOR,
       name = "Required String not Present", description = "Allows you to enforce \"When string 'A' is present string 'B' must also be present\". Raises an issue when text in the file matches to some 'trigger' regular expression but none match to a 'must exist' regular expression. The regular expression evaluation uses Java's Pattern.DOTALL option so '.*' will match past newline characters. Note that ^ and $ character matching is to beginning and end of file UNLESS you start your expression with (?m).")
 public class RequiredStringNotPresentCheck extends AbstractTextCheck {
-  private static final Logger LOG = LoggerFactory.getLogger(AbstractTextCheck.class);
-
   @RuleProperty(key = "triggerRegularExpression", type = "TEXT", defaultValue = "(?m)^some.*regex search string$")
   private String triggerExpression;
 
@@ -33,10 +29,25 @@ public class RequiredStringNotPresentCheck extends AbstractTextCheck {
     key = "message")
   private String message;
 
+  private Pattern triggerPattern;
+  private Pattern mustExistPattern;
+  private LiteralPrefilter triggerPrefilter;
+  private LiteralPrefilter mustExistPrefilter;
+
   public String getExpression() {
     return triggerExpression;
   }
 
+  @Override
+  protected boolean canMatchEmptyFile() {
+    return matchesEmptyText(triggerPattern);
+  }
+
+  @Override
+  public List<String> getFilePatterns() {
+    return Collections.singletonList(filePattern);
+  }
+
   public String getFilePattern() {
     return filePattern;
   }
@@ -47,10 +58,12 @@ public class RequiredStringNotPresentCheck extends AbstractTextCheck {
 
   public void setTriggerExpression(final String expression) {
     this.triggerExpression = expression;
+    resetCompiledExpressions();
   }
 
   public void setMustExistExpression(final String mustExistExpression) {
     this.mustExistExpression = mustExistExpression;
+    resetCompiledExpressions();
   }
 
   public void setFilePattern(final String filePattern) {
@@ -61,7 +74,14 @@ public class RequiredStringNotPresentCheck extends AbstractTextCheck {
     this.message = message;
   }
 
-  protected static final int MAX_CHARACTERS_SCANNED = 500001;
+
+  @Override
+  protected void compileExpressions() {
+    triggerPattern = (triggerExpression == null) ? null : Pattern.compile(triggerExpression, Pattern.DOTALL);
+    mustExistPattern = (mustExistExpression == null) ? null : Pattern.compile(mustExistExpression, Pattern.DOTALL);
+    triggerPrefilter = (triggerExpression == null) ? null : LiteralPrefilter.forExpression(triggerExpression);
+    mustExistPrefilter = (mustExistExpression == null) ? null : LiteralPrefilter.forExpression(mustExistExpression);
+  }
 
   @Override
   public void validate(final TextSourceFile textSourceFile, final String projectKey) {
@@ -69,45 +89,46 @@ public class RequiredStringNotPresentCheck extends AbstractTextCheck {
     int lineNumberOfTriggerMatch = -1;
     boolean mustExistMatchFound = false;
 
-    setTextSourceFile(textSourceFile);
 
-    if (triggerExpression != null && mustExistExpression != null &&
-        isFileIncluded(filePattern) &&
-        shouldFireForProject(projectKey) &&
+    if (shouldFireForProject(projectKey) &&
+        triggerPattern != null && mustExistPattern != null &&
+        isFileIncluded(filePattern, textSourceFile) &&
         shouldFireOnFile(textSourceFile.getInputFile())
         ) {
 
 
-      String entireFileAsString;
-      String fileLocationDescriptor = textSourceFile.getInputFile().uri().toString();
-      try (InputStream fileInputStream = textSourceFile.getInputFile().inputStream();) {
-        entireFileAsString = FileIOUtil.readInputStreamToString(fileInputStream, MAX_CHARACTERS_SCANNED, fileLocationDescriptor);
-
-        Pattern regexp = Pattern.compile(triggerExpression, Pattern.DOTALL);
-        Matcher matcher = regexp.matcher(entireFileAsString);
-        if (matcher.find()) {
-//          System.out.println("Match: " + line + " on line " + lineReader.getLineNumber());
-          int positionOfMatch = matcher.start();
-          lineNumberOfTriggerMatch = LineNumberFinderUtil.countLines(entireFileAsString, positionOfMatch);
-          triggerMatchFound = true;
-        }
+      CharSequence entireFileAsString;
+      try {
+        entireFileAsString = textSourceFile.getContents();
+      } catch (LargeFileEncounteredException ex) {
+        // Only files over 2 GB end up here. The source file logs the fact that we're skipping this file...
+        return;
+      }
+      if (triggerPrefilter != null && !triggerPrefilter.mightMatch(entireFileAsString)) {
+        textSourceFile.evaluationsAvoided(1);
+        return;
+      }
 
-        regexp = Pattern.compile(mustExistExpression, Pattern.DOTALL);
-        matcher = regexp.matcher(entireFileAsString);
-        if (matcher.find()) {
-//          System.out.println("Match: " + line + " on line " + lineReader.getLineNumber());
-          mustExistMatchFound = true;
-        }
+      // Both expressions share the rule's budget
+      RegexBudget budget = textSourceFile.newRegexBudget();
+      Matcher matcher = triggerPattern.matcher(budget.guard(entireFileAsString));
+      if (matcher.find()) {
+        int positionOfMatch = matcher.start();
+        lineNumberOfTriggerMatch = textSourceFile.getLineIndex().lineOf(positionOfMatch);
+        triggerMatchFound = true;
+      } else {
+        // No trigger, no issue: whether the other expression matches doesn't matter
+        return;
+      }
 
-        if (triggerMatchFound && !mustExistMatchFound) {
-          createViolation(lineNumberOfTriggerMatch, message);
-        }
+      if (mustExistPrefilter != null && !mustExistPrefilter.mightMatch(entireFileAsString)) {
+        textSourceFile.evaluationsAvoided(1);
+      } else if (mustExistPattern.matcher(budget.guard(entireFileAsString)).find()) {
+        mustExistMatchFound = true;
+      }
 
-      } catch (LargeFileEncounteredException ex) {
-//        System.out.println("Skipping file. Text scanner (" + this.getClass().getSimpleName() + ") maximum file size ( " + (MAX_CHARACTERS_SCANNED-1) + " chars) encountered for file '" + textSourceFile.getInputFile().file().getAbsolutePath() + "'. Did not check this file AT ALL.");
-        return;
-      } catch (IOException e) {
-        LOG.error("Skipping file '" + fileLocationDescriptor + "' due to unexpected exception.", e);
+      if (triggerMatchFound && !mustExistMatchFound) {
+        createViolation(textSourceFile, lineNumberOfTriggerMatch, message);
       }
 
     }
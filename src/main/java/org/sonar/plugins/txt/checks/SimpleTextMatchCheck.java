@@ -1,28 +1,22 @@
 package org.sonar.plugins.txt.checks;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
-import java.nio.charset.CharsetDecoder;
-import java.nio.charset.CodingErrorAction;
-import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.sonar.check.Priority;
 import org.sonar.check.Rule;
 import org.sonar.check.RuleProperty;
+import org.sonar.plugins.txt.checks.util.LineIterator;
+import org.sonar.plugins.txt.checks.util.LiteralPrefilter;
+import org.sonar.plugins.txt.checks.util.RegexBudget;
+import org.sonar.plugins.txt.checks.util.RegexLiteralExtractor;
 
 @Rule(key = "SimpleRegexMatchCheck",
       priority = Priority.MAJOR,
       name = "Simple Regex Match", description = "Simple regular expression matcher.")
 public class SimpleTextMatchCheck extends AbstractTextCheck {
-  private static final Logger LOG = LoggerFactory.getLogger(AbstractTextCheck.class);
 
   @RuleProperty(key = "expression", type = "TEXT", defaultValue = "^some single-line.*regex search string$", description = "Don't try to match to newlines (\\r or \\n); consider using the Multiline check type if you have that need. This rule type evaluates your pattern against a single line of text at a time and uses java.io.LineNumberReader.readLine() to obtain that text. That method consumes new line information but does not return it.")
   private String expression;
@@ -34,10 +28,29 @@ public class SimpleTextMatchCheck extends AbstractTextCheck {
     key = "message")
   private String message;
 
+  private Pattern expressionPattern;
+  // Set when the expression only looks for literal text. Such rules are evaluated by the LiteralRuleScanner.
+  private List<String> literalAlternatives;
+  // Set when every match must contain one of a few literal strings; lines without them aren't handed to the regex
+  private LiteralPrefilter prefilter;
+
   public String getExpression() {
     return expression;
   }
 
+  /**
+   * Lines are matched one at a time and an empty file has none.
+   */
+  @Override
+  protected boolean canMatchEmptyFile() {
+    return false;
+  }
+
+  @Override
+  public List<String> getFilePatterns() {
+    return Collections.singletonList(filePattern);
+  }
+
   public String getFilePattern() {
     return filePattern;
   }
@@ -48,6 +61,7 @@ public class SimpleTextMatchCheck extends AbstractTextCheck {
 
   public void setExpression(final String expression) {
     this.expression = expression;
+    resetCompiledExpressions();
   }
 
   public void setFilePattern(final String filePattern) {
@@ -58,37 +72,59 @@ public class SimpleTextMatchCheck extends AbstractTextCheck {
     this.message = message;
   }
 
+  @Override
+  protected void compileExpressions() {
+    expressionPattern = (expression == null) ? null : Pattern.compile(expression);
+    literalAlternatives = (expression == null) ? null : RegexLiteralExtractor.literalAlternatives(expression);
+    prefilter = (expression == null) ? null : LiteralPrefilter.forExpression(expression);
+  }
+
+  List<String> getLiteralAlternatives() {
+    return literalAlternatives;
+  }
+
+  LiteralPrefilter getPrefilter() {
+    return prefilter;
+  }
+
+  /**
+   * A matcher of the rule's expression to be reset onto each line it is evaluated against
+   */
+  Matcher newLineMatcher() {
+    return expressionPattern.matcher("");
+  }
+
+  boolean isApplicableTo(final TextSourceFile textSourceFile) {
+    return isFileIncluded(filePattern, textSourceFile) && shouldFireOnFile(textSourceFile.getInputFile());
+  }
+
+  void reportMatch(final TextSourceFile textSourceFile, final int lineNumber) {
+    createViolation(textSourceFile, lineNumber, message);
+  }
+
   @Override
   public void validate(final TextSourceFile textSourceFile, final String projectKey) {
-    setTextSourceFile(textSourceFile);
-//LOG.info("validating");
-    if (expression != null &&
-        isFileIncluded(filePattern) &&
-        shouldFireForProject(projectKey) &&
+    if (shouldFireForProject(projectKey) &&
+        expressionPattern != null &&
+        isFileIncluded(filePattern, textSourceFile) &&
         shouldFireOnFile(textSourceFile.getInputFile())
         ) {
 
-      Pattern regexp = Pattern.compile(expression);
-      Matcher matcher = regexp.matcher(""); // Apply the pattern to search this empty string just to get a matcher reference. We'll reset it in a moment to work against a real string.
-
-      File inputFile = textSourceFile.getInputFile().file();
-      CharsetDecoder decoder = (StandardCharsets.UTF_8).newDecoder();
-      decoder.onMalformedInput(CodingErrorAction.IGNORE);
-
-      try (LineNumberReader lineReader = new LineNumberReader(new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), decoder)));
-          ) {
-    	      String line = null;
-    	      while ((line = lineReader.readLine()) != null) {
-    	        matcher.reset(line); // Reuse the matcher by discarding its current state and providing new input text
-    	        if (matcher.find()) {
-//    	          System.out.println("Match: " + line + " on line " + lineReader.getLineNumber());
-    	          createViolation(lineReader.getLineNumber(), message);
-    	        }
-    	      }
-    	    }
-    	    catch (IOException ex){
-    	      throw new RuntimeException(ex);
-    	    }
+      Matcher matcher = expressionPattern.matcher(""); // Apply the pattern to search this empty string just to get a matcher reference. We'll reset it in a moment to work against a real string.
+
+      LineIterator lines = textSourceFile.lineIterator();
+      RegexBudget budget = textSourceFile.newRegexBudget();
+      while (lines.next()) {
+        CharSequence line = lines.line();
+        if (prefilter != null && !prefilter.mightMatch(line)) {
+          textSourceFile.evaluationsAvoided(1);
+          continue;
+        }
+        matcher.reset(budget.guard(line)); // Reuse the matcher by discarding its current state and providing new input text
+        if (matcher.find()) {
+          createViolation(textSourceFile, lines.lineNumber(), message);
+        }
+      }
     }
   }
 }
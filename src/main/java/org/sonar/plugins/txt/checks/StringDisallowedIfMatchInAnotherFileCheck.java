@@ -1,32 +1,24 @@
 package org.sonar.plugins.txt.checks;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
-import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.regex.Matcher;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.sonar.api.batch.fs.InputFile;
 import org.sonar.check.Priority;
 import org.sonar.check.Rule;
 import org.sonar.check.RuleProperty;
-import org.sonar.plugins.txt.checks.util.FileIOUtil;
-import org.sonar.plugins.txt.checks.util.LargeFileEncounteredException;
-import org.sonar.plugins.txt.checks.util.LineNumberFinderUtil;
+import org.sonar.plugins.txt.checks.util.LiteralPrefilter;
 
 @Rule(key = "StringDisallowedIfMatchInAnotherFileCheck",
       priority = Priority.MAJOR,
       name = "String disallowed if a match was found in another file", description = "Checks for a 'trigger match' in one file. Only if that is present a second expression is checked against all files in the project and all matches cause an issue to be raised. Regex is applied in simple non-DOTALL mode / is single-line-based.")
 public class StringDisallowedIfMatchInAnotherFileCheck extends AbstractCrossFileCheck {
   private static final Logger LOG = LoggerFactory.getLogger(StringDisallowedIfMatchInAnotherFileCheck.class);
-  protected static final int MAX_CHARACTERS_SCANNED = 500001;
 
   @RuleProperty(key = "triggerExpression", type = "TEXT", defaultValue = "^some single-line.*regex search string$")
   private String triggerExpression;
@@ -40,104 +32,83 @@ public class StringDisallowedIfMatchInAnotherFileCheck extends AbstractCrossFile
   @RuleProperty(key = "disallowFilePattern", defaultValue = "**/*.properties", description = "Ant Style path expression. To include all of the files in this project use '**/*'. \n\nFiles scanned will be limited by the list of file extensions configured for this language AND by the values of 'sonar.sources' and 'sonar.exclusions'. Also, using just 'filename.txt' here to point the rule to a file at the root of the project does not appear to work (as of SQ v4.5.5). Use '**/filename.txt' instead.")
   private String disallowFilePattern;
 
-  @RuleProperty(type = "BOOLEAN", key = "applyExpressionToOneLineOfTextAtATime", defaultValue = "true", description = "Select this to feed the regular expression evaluator one line at a time. Uncheck it if your expression needs to 'see' multiple lines. When not checked only the first " + (MAX_CHARACTERS_SCANNED-1) + " characters of each file will be processed. Since: v0.8. Rules created from this template under pre-v0.8 plugin versions won't show this option and will default to 'true'.")
+  @RuleProperty(type = "BOOLEAN", key = "applyExpressionToOneLineOfTextAtATime", defaultValue = "true", description = "Select this to feed the regular expression evaluator one line at a time. Uncheck it if your expression needs to 'see' multiple lines. Since: v0.8. Rules created from this template under pre-v0.8 plugin versions won't show this option and will default to 'true'.")
   private boolean applyExpressionToOneLineOfTextAtATime = true;
 
   @RuleProperty(
     key = "message")
   private String message;
 
+  private Pattern triggerPattern;
+  private Pattern disallowPattern;
+  private LiteralPrefilter triggerPrefilter;
+  private LiteralPrefilter disallowPrefilter;
+
+  @Override
+  protected void compileExpressions() {
+    triggerPattern = (triggerExpression == null) ? null : Pattern.compile(triggerExpression);
+    disallowPattern = (disallowExpression == null) ? null : Pattern.compile(disallowExpression);
+    triggerPrefilter = (triggerExpression == null) ? null : LiteralPrefilter.forExpression(triggerExpression);
+    disallowPrefilter = (disallowExpression == null) ? null : LiteralPrefilter.forExpression(disallowExpression);
+  }
+
   @Override
-  public void validate(final Map<InputFile, List<CrossFileScanPrelimIssue>> crossFileChecksRawResults,
+  protected void validate(final CrossFileMatchStore crossFileMatchStore,
                         final TextSourceFile textSourceFile,
-                        final String projectKey
+                        final String projectKey,
+                        final Set<RulePart> ruleParts
                       ) {
-    setTextSourceFile(textSourceFile);
-    setCrossFileChecksRawResults(crossFileChecksRawResults);
+    setCrossFileMatchStore(crossFileMatchStore);
     LOG.debug("Current file: {}", textSourceFile.getInputFile().uri());
     LOG.debug("validating");
 
-    if (triggerExpression != null &&
-        isFileIncluded(triggerFilePattern) &&
-        shouldFireForProject(projectKey) &&
+    if (!shouldFireForProject(projectKey)) {
+      return;
+    }
+
+    // Both parts are looked for in the same pass over the file
+    List<RulePartScan> scans = new ArrayList<>(2);
+
+    // Once any file contains the trigger the remaining files needn't be searched for it
+    if (ruleParts.contains(RulePart.TriggerPattern) &&
+        triggerPattern != null &&
+        !isAlreadySatisfied(RulePart.TriggerPattern) &&
+        isFileIncluded(triggerFilePattern, textSourceFile) &&
         shouldFireOnFile(textSourceFile.getInputFile())
         ) {
-      LOG.debug("Checking file: {}", textSourceFile.getInputFile().uri());
-
-      if (applyExpressionToOneLineOfTextAtATime) {
-        recordMatchesOneLineAtATime(textSourceFile, triggerExpression, RulePart.TriggerPattern);
-      } else {
-        recordMatchesUsingDOTALLFriendlyApproach(textSourceFile, triggerExpression, RulePart.TriggerPattern);
-      }
+      scans.add(new RulePartScan(RulePart.TriggerPattern, triggerPattern, triggerPrefilter));
     } else {
       LOG.debug("Did not check file '{}' for trigger because it looked like a file that I shouldn't process.", textSourceFile.getInputFile().uri());
     }
 
-    if (disallowExpression != null &&
-        isFileIncluded(disallowFilePattern) &&
-        shouldFireForProject(projectKey) &&
+    if (ruleParts.contains(RulePart.DisallowPattern) &&
+        disallowPattern != null &&
+        isFileIncluded(disallowFilePattern, textSourceFile) &&
         shouldFireOnFile(textSourceFile.getInputFile())
         ) {
-
-      if (applyExpressionToOneLineOfTextAtATime) {
-        recordMatchesOneLineAtATime(textSourceFile, disallowExpression, RulePart.DisallowPattern);
-      } else {
-        recordMatchesUsingDOTALLFriendlyApproach(textSourceFile, disallowExpression, RulePart.DisallowPattern);
-      }
-    }
-  }
-
-  private void recordMatchesOneLineAtATime(final TextSourceFile textSourceFile, final String regularExpression, final RulePart recordMatchAsRulePart) {
-    Pattern regexp = Pattern.compile(regularExpression);
-    Matcher matcher = regexp.matcher(""); // Apply the pattern to search this empty string just to get a matcher reference. We'll reset it in a moment to work against a real string.
-
-    try (
-        InputStream is = textSourceFile.getInputFile().inputStream();
-        InputStreamReader reader = FileIOUtil.createTolerantInputStreamReader(is);
-        LineNumberReader lineReader = new LineNumberReader(reader);
-        ) {
-          String line = null;
-          while ((line = lineReader.readLine()) != null) {
-            matcher.reset(line); //reset the input
-            if (matcher.find()) {
-              LOG.debug("{} match found: '{}' on line {} of file '{}'.", new Object[]{recordMatchAsRulePart.toString(), line, lineReader.getLineNumber(), textSourceFile.getInputFile().uri().toString()});
-              recordMatch(recordMatchAsRulePart, lineReader.getLineNumber(), message);
-          }
-        }
-      }
-      catch (IOException ex) {
-        throw new RuntimeException(String.format("Exception encountered when applying check %s to file %s", this.getClass().getName(), textSourceFile.getInputFile().uri().toString()), ex);
-      }
-
-  }
-
-  private void recordMatchesUsingDOTALLFriendlyApproach(final TextSourceFile textSourceFile, final String regularExpression, final RulePart recordMatchAsRulePart) {
-    Path path = textSourceFile.getInputFile().file().toPath();
-    String entireFileAsString;
-    int lineNumberOfTriggerMatch = -1;
-
-    try {
-      entireFileAsString = FileIOUtil.readFileAsString(path, MAX_CHARACTERS_SCANNED);
-    } catch (LargeFileEncounteredException ex) {
-      // Note: The FileIOUtil method logs a warning so this doesn't completely hide/swallow the concern
-      return;
-    }
-
-    Pattern regexp = Pattern.compile(regularExpression);
-    Matcher matcher = regexp.matcher(entireFileAsString);
-    if (matcher.find()) {
-      int positionOfMatch = matcher.start();
-      lineNumberOfTriggerMatch = LineNumberFinderUtil.countLines(entireFileAsString, positionOfMatch);
-      LOG.debug("{} match found: on line {} of file '{}'.", new Object[]{recordMatchAsRulePart.toString(), message, lineNumberOfTriggerMatch, textSourceFile.getInputFile().file().toPath()});
-      recordMatch(recordMatchAsRulePart, lineNumberOfTriggerMatch, message);
+      scans.add(new RulePartScan(RulePart.DisallowPattern, disallowPattern, disallowPrefilter));
     }
 
+    recordMatches(textSourceFile, scans, applyExpressionToOneLineOfTextAtATime, message);
   }
 
   public String getTriggerExpression() {
     return triggerExpression;
   }
 
+  /**
+   * A match in an empty file can only come from the DOTALL mode; an empty file has no lines.
+   */
+  @Override
+  protected boolean canMatchEmptyFile() {
+    return !applyExpressionToOneLineOfTextAtATime && (matchesEmptyText(triggerPattern) || matchesEmptyText(disallowPattern));
+  }
+
+  @Override
+  public List<String> getFilePatterns() {
+    return Arrays.asList(triggerFilePattern, disallowFilePattern);
+  }
+
   public String getTriggerFilePattern() {
     return triggerFilePattern;
   }
@@ -148,6 +119,7 @@ public class StringDisallowedIfMatchInAnotherFileCheck extends AbstractCrossFile
 
   public void setTriggerExpression(final String expression) {
     this.triggerExpression = expression;
+    resetCompiledExpressions();
   }
 
   public void setTriggerFilePattern(final String filePattern) {
@@ -164,6 +136,7 @@ public class StringDisallowedIfMatchInAnotherFileCheck extends AbstractCrossFile
 
   public void setDisallowExpression(final String disallowExpression) {
     this.disallowExpression = disallowExpression;
+    resetCompiledExpressions();
   }
 
   public String getDisallowFilePattern() {
@@ -183,20 +156,13 @@ public class StringDisallowedIfMatchInAnotherFileCheck extends AbstractCrossFile
   }
 
   @Override
-  protected void raiseAppropriateViolationsAgainstSourceFiles(final List<TextSourceFile> sourceFiles) {
-    for (Entry<InputFile, List<CrossFileScanPrelimIssue>> currentInputFileEntry : crossFileChecksRawResults.entrySet()) {
-      List<CrossFileScanPrelimIssue> prelimIssues = currentInputFileEntry.getValue();
-      setTextSourceFile(new TextSourceFile(currentInputFileEntry.getKey()));
-
-      for (CrossFileScanPrelimIssue currentPrelimIssue : prelimIssues) {
-        if (RulePart.DisallowPattern == currentPrelimIssue.getRulePart()
-              && this.getRuleKey().equals(currentPrelimIssue.getRuleKey())) {
-          createViolation(currentPrelimIssue.getLine(), currentPrelimIssue.getMessage());
-        }
-      }
-
-      sourceFiles.add(getTextSourceFile());
-    }
+  protected boolean isExistenceOnly(final RulePart rulePart) {
+    return RulePart.TriggerPattern == rulePart;
+  }
+
+  @Override
+  protected void raiseAppropriateViolationsAgainstSourceFiles(final Consumer<TextSourceFile> sourceFiles) {
+    raiseIssuesOnMatches(RulePart.DisallowPattern, sourceFiles);
   }
 
 }
@@ -1,21 +1,67 @@
 package org.sonar.plugins.txt.checks;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.utils.WildcardPattern;
+import org.sonar.plugins.txt.checks.util.FileIOUtil;
+import org.sonar.plugins.txt.checks.util.FilePatternMatcher;
+import org.sonar.plugins.txt.checks.util.LargeFileEncounteredException;
+import org.sonar.plugins.txt.checks.util.LineIndex;
+import org.sonar.plugins.txt.checks.util.LineIterator;
+import org.sonar.plugins.txt.checks.util.RegexBudget;
 
 public class TextSourceFile {
 
   private final List<TextIssue> textIssues = new ArrayList<TextIssue>();
 
   private InputFile inputFile;
+  private final FilePatternMatcher filePatternMatcher;
+  private final long regexStepsPerCharacter;
+
+  // Decoded once on first use and then shared by every check that is evaluated against this file
+  private CharSequence contents;
+  private List<String> lines;
+  private LineIndex lineIndex;
+  // The last line iterator handed out, which tells the number of lines once a check has walked all of them
+  private LineIterator lastLineIterator;
+  private boolean largeFileWarningLogged = false;
+  // Which of the matcher's patterns this file's path matches, worked out on first use
+  private BitSet matchedFilePatterns;
+  private Long sizeInBytes;
+  private int lineCount = -1;
+  // What the checks evaluated against the file did with it, read by the sensor to profile each rule
+  private int contentsRequests;
+  private List<RegexBudget> regexBudgets;
+  private long evaluationsAvoided;
 
   /**
    * Used for tracking violations on each scanned file
    */
   public TextSourceFile(InputFile file) {
+    this(file, null);
+  }
+
+  /**
+   * @param filePatternMatcher every rule's file patterns compiled together, or null to match each pattern on its own
+   */
+  public TextSourceFile(InputFile file, FilePatternMatcher filePatternMatcher) {
+    this(file, filePatternMatcher, RegexBudget.DEFAULT_STEPS_PER_CHARACTER);
+  }
+
+  /**
+   * @param regexStepsPerCharacter size of each rule's regular expression budget against this file, see {@link #newRegexBudget()}
+   */
+  public TextSourceFile(InputFile file, FilePatternMatcher filePatternMatcher, long regexStepsPerCharacter) {
     this.inputFile = file;
+    this.filePatternMatcher = filePatternMatcher;
+    this.regexStepsPerCharacter = regexStepsPerCharacter;
   }
 
   public void addViolation(TextIssue textIssue) {
@@ -30,10 +76,196 @@ public class TextSourceFile {
     return inputFile.absolutePath();
   }
 
+  /**
+   * Applies the Ant style file pattern to the file's path. The first call works out the answer for every pattern
+   * compiled into the shared matcher at once.
+   */
+  public boolean matchesFilePattern(final String filePattern) {
+    int index = (filePatternMatcher == null) ? -1 : filePatternMatcher.indexOf(filePattern);
+    if (index < 0) {
+      return WildcardPattern.create(filePattern).match(getLogicalPath());
+    }
+    if (matchedFilePatterns == null) {
+      matchedFilePatterns = filePatternMatcher.match(getLogicalPath());
+    }
+    return matchedFilePatterns.get(index);
+  }
+
+  /**
+   * Tells from the file's size, without reading it, whether it has no content at all. A file whose size can't be read
+   * is taken to have content.
+   */
+  public boolean isEmptyFile() {
+    return getSizeInBytes() == 0;
+  }
+
+  /**
+   * The file's size on disk, read on the first call only, or -1 when it can't be read
+   */
+  public long getSizeInBytes() {
+    if (sizeInBytes == null) {
+      try {
+        sizeInBytes = Files.size(inputFile.path());
+      } catch (IOException | RuntimeException e) {
+        sizeInBytes = -1L;
+      }
+    }
+    return sizeInBytes;
+  }
+
   public List<TextIssue> getTextIssues() {
     return textIssues;
   }
 
+  /**
+   * The entire file decoded using the tolerant UTF-8 decoder. The file is read on the first call only. The returned
+   * view must not be held on to once the file's analysis is over. Very large files come back as a lazily decoded
+   * view (see {@link org.sonar.plugins.txt.checks.util.MappedCharSequence}) so DOTALL rules can scan them in bounded
+   * heap.
+   * @throws LargeFileEncounteredException for files over 2 GB. This is logged once per file.
+   */
+  public CharSequence getContents() {
+    if (contents == null) {
+      Path path = inputFile.path();
+      try {
+        if (path != null) {
+          contents = FileIOUtil.readFileContentsIntoThreadBuffer(path);
+        } else {
+          try (InputStream fileInputStream = inputFile.inputStream()) {
+            contents = FileIOUtil.readInputStreamToString(fileInputStream, inputFile.uri().toString());
+          }
+        }
+      } catch (LargeFileEncounteredException e) {
+        if (!largeFileWarningLogged) {
+          FileIOUtil.logFileTooLargeToScan(inputFile.uri().toString());
+          largeFileWarningLogged = true;
+        }
+        throw e;
+      } catch (IOException e) {
+        throw new RuntimeException("Choked while reading file " + inputFile.uri(), e);
+      }
+    }
+    contentsRequests++;
+    return contents;
+  }
+
+  /**
+   * How many times {@link #getContents()} returned the contents so far. Tells whether a check read the file.
+   */
+  public int getContentsRequests() {
+    return contentsRequests;
+  }
+
+  /**
+   * Called by the thread that read the file once every check is done with it, so that the thread reuses the buffer
+   * holding the decoded contents for its next file. The contents would be read again if asked for.
+   */
+  public void releaseContents() {
+    if (contents != null) {
+      FileIOUtil.releaseThreadBuffer(contents);
+      contents = null;
+      lines = null;
+      lineIndex = null;
+      lastLineIterator = null;
+    }
+  }
+
+  /**
+   * A budget for one rule's regular expressions against this file, sized from the file's length. Each rule evaluation
+   * gets a budget of its own.
+   * @throws LargeFileEncounteredException for files over 2 GB, like {@link #getContents()}
+   */
+  public RegexBudget newRegexBudget() {
+    RegexBudget budget = RegexBudget.forText(getContents().length(), regexStepsPerCharacter);
+    if (regexBudgets == null) {
+      regexBudgets = new ArrayList<>();
+    }
+    regexBudgets.add(budget);
+    return budget;
+  }
+
+  /**
+   * @return how many regular expression evaluations were run against the file under the budgets handed out since the
+   *         previous call
+   */
+  public long takeRegexEvaluations() {
+    if (regexBudgets == null) {
+      return 0;
+    }
+    long evaluations = 0;
+    for (RegexBudget budget : regexBudgets) {
+      evaluations += budget.getEvaluations();
+    }
+    regexBudgets.clear();
+    return evaluations;
+  }
+
+  /**
+   * Counts regular expression evaluations against the file that a {@link org.sonar.plugins.txt.checks.util.LiteralPrefilter}
+   * made unnecessary
+   */
+  public void evaluationsAvoided(final long count) {
+    evaluationsAvoided += count;
+  }
+
+  /**
+   * @return how many regular expression evaluations were avoided since the previous call
+   */
+  public long takeEvaluationsAvoided() {
+    long avoided = evaluationsAvoided;
+    evaluationsAvoided = 0;
+    return avoided;
+  }
+
+  /**
+   * Walks the same lines as {@link #getLines()} without copying each of them into a String.
+   */
+  public LineIterator lineIterator() {
+    lastLineIterator = new LineIterator(getContents());
+    return lastLineIterator;
+  }
+
+  /**
+   * The file's lines as java.io.LineNumberReader.readLine() would return them. Line N of the file is at index N-1.
+   */
+  public List<String> getLines() {
+    if (lines == null) {
+      lines = FileIOUtil.splitLines(getContents());
+    }
+    return lines;
+  }
+
+  /**
+   * Number of lines, as with {@link #getLines()}, when the checks evaluated so far already worked it out: by splitting
+   * the file into lines, by walking all of its lines or by converting match offsets to line numbers. Never reads the
+   * file or goes over its lines just to count them.
+   * @return -1 when no check worked it out
+   */
+  public int getLineCount() {
+    if (lineCount < 0) {
+      if (lines != null) {
+        lineCount = lines.size();
+      } else if (lastLineIterator != null && lastLineIterator.isFinished()) {
+        lineCount = lastLineIterator.lineNumber();
+      } else if (lineIndex != null && contents != null) {
+        // The line index only ends lines at '\n' and counts an empty last line after a trailing one
+        int length = contents.length();
+        lineCount = lineIndex.lineCount() - ((length > 0 && contents.charAt(length - 1) == '\n') ? 1 : 0);
+      }
+    }
+    return lineCount;
+  }
+
+  /**
+   * Converts offsets into {@link #getContents()} to line numbers. Built on the first call only.
+   */
+  public LineIndex getLineIndex() {
+    if (lineIndex == null) {
+      lineIndex = LineIndex.of(getContents());
+    }
+    return lineIndex;
+  }
+
   @Override
   public String toString() {
     return inputFile.absolutePath();
@@ -0,0 +1,308 @@
+package org.sonar.plugins.txt.checks.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds which of many literal strings occur in a piece of text with a single pass over that text, however many
+ * strings there are. Each string is registered with an id and a search reports the set of ids found.
+ * <p>
+ * The automaton is compiled into a dense transition table over the characters that appear in the registered strings
+ * (every other character shares one column) so the search is one array lookup per character of input. The table has a
+ * row per state and a column per distinct character, so it is kept under {@link #MAX_TABLE_ENTRIES}: when giving every
+ * non-ASCII character its own column would go over, those characters follow the trie's edges and failure links
+ * instead, which costs a binary search or a few for each of them. Callers keep the ASCII part of the table under the
+ * limit themselves, see {@link #denseTableEntries(int, int)}. Instances are immutable once built and safe to share
+ * between threads.
+ */
+public final class AhoCorasickAutomaton {
+
+  /**
+   * The most entries the transition table may have, 16 MB worth
+   */
+  public static final int MAX_TABLE_ENTRIES = 1 << 22;
+
+  private static final int[] NO_OUTPUT = new int[0];
+  private static final int ASCII_CHARS = 128;
+
+  private final int alphabetSize;
+  private final Map<Character, Integer> alphabetForRareChars;
+  private final int[] alphabetForAsciiChars;
+  private final int[] transitions;
+  private final int[][] outputs;
+  // Only set when the non-ASCII characters have no column: every such character of a literal, the sorted characters
+  // of the trie edges leaving each state with their target, and the failure link of each state
+  private final BitSet sparseChars;
+  private final char[][] sparseEdgeChars;
+  private final int[][] sparseEdgeTargets;
+  private final int[] failure;
+
+  private AhoCorasickAutomaton(final int alphabetSize, final Map<Character, Integer> alphabetForRareChars, final int[] alphabetForAsciiChars,
+                               final int[] transitions, final int[][] outputs, final SparseEdges sparseEdges) {
+    this.alphabetSize = alphabetSize;
+    this.alphabetForRareChars = alphabetForRareChars;
+    this.alphabetForAsciiChars = alphabetForAsciiChars;
+    this.transitions = transitions;
+    this.outputs = outputs;
+    this.sparseChars = (sparseEdges == null) ? null : sparseEdges.chars;
+    this.sparseEdgeChars = (sparseEdges == null) ? null : sparseEdges.edgeChars;
+    this.sparseEdgeTargets = (sparseEdges == null) ? null : sparseEdges.edgeTargets;
+    this.failure = (sparseEdges == null) ? null : sparseEdges.failure;
+  }
+
+  /**
+   * @return how many entries the dense table of an automaton takes at most when its literals have that many
+   *         characters in all, and that many distinct ASCII characters
+   */
+  public static long denseTableEntries(final int literalCharacters, final int distinctAsciiChars) {
+    // One state per character plus the root; one column per character plus the one shared by every other character
+    return (literalCharacters + 1L) * (distinctAsciiChars + 1L);
+  }
+
+  /**
+   * @param literals the strings to search for; a string's index in this list is the id reported when it is found.
+   *        Empty strings are not allowed.
+   */
+  public static AhoCorasickAutomaton build(final List<String> literals) {
+    // Map each distinct character to a column. Column 0 is every character not used by any literal.
+    int[] asciiColumns = new int[ASCII_CHARS];
+    BitSet rareChars = new BitSet();
+    int columns = 1;
+    int literalCharacters = 0;
+    for (String literal : literals) {
+      if (literal.isEmpty()) {
+        throw new IllegalArgumentException("Empty literals can't be searched for");
+      }
+      literalCharacters += literal.length();
+      for (int i = 0; i < literal.length(); i++) {
+        char c = literal.charAt(i);
+        if (c >= ASCII_CHARS) {
+          rareChars.set(c);
+        } else if (asciiColumns[c] == 0) {
+          asciiColumns[c] = columns++;
+        }
+      }
+    }
+    Map<Character, Integer> rareColumns = new HashMap<>();
+    boolean sparse = (literalCharacters + 1L) * (columns + rareChars.cardinality()) > MAX_TABLE_ENTRIES;
+    if (!sparse) {
+      for (int c = rareChars.nextSetBit(0); c >= 0; c = rareChars.nextSetBit(c + 1)) {
+        rareColumns.put((char) c, columns++);
+      }
+    }
+
+    // Build the trie. Without columns of their own the non-ASCII characters' edges go in a map per state.
+    List<int[]> trie = new ArrayList<>();
+    List<Map<Character, Integer>> sparseTrie = new ArrayList<>();
+    List<List<Integer>> stateOutputs = new ArrayList<>();
+    trie.add(newRow(columns));
+    sparseTrie.add(null);
+    stateOutputs.add(new ArrayList<>());
+    for (int id = 0; id < literals.size(); id++) {
+      String literal = literals.get(id);
+      int state = 0;
+      for (int i = 0; i < literal.length(); i++) {
+        char c = literal.charAt(i);
+        int next;
+        if (sparse && c >= ASCII_CHARS) {
+          if (sparseTrie.get(state) == null) {
+            sparseTrie.set(state, new HashMap<>());
+          }
+          next = sparseTrie.get(state).getOrDefault(c, -1);
+          if (next < 0) {
+            next = trie.size();
+            sparseTrie.get(state).put(c, next);
+          }
+        } else {
+          int column = column(c, asciiColumns, rareColumns);
+          next = trie.get(state)[column];
+          if (next < 0) {
+            next = trie.size();
+            trie.get(state)[column] = next;
+          }
+        }
+        if (next == trie.size()) {
+          trie.add(newRow(columns));
+          sparseTrie.add(null);
+          stateOutputs.add(new ArrayList<>());
+        }
+        state = next;
+      }
+      stateOutputs.get(state).add(id);
+    }
+
+    // Breadth first over the trie to compute failure links, folding them into a full DFA as we go
+    int stateCount = trie.size();
+    int[] transitions = new int[stateCount * columns];
+    int[] failure = new int[stateCount];
+    int[][] outputs = new int[stateCount][];
+    SparseEdges sparseEdges = sparse ? new SparseEdges(rareChars, sparseTrie, failure) : null;
+    Deque<Integer> queue = new ArrayDeque<>();
+
+    int[] rootRow = trie.get(0);
+    for (int column = 0; column < columns; column++) {
+      int child = rootRow[column];
+      if (child < 0) {
+        transitions[column] = 0;
+      } else {
+        transitions[column] = child;
+        failure[child] = 0;
+        queue.add(child);
+      }
+    }
+    if (sparse && sparseEdges.edgeTargets[0] != null) {
+      for (int child : sparseEdges.edgeTargets[0]) {
+        failure[child] = 0;
+        queue.add(child);
+      }
+    }
+    outputs[0] = NO_OUTPUT;
+
+    while (!queue.isEmpty()) {
+      int state = queue.poll();
+      List<Integer> own = stateOutputs.get(state);
+      int[] inherited = outputs[failure[state]];
+      int[] merged = Arrays.copyOf(inherited, inherited.length + own.size());
+      for (int i = 0; i < own.size(); i++) {
+        merged[inherited.length + i] = own.get(i);
+      }
+      outputs[state] = merged.length == 0 ? NO_OUTPUT : merged;
+
+      int[] row = trie.get(state);
+      for (int column = 0; column < columns; column++) {
+        int child = row[column];
+        int viaFailure = transitions[failure[state] * columns + column];
+        if (child < 0) {
+          transitions[state * columns + column] = viaFailure;
+        } else {
+          transitions[state * columns + column] = child;
+          failure[child] = viaFailure;
+          queue.add(child);
+        }
+      }
+      if (sparse) {
+        char[] edgeChars = sparseEdges.edgeChars[state];
+        for (int i = 0; edgeChars != null && i < edgeChars.length; i++) {
+          int child = sparseEdges.edgeTargets[state][i];
+          failure[child] = sparseEdges.step(failure[state], edgeChars[i]);
+          queue.add(child);
+        }
+      }
+    }
+
+    return new AhoCorasickAutomaton(columns, rareColumns, asciiColumns, transitions, outputs, sparseEdges);
+  }
+
+  /**
+   * Adds the id of every literal that occurs in text[start, end) to found.
+   */
+  public void findAll(final CharSequence text, final int start, final int end, final BitSet found) {
+    int state = 0;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (c >= ASCII_CHARS && sparseChars != null) {
+        state = sparseChars.get(c) ? step(state, c) : 0;
+      } else {
+        state = transitions[state * alphabetSize + column(c, alphabetForAsciiChars, alphabetForRareChars)];
+      }
+      int[] output = outputs[state];
+      for (int id : output) {
+        found.set(id);
+      }
+    }
+  }
+
+  public int stateCount() {
+    return outputs.length;
+  }
+
+  int tableEntries() {
+    return transitions.length;
+  }
+
+  private int step(final int state, final char c) {
+    return step(state, c, sparseEdgeChars, sparseEdgeTargets, failure);
+  }
+
+  /**
+   * The state reached from state on a character without a column: along the trie edge for it when there is one,
+   * otherwise from the state's failure link, down to the root.
+   */
+  private static int step(final int state, final char c, final char[][] edgeChars, final int[][] edgeTargets, final int[] failure) {
+    int current = state;
+    while (true) {
+      char[] chars = edgeChars[current];
+      int edge = (chars == null) ? -1 : Arrays.binarySearch(chars, c);
+      if (edge >= 0) {
+        return edgeTargets[current][edge];
+      }
+      if (current == 0) {
+        return 0;
+      }
+      current = failure[current];
+    }
+  }
+
+  private static int column(final char c, final int[] asciiColumns, final Map<Character, Integer> rareColumns) {
+    if (c < ASCII_CHARS) {
+      return asciiColumns[c];
+    }
+    if (rareColumns.isEmpty()) {
+      return 0;
+    }
+    Integer column = rareColumns.get(c);
+    return column == null ? 0 : column;
+  }
+
+  private static int[] newRow(final int columns) {
+    int[] row = new int[columns];
+    Arrays.fill(row, -1);
+    return row;
+  }
+
+  /**
+   * The trie edges of the characters without a column, as sorted arrays per state. The failure links are filled in
+   * while the automaton is built.
+   */
+  private static final class SparseEdges {
+    private final BitSet chars;
+    private final char[][] edgeChars;
+    private final int[][] edgeTargets;
+    private final int[] failure;
+
+    private SparseEdges(final BitSet chars, final List<Map<Character, Integer>> edgesByState, final int[] failure) {
+      this.chars = chars;
+      this.failure = failure;
+      edgeChars = new char[edgesByState.size()][];
+      edgeTargets = new int[edgesByState.size()][];
+      for (int state = 0; state < edgesByState.size(); state++) {
+        Map<Character, Integer> edges = edgesByState.get(state);
+        if (edges == null) {
+          continue;
+        }
+        char[] sortedChars = new char[edges.size()];
+        int i = 0;
+        for (char c : edges.keySet()) {
+          sortedChars[i++] = c;
+        }
+        Arrays.sort(sortedChars);
+        int[] targets = new int[sortedChars.length];
+        for (i = 0; i < sortedChars.length; i++) {
+          targets[i] = edges.get(sortedChars[i]);
+        }
+        edgeChars[state] = sortedChars;
+        edgeTargets[state] = targets;
+      }
+    }
+
+    private int step(final int state, final char c) {
+      return AhoCorasickAutomaton.step(state, c, edgeChars, edgeTargets, failure);
+    }
+  }
+}
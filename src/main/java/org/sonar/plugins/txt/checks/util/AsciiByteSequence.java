@@ -0,0 +1,144 @@
+package org.sonar.plugins.txt.checks.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read-only CharSequence over file content that is known to be pure ASCII, where every byte is the character itself.
+ * The bytes, whether mapped or on the heap, are widened to chars as they are read so no decoding is done and no char
+ * array is allocated.
+ */
+public final class AsciiByteSequence implements CharSequence {
+
+  private final ByteBuffer bytes;
+  // Set when the bytes are on the heap so that charAt() is a plain array access
+  private final byte[] array;
+  private final int offset;
+  private final int length;
+  private final LineIndex lineIndex;
+
+  private static final long HIGH_BITS = 0x8080808080808080L;
+  private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+  private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+
+  /**
+   * @param bytes content from position 0 up to the limit, every byte below 0x80. Must not be modified afterwards.
+   */
+  public AsciiByteSequence(final ByteBuffer bytes) {
+    this(bytes, null);
+  }
+
+  /**
+   * @param lineIndex the content's newlines, found while its bytes were checked, or null
+   */
+  AsciiByteSequence(final ByteBuffer bytes, final LineIndex lineIndex) {
+    this.bytes = bytes;
+    this.array = bytes.hasArray() ? bytes.array() : null;
+    this.offset = bytes.hasArray() ? bytes.arrayOffset() : 0;
+    this.length = bytes.limit();
+    this.lineIndex = lineIndex;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(final int index) {
+    if (index >= length) {
+      throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+    }
+    return (array != null) ? (char) array[offset + index] : (char) bytes.get(index);
+  }
+
+  @Override
+  public CharSequence subSequence(final int start, final int end) {
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+    }
+    return copyToString(start, end);
+  }
+
+  @Override
+  public String toString() {
+    return copyToString(0, length);
+  }
+
+  private String copyToString(final int start, final int end) {
+    if (array != null) {
+      return new String(array, offset + start, end - start, StandardCharsets.ISO_8859_1);
+    }
+    byte[] copy = new byte[end - start];
+    ByteBuffer source = bytes.duplicate();
+    source.position(start);
+    source.get(copy);
+    return new String(copy, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * The bytes this view reads, for telling whether it is backed by a given buffer. Must not be modified.
+   */
+  ByteBuffer buffer() {
+    return bytes;
+  }
+
+  LineIndex lineIndex() {
+    return lineIndex;
+  }
+
+  /**
+   * @return true when no byte between the buffer's position and limit has its high bit set, tested a word at a time
+   */
+  static boolean isAscii(final ByteBuffer bytes) {
+    return isAscii(bytes, null);
+  }
+
+  /**
+   * Same as {@link #isAscii(ByteBuffer)}, and also hands the offset of every '\n', counted from the buffer's position,
+   * to the builder in the same pass. The newlines are found a word at a time too, so building the line index along the
+   * way costs little more than the check. What the builder got is meaningless when this returns false.
+   * @param newlines null to only check the bytes
+   */
+  static boolean isAscii(final ByteBuffer bytes, final LineIndex.Builder newlines) {
+    int start = bytes.position();
+    int limit = bytes.limit();
+    boolean bigEndian = bytes.order() == ByteOrder.BIG_ENDIAN;
+    int i = start;
+    for (; i + Long.BYTES <= limit; i += Long.BYTES) {
+      long word = bytes.getLong(i);
+      if ((word & HIGH_BITS) != 0) {
+        return false;
+      }
+      if (newlines != null) {
+        // The first byte of the word is its most significant one
+        long newlineBytes = newlineBytes(bigEndian ? word : Long.reverseBytes(word));
+        while (newlineBytes != 0) {
+          long highest = Long.highestOneBit(newlineBytes);
+          newlines.newlineAt(i - start + (Long.numberOfLeadingZeros(highest) >>> 3));
+          newlineBytes ^= highest;
+        }
+      }
+    }
+    for (; i < limit; i++) {
+      byte b = bytes.get(i);
+      if (b < 0) {
+        return false;
+      }
+      if (b == '\n' && newlines != null) {
+        newlines.newlineAt(i - start);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the high bit of every byte of the word that is '\n', and no other bit. Exact for bytes below 0x80: unlike
+   *         the shorter (x - 0x01..) & ~x form, no borrow carries from one byte into the next.
+   */
+  private static long newlineBytes(final long word) {
+    long zeroWhereNewline = word ^ NEWLINES;
+    return ~(((zeroWhereNewline & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | zeroWhereNewline | LOW_SEVEN_BITS);
+  }
+}
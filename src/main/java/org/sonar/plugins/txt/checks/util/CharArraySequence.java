@@ -0,0 +1,65 @@
+package org.sonar.plugins.txt.checks.util;
+
+/**
+ * Read-only CharSequence over decoded file content. Unlike a String no copy is made, and unlike a CharBuffer charAt()
+ * is a plain array access.
+ */
+public final class CharArraySequence implements CharSequence {
+
+  private final char[] chars;
+  private final int length;
+  private final LineIndex lineIndex;
+
+  public CharArraySequence(final char[] chars, final int length) {
+    this(chars, length, null);
+  }
+
+  /**
+   * @param lineIndex the content's newlines, found while it was decoded, or null
+   */
+  CharArraySequence(final char[] chars, final int length, final LineIndex lineIndex) {
+    if (length < 0 || length > chars.length) {
+      throw new IllegalArgumentException("length " + length + " doesn't fit an array of " + chars.length);
+    }
+    this.chars = chars;
+    this.length = length;
+    this.lineIndex = lineIndex;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(final int index) {
+    if (index >= length) {
+      throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+    }
+    return chars[index];
+  }
+
+  @Override
+  public CharSequence subSequence(final int start, final int end) {
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+    }
+    return new String(chars, start, end - start);
+  }
+
+  @Override
+  public String toString() {
+    return new String(chars, 0, length);
+  }
+
+  /**
+   * Direct access for the code in this package that scans the content in bulk. Must not be modified.
+   */
+  char[] array() {
+    return chars;
+  }
+
+  LineIndex lineIndex() {
+    return lineIndex;
+  }
+}
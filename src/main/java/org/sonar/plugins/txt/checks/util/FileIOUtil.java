@@ -1,43 +1,41 @@
 package org.sonar.plugins.txt.checks.util;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.sonar.plugins.txt.checks.TextSourceFile;
 
 public final class FileIOUtil {
   private static final Logger LOG = LoggerFactory.getLogger(FileIOUtil.class);
 
-  private FileIOUtil() {};
+  // Below this size reading the file into a heap buffer is cheaper than setting up and tearing down a mapping
+  private static final int MAPPING_THRESHOLD_BYTES = 64 * 1024;
+  // From this size on files are decoded a window at a time (see MappedCharSequence) instead of all at once onto the heap
+  private static final int WINDOWED_DECODING_THRESHOLD_BYTES = 8 * 1024 * 1024;
+  // Files decoding to more characters than this get a buffer of their own so that no thread holds on to a huge one
+  private static final int MAX_REUSED_CHARS = 1024 * 1024;
+  // Decoded a chunk at a time so the newlines of each chunk are found while its characters are still in the cache
+  private static final int DECODING_CHUNK_CHARS = 8 * 1024;
+  private static final byte[] UTF8_BYTE_ORDER_MARK = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
 
+  // Decoding state kept by each analysis thread from one file to the next, see readFileContentsIntoThreadBuffer()
+  private static final ThreadLocal<ThreadReadState> THREAD_READ_STATE = ThreadLocal.withInitial(ThreadReadState::new);
 
-  public static String readFileAsString(final Path path, final int failWhenCharacterCountExceeds) {
-    try (FileInputStream fileInputStream = new FileInputStream(path.toFile())) {
-      return readInputStreamToString(fileInputStream, failWhenCharacterCountExceeds, path.toString());
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
-  }
-
-  public static String readFileAsString(final TextSourceFile textSourceFile, final int failWhenCharacterCountExceeds) {
-    try (InputStream fileInputStream = textSourceFile.getInputFile().inputStream()) {
-      return readInputStreamToString(fileInputStream, failWhenCharacterCountExceeds, textSourceFile.getInputFile().uri().toString());
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
-  }
+  private FileIOUtil() {};
 
   /**
    * The caller MUST CLOSE the object that this method returns. Note that this adds no
@@ -48,27 +46,219 @@ public final class FileIOUtil {
     return new InputStreamReader(inStream, decoder);
   }
 
-  public static String readInputStreamToString(final InputStream fileContentsInputStream, final int failWhenCharacterCountExceeds, String fileLocationDescription) {
-    CharBuffer fileContentBuffer = CharBuffer.allocate(failWhenCharacterCountExceeds);
+  /**
+   * Decodes the whole file with the tolerant decoder into a buffer sized from the file's length, which UTF-8 decoding
+   * can never exceed. Large files are decoded straight from a memory-mapped region so their bytes aren't copied onto
+   * the heap first, and very large ones are only decoded lazily, a window at a time, so files of any size up to 2 GB
+   * can be scanned with bounded heap use. Pure ASCII files, where decoding would give back the bytes unchanged, aren't
+   * decoded at all: their bytes are exposed directly (see {@link AsciiByteSequence}). The pass over the bytes or the
+   * characters also builds the contents' {@link LineIndex}, which {@link LineIndex#of(CharSequence)} then returns.
+   * A leading UTF-8 byte order mark is left out, as InputFile.inputStream() leaves it out, so it neither reaches the
+   * rules as U+FEFF nor keeps an otherwise ASCII file off the ASCII path.
+   * @return a read-only view of the decoded characters; no String copy is made
+   * @throws LargeFileEncounteredException for files over 2 GB. Those can't be represented as a single CharSequence.
+   */
+  public static CharSequence readFileContents(final Path path) throws IOException {
+    return readFileContents(path, false);
+  }
+
+  /**
+   * Same as {@link #readFileContents(Path)} except that the characters are decoded into a buffer that the calling
+   * thread reuses for the next file once {@link #releaseThreadBuffer(CharSequence)} has been called with the returned
+   * view. Until then the view stays valid and further files read by the thread get buffers of their own. The decoder,
+   * the buffer small files are read into and the line index's arrays are always reused, so reading files one after the
+   * other allocates close to nothing.
+   */
+  public static CharSequence readFileContentsIntoThreadBuffer(final Path path) throws IOException {
+    return readFileContents(path, true);
+  }
 
-    try (
-        Reader inputStreamReader = FileIOUtil.createTolerantInputStreamReader(fileContentsInputStream);
-        BufferedReader reader = new BufferedReader(inputStreamReader);
-    ) {
-      int result = reader.read(fileContentBuffer);
-      if (result == failWhenCharacterCountExceeds) {
-        LOG.warn("Text scanner (RequiredStringNotPresentRegexMatchCheck) maximum scan depth ( " + (failWhenCharacterCountExceeds-1) + " chars) encountered for file '" + fileLocationDescription + "'. Did not check this file AT ALL.");
+  /**
+   * Hands the buffer behind contents returned by {@link #readFileContentsIntoThreadBuffer(Path)} back to the calling
+   * thread. The contents must not be used afterwards. Does nothing for any other CharSequence.
+   */
+  public static void releaseThreadBuffer(final CharSequence contents) {
+    ThreadReadState state = THREAD_READ_STATE.get();
+    if (state.charsLeased && contents instanceof CharArraySequence && ((CharArraySequence) contents).array() == state.chars) {
+      state.charsLeased = false;
+    } else if (state.bytesLeased && contents instanceof AsciiByteSequence && sharesArray(((AsciiByteSequence) contents).buffer(), state.bytes)) {
+      state.bytesLeased = false;
+    }
+    if (state.newlinesLeased && state.newlines.built(LineIndex.attachedTo(contents))) {
+      state.newlinesLeased = false;
+    }
+  }
+
+  /**
+   * Drops the decoding state the calling thread kept from one file to the next. To be called once a thread that
+   * outlives the analysis, such as the scanner's own, has read its last file; contents it read must not be used
+   * afterwards.
+   */
+  public static void releaseThreadState() {
+    THREAD_READ_STATE.remove();
+  }
+
+  private static CharSequence readFileContents(final Path path, final boolean intoThreadBuffer) throws IOException {
+    ThreadReadState state = THREAD_READ_STATE.get();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
         throw new LargeFileEncounteredException();
+      }
+      ByteBuffer bytes;
+      boolean threadBytes = false;
+      if (size >= MAPPING_THRESHOLD_BYTES) {
+        bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
       } else {
-        fileContentBuffer.flip();
+        // Contents that are read as ASCII keep their bytes, so only a buffer nobody else is using can be read into
+        threadBytes = !state.bytesLeased;
+        bytes = threadBytes ? state.bytes : ByteBuffer.allocate((int) size);
+        bytes.clear();
+        bytes.limit((int) size);
+        while (bytes.hasRemaining() && channel.read(bytes) != -1) {
+          // keep reading until the buffer is full or the file ended early
+        }
+        bytes.flip();
       }
+      if (startsWithByteOrderMark(bytes)) {
+        bytes.position(UTF8_BYTE_ORDER_MARK.length);
+        bytes = bytes.slice();
+      }
+
+      // Whatever the contents turn out to be, their line index is built in the pass that reads them
+      boolean threadNewlines = intoThreadBuffer && !state.newlinesLeased;
+      LineIndex.Builder newlines = threadNewlines ? state.newlines : new LineIndex.Builder();
+      newlines.reset();
+      if (AsciiByteSequence.isAscii(bytes, newlines)) {
+        if (threadBytes && !intoThreadBuffer) {
+          // The thread's buffer is only handed out to callers that release it
+          bytes = ByteBuffer.allocate(bytes.limit()).put(bytes);
+          bytes.flip();
+        }
+        state.bytesLeased |= threadBytes && intoThreadBuffer;
+        state.newlinesLeased |= threadNewlines;
+        return new AsciiByteSequence(bytes, newlines.build(bytes.limit()));
+      }
+      if (size >= WINDOWED_DECODING_THRESHOLD_BYTES) {
+        return MappedCharSequence.of(bytes);
+      }
+      newlines.reset();
+      CharArraySequence decoded = decode(bytes, (int) size, state, intoThreadBuffer, newlines);
+      state.newlinesLeased |= threadNewlines;
+      return decoded;
+    }
+  }
 
-    } catch (BufferOverflowException ex) {
-      throw ex;
-    } catch (IOException ex){
-      throw new RuntimeException(ex);
+  private static boolean startsWithByteOrderMark(final ByteBuffer bytes) {
+    if (bytes.remaining() < UTF8_BYTE_ORDER_MARK.length) {
+      return false;
+    }
+    for (int i = 0; i < UTF8_BYTE_ORDER_MARK.length; i++) {
+      if (bytes.get(bytes.position() + i) != UTF8_BYTE_ORDER_MARK[i]) {
+        return false;
+      }
     }
+    return true;
+  }
+
+  /**
+   * Contents read into the thread's buffer may start past a byte order mark, on a slice of the buffer
+   */
+  private static boolean sharesArray(final ByteBuffer bytes, final ByteBuffer threadBytes) {
+    return bytes.hasArray() && bytes.array() == threadBytes.array();
+  }
+
+  private static CharArraySequence decode(final ByteBuffer bytes, final int maxChars, final ThreadReadState state, final boolean intoThreadBuffer,
+      final LineIndex.Builder newlines) {
+    boolean leaseThreadBuffer = intoThreadBuffer && !state.charsLeased && maxChars <= MAX_REUSED_CHARS;
+    char[] charArray;
+    if (leaseThreadBuffer) {
+      if (state.chars.length < maxChars) {
+        state.chars = new char[Math.max(maxChars, Math.min(MAX_REUSED_CHARS, 2 * state.chars.length))];
+      }
+      charArray = state.chars;
+    } else {
+      charArray = new char[maxChars];
+    }
+
+    CharsetDecoder decoder = state.decoder.reset();
+    CharBuffer chars = CharBuffer.wrap(charArray, 0, maxChars);
+    while (true) {
+      int chunkStart = chars.position();
+      chars.limit(Math.min(maxChars, chunkStart + DECODING_CHUNK_CHARS));
+      CoderResult result = decoder.decode(bytes, chars, true);
+      newlines.scan(charArray, chunkStart, chars.position(), chunkStart);
+      if (result.isUnderflow()) {
+        break;
+      }
+      if (!result.isOverflow() || chars.limit() == maxChars) {
+        throw new IllegalStateException("Decoding overflowed a buffer sized from the file length: " + result);
+      }
+    }
+    decoder.flush(chars);
+    state.charsLeased |= leaseThreadBuffer;
+    return new CharArraySequence(charArray, chars.position(), newlines.build(chars.position()));
+  }
+
+  /**
+   * Reads the whole stream, however large, using the tolerant decoder.
+   */
+  public static String readInputStreamToString(final InputStream fileContentsInputStream, final String fileLocationDescription) {
+    StringBuilder fileContents = new StringBuilder();
+    char[] chunk = new char[8192];
+
+    try (Reader reader = FileIOUtil.createTolerantInputStreamReader(fileContentsInputStream)) {
+      int charsRead;
+      while ((charsRead = reader.read(chunk)) != -1) {
+        fileContents.append(chunk, 0, charsRead);
+      }
+    } catch (IOException ex) {
+      throw new RuntimeException("Choked while reading " + fileLocationDescription, ex);
+    }
+
+    return fileContents.toString();
+  }
+
+  /**
+   * Splits text into lines the same way java.io.LineNumberReader.readLine() does: '\n', '\r' and "\r\n" all end a line
+   * and a trailing line terminator does not produce an extra empty line.
+   */
+  public static List<String> splitLines(final CharSequence text) {
+    List<String> lines = new ArrayList<>();
+    int lineStart = 0;
+    int length = text.length();
+
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c == '\n' || c == '\r') {
+        lines.add(text.subSequence(lineStart, i).toString());
+        if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') {
+          i++;
+        }
+        lineStart = i + 1;
+      }
+    }
+    if (lineStart < length) {
+      lines.add(text.subSequence(lineStart, length).toString());
+    }
+
+    return lines;
+  }
+
+  public static void logFileTooLargeToScan(final String fileLocationDescription) {
+    LOG.warn("File '" + fileLocationDescription + "' is larger than 2 GB. Text rules did not check this file AT ALL.");
+  }
 
-    return fileContentBuffer.toString();
+  private static final class ThreadReadState {
+    private final CharsetDecoder decoder = (StandardCharsets.UTF_8).newDecoder().onMalformedInput(CodingErrorAction.IGNORE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(MAPPING_THRESHOLD_BYTES);
+    private char[] chars = new char[0];
+    private final LineIndex.Builder newlines = new LineIndex.Builder();
+    // Set while a CharArraySequence handed out by readFileContentsIntoThreadBuffer() still uses chars
+    private boolean charsLeased;
+    // Set while an AsciiByteSequence handed out by readFileContentsIntoThreadBuffer() still uses bytes
+    private boolean bytesLeased;
+    // Set while contents handed out by readFileContentsIntoThreadBuffer() still use the arrays of newlines
+    private boolean newlinesLeased;
   }
 }
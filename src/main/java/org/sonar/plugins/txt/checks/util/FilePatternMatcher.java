@@ -0,0 +1,250 @@
+package org.sonar.plugins.txt.checks.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sonar.api.utils.WildcardPattern;
+
+/**
+ * Every Ant style file pattern of the active rules compiled once into a trie over path segments, so that working out
+ * which of the patterns a file's path matches takes a single pass over the path instead of one regular expression
+ * evaluation per pattern.
+ * <p>
+ * Each trie edge is a path segment of a pattern: literal segments are looked up by hash, segments holding '*' or '?'
+ * are matched as globs within the segment and a "**" segment matches any number of segments. Paths are walked like an
+ * NFA: the set of nodes reached so far advances one segment at a time. Matching gives the same answer as
+ * {@link WildcardPattern#match(String)}; the few patterns the trie can't express (a "**" glued to other characters,
+ * which can span directories) are matched with WildcardPattern.
+ */
+public final class FilePatternMatcher {
+
+  private final Map<String, Integer> indexByPattern;
+  private final Node root;
+  private final int nodeCount;
+  private final int[] fallbackIndexes;
+  private final WildcardPattern[] fallbackPatterns;
+
+  private FilePatternMatcher(final Map<String, Integer> indexByPattern, final Node root, final int nodeCount,
+                             final int[] fallbackIndexes, final WildcardPattern[] fallbackPatterns) {
+    this.indexByPattern = indexByPattern;
+    this.root = root;
+    this.nodeCount = nodeCount;
+    this.fallbackIndexes = fallbackIndexes;
+    this.fallbackPatterns = fallbackPatterns;
+  }
+
+  /**
+   * @param patterns Ant style patterns as accepted by {@link WildcardPattern#create(String)}; nulls and duplicates are ignored
+   */
+  public static FilePatternMatcher build(final Collection<String> patterns) {
+    Map<String, Integer> indexByPattern = new LinkedHashMap<>();
+    for (String pattern : patterns) {
+      if (pattern != null && !indexByPattern.containsKey(pattern)) {
+        indexByPattern.put(pattern, indexByPattern.size());
+      }
+    }
+
+    Node root = new Node(0);
+    int nodeCount = 1;
+    List<Integer> fallbackIndexes = new ArrayList<>();
+    List<WildcardPattern> fallbackPatterns = new ArrayList<>();
+    for (Map.Entry<String, Integer> entry : indexByPattern.entrySet()) {
+      String[] segments = segments(entry.getKey());
+      if (segments == null) {
+        fallbackIndexes.add(entry.getValue());
+        fallbackPatterns.add(WildcardPattern.create(entry.getKey()));
+        continue;
+      }
+      Node node = root;
+      for (String segment : segments) {
+        Node child = node.child(segment);
+        if (child == null) {
+          child = node.addChild(segment, nodeCount++);
+        }
+        node = child;
+      }
+      node.acceptedPatterns.set(entry.getValue());
+    }
+
+    int[] fallbackIndexArray = new int[fallbackIndexes.size()];
+    for (int i = 0; i < fallbackIndexArray.length; i++) {
+      fallbackIndexArray[i] = fallbackIndexes.get(i);
+    }
+    return new FilePatternMatcher(indexByPattern, root, nodeCount, fallbackIndexArray, fallbackPatterns.toArray(new WildcardPattern[0]));
+  }
+
+  /**
+   * @return the index of the pattern in the sets returned by {@link #match(String)}, or -1 when it wasn't compiled in
+   */
+  public int indexOf(final String pattern) {
+    Integer index = indexByPattern.get(pattern);
+    return (index == null) ? -1 : index;
+  }
+
+  /**
+   * @return the indexes of every pattern that the path matches
+   */
+  public BitSet match(final String path) {
+    BitSet matched = new BitSet(indexByPattern.size());
+    for (int i = 0; i < fallbackPatterns.length; i++) {
+      if (fallbackPatterns[i].match(path)) {
+        matched.set(fallbackIndexes[i]);
+      }
+    }
+
+    // Same normalisation as WildcardPattern.match(): at most one leading and one trailing separator are dropped
+    String value = path.startsWith("/") ? path.substring(1) : path;
+    value = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+
+    List<Node> active = new ArrayList<>();
+    active.add(root);
+    addAnySegmentsNodes(active, new BitSet(nodeCount));
+    int start = 0;
+    while (!active.isEmpty()) {
+      int end = value.indexOf('/', start);
+      boolean lastSegment = end < 0;
+      String segment = value.substring(start, lastSegment ? value.length() : end);
+
+      BitSet reached = new BitSet(nodeCount);
+      List<Node> next = new ArrayList<>();
+      for (Node node : active) {
+        node.advance(segment, next, reached);
+      }
+      if (lastSegment) {
+        for (Node node : next) {
+          matched.or(node.acceptedPatterns);
+        }
+        break;
+      }
+      addAnySegmentsNodes(next, reached);
+      active = next;
+      start = end + 1;
+    }
+    return matched;
+  }
+
+  /**
+   * A "**" segment may also match no segment at all, so its node is reached as soon as its parent is.
+   */
+  private static void addAnySegmentsNodes(final List<Node> nodes, final BitSet reached) {
+    for (int i = 0; i < nodes.size(); i++) {
+      Node anySegments = nodes.get(i).anySegmentsChild;
+      if (anySegments != null && !reached.get(anySegments.id)) {
+        reached.set(anySegments.id);
+        nodes.add(anySegments);
+      }
+    }
+  }
+
+  /**
+   * @return the pattern split into segments the way WildcardPattern reads it, or null when it has a "**" that isn't a
+   *         whole segment
+   */
+  private static String[] segments(final String pattern) {
+    int start = (pattern.startsWith("/") || pattern.startsWith("\\")) ? 1 : 0;
+    String[] segments = pattern.substring(start).split("[/\\\\]", -1);
+    for (String segment : segments) {
+      if (segment.contains("**") && !"**".equals(segment)) {
+        return null;
+      }
+    }
+    return segments;
+  }
+
+  /**
+   * '*' matches any run of characters and '?' any one character, both within the segment.
+   */
+  static boolean globMatches(final String glob, final String segment) {
+    int g = 0;
+    int s = 0;
+    int starGlob = -1;
+    int starSegment = 0;
+    while (s < segment.length()) {
+      if (g < glob.length() && (glob.charAt(g) == '?' || (glob.charAt(g) != '*' && glob.charAt(g) == segment.charAt(s)))) {
+        g++;
+        s++;
+      } else if (g < glob.length() && glob.charAt(g) == '*') {
+        starGlob = g++;
+        starSegment = s;
+      } else if (starGlob >= 0) {
+        g = starGlob + 1;
+        s = ++starSegment;
+      } else {
+        return false;
+      }
+    }
+    while (g < glob.length() && glob.charAt(g) == '*') {
+      g++;
+    }
+    return g == glob.length();
+  }
+
+  private static final class Node {
+    private final int id;
+    private final BitSet acceptedPatterns = new BitSet();
+    private final boolean anySegments;
+    private final Map<String, Node> literalChildren = new HashMap<>();
+    private final Map<String, Node> globChildren = new LinkedHashMap<>();
+    private Node anySegmentsChild;
+
+    private Node(final int id) {
+      this(id, false);
+    }
+
+    private Node(final int id, final boolean anySegments) {
+      this.id = id;
+      this.anySegments = anySegments;
+    }
+
+    private Node child(final String segment) {
+      if ("**".equals(segment)) {
+        return anySegmentsChild;
+      }
+      return isGlob(segment) ? globChildren.get(segment) : literalChildren.get(segment);
+    }
+
+    private Node addChild(final String segment, final int childId) {
+      if ("**".equals(segment)) {
+        anySegmentsChild = new Node(childId, true);
+        return anySegmentsChild;
+      }
+      Node child = new Node(childId);
+      (isGlob(segment) ? globChildren : literalChildren).put(segment, child);
+      return child;
+    }
+
+    /**
+     * Adds the nodes reached by consuming the segment from this node.
+     */
+    private void advance(final String segment, final List<Node> next, final BitSet reached) {
+      if (anySegments) {
+        add(this, next, reached);
+      }
+      Node literalChild = literalChildren.get(segment);
+      if (literalChild != null) {
+        add(literalChild, next, reached);
+      }
+      for (Map.Entry<String, Node> globChild : globChildren.entrySet()) {
+        if (globMatches(globChild.getKey(), segment)) {
+          add(globChild.getValue(), next, reached);
+        }
+      }
+    }
+
+    private static void add(final Node node, final List<Node> next, final BitSet reached) {
+      if (!reached.get(node.id)) {
+        reached.set(node.id);
+        next.add(node);
+      }
+    }
+
+    private static boolean isGlob(final String segment) {
+      return segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0;
+    }
+  }
+}
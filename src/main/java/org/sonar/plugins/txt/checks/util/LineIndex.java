@@ -0,0 +1,184 @@
+package org.sonar.plugins.txt.checks.util;
+
+import java.util.Arrays;
+
+/**
+ * Turns character offsets in a file into line and column numbers. The offset of every newline is recorded once and each
+ * lookup is then a binary search, so converting many matches in the same file stays cheap whatever order they come in.
+ * <p>
+ * The offsets are kept in two levels so the index costs 2 bytes per line rather than 4: the text is cut into blocks of
+ * {@link #BLOCK_CHARS} characters, each newline is stored as a char holding its position within its block, and an int
+ * per block records how many newlines come before it. The index is normally built by {@link FileIOUtil} in the pass
+ * that already goes over the file's bytes or characters (see {@link Builder}); {@link #of(CharSequence)} only scans the
+ * text for contents read some other way.
+ * <p>
+ * Lines are numbered the way {@link LineNumberFinderUtil#countLines(CharSequence, int)} numbers them: only '\n' ends a
+ * line, and empty text has no line 1.
+ */
+public final class LineIndex {
+
+  private static final int BLOCK_SHIFT = 16;
+  static final int BLOCK_CHARS = 1 << BLOCK_SHIFT;
+
+  // Position of each newline within its block, in order
+  private final char[] newlineOffsets;
+  // Entry b is how many newlines come before block b; one more entry than there are blocks
+  private final int[] newlinesBeforeBlock;
+  private final int newlineCount;
+  private final int length;
+
+  private LineIndex(final char[] newlineOffsets, final int[] newlinesBeforeBlock, final int newlineCount, final int length) {
+    this.newlineOffsets = newlineOffsets;
+    this.newlinesBeforeBlock = newlinesBeforeBlock;
+    this.newlineCount = newlineCount;
+    this.length = length;
+  }
+
+  /**
+   * The index built along with the contents when {@link FileIOUtil} read them, otherwise one built by a pass over the
+   * text
+   */
+  public static LineIndex of(final CharSequence text) {
+    LineIndex prebuilt = attachedTo(text);
+    if (prebuilt != null) {
+      return prebuilt;
+    }
+    Builder builder = new Builder();
+    if (text instanceof AsciiByteSequence) {
+      AsciiByteSequence.isAscii(((AsciiByteSequence) text).buffer(), builder);
+    } else if (text instanceof CharArraySequence) {
+      builder.scan(((CharArraySequence) text).array(), 0, text.length(), 0);
+    } else {
+      int length = text.length();
+      for (int i = 0; i < length; i++) {
+        if (text.charAt(i) == '\n') {
+          builder.newlineAt(i);
+        }
+      }
+    }
+    return builder.build(text.length());
+  }
+
+  static LineIndex attachedTo(final CharSequence text) {
+    if (text instanceof CharArraySequence) {
+      return ((CharArraySequence) text).lineIndex();
+    }
+    if (text instanceof AsciiByteSequence) {
+      return ((AsciiByteSequence) text).lineIndex();
+    }
+    if (text instanceof MappedCharSequence) {
+      return ((MappedCharSequence) text).lineIndex();
+    }
+    return null;
+  }
+
+  /**
+   * @return the 1-based number of the line holding the character at offset, or 0 for empty text
+   */
+  public int lineOf(final int offset) {
+    if (length == 0) {
+      return 0;
+    }
+    return newlinesBefore(offset) + 1;
+  }
+
+  /**
+   * @return the 0-based position of the character at offset within its line
+   */
+  public int columnOf(final int offset) {
+    int newlinesBefore = newlinesBefore(offset);
+    return (newlinesBefore == 0) ? offset : offset - offsetOfNewline(newlinesBefore - 1) - 1;
+  }
+
+  public int lineCount() {
+    return length == 0 ? 0 : newlineCount + 1;
+  }
+
+  private int newlinesBefore(final int offset) {
+    int end = Math.max(0, Math.min(offset, length));
+    int block = end >>> BLOCK_SHIFT;
+    int from = newlinesBeforeBlock[block];
+    int to = newlinesBeforeBlock[block + 1];
+    int found = Arrays.binarySearch(newlineOffsets, from, to, (char) end);
+    // A newline at the offset itself belongs to the line it ends
+    return (found >= 0) ? found : -found - 1;
+  }
+
+  private int offsetOfNewline(final int newline) {
+    // The last block whose first newline is at or before this one
+    int low = 0;
+    int high = length >>> BLOCK_SHIFT;
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if (newlinesBeforeBlock[middle] <= newline) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return (low << BLOCK_SHIFT) + newlineOffsets[newline];
+  }
+
+  /**
+   * Collects newline offsets, in increasing order, while the text is being read. A builder that is {@link #reset()}
+   * between files keeps its arrays, which the indexes it builds share, so it must only be reset once the previous
+   * index is no longer used.
+   */
+  static final class Builder {
+    private char[] newlineOffsets = new char[256];
+    private int[] newlinesBeforeBlock = new int[4];
+    private int newlineCount;
+    // The block the last newline was in
+    private int block;
+
+    void reset() {
+      newlineCount = 0;
+      block = 0;
+    }
+
+    void newlineAt(final int offset) {
+      if ((offset >>> BLOCK_SHIFT) != block) {
+        startBlock(offset >>> BLOCK_SHIFT);
+      }
+      if (newlineCount == newlineOffsets.length) {
+        newlineOffsets = Arrays.copyOf(newlineOffsets, (int) Math.min(Integer.MAX_VALUE - 8, 2L * newlineCount));
+      }
+      newlineOffsets[newlineCount++] = (char) offset;
+    }
+
+    /**
+     * Records the newlines among chars[from, to), which stand for the text from textOffset on
+     */
+    void scan(final char[] chars, final int from, final int to, final int textOffset) {
+      for (int i = from; i < to; i++) {
+        if (chars[i] == '\n') {
+          newlineAt(textOffset + i - from);
+        }
+      }
+    }
+
+    LineIndex build(final int length) {
+      startBlock(length >>> BLOCK_SHIFT);
+      newlinesBeforeBlock[block + 1] = newlineCount;
+      return new LineIndex(newlineOffsets, newlinesBeforeBlock, newlineCount, length);
+    }
+
+    /**
+     * @return true when the index was built by this builder and still uses its arrays
+     */
+    boolean built(final LineIndex lineIndex) {
+      return lineIndex != null && lineIndex.newlineOffsets == newlineOffsets;
+    }
+
+    private void startBlock(final int newBlock) {
+      if (newBlock + 2 > newlinesBeforeBlock.length) {
+        newlinesBeforeBlock = Arrays.copyOf(newlinesBeforeBlock, Math.max(newBlock + 2, 2 * newlinesBeforeBlock.length));
+      }
+      // Every block up to the new one starts after all the newlines seen so far
+      for (int b = block + 1; b <= newBlock; b++) {
+        newlinesBeforeBlock[b] = newlineCount;
+      }
+      block = newBlock;
+    }
+  }
+}
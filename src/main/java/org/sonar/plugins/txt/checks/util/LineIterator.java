@@ -0,0 +1,138 @@
+package org.sonar.plugins.txt.checks.util;
+
+/**
+ * Walks the lines of decoded file content without copying them. The current line is exposed as a CharSequence window
+ * over the content; the same window object is moved along from one line to the next, so it must not be held on to
+ * (call toString() to keep a line). Matchers can be reset onto it since Matcher.reset() reads the input's length anew.
+ * <p>
+ * Lines end the same way as with {@link FileIOUtil#splitLines(CharSequence)}: at '\n', '\r' or "\r\n", and a trailing
+ * line terminator doesn't produce an extra empty line.
+ */
+public final class LineIterator {
+
+  private final CharSequence text;
+  // Set when the content is an array so that the window reads it directly
+  private final char[] chars;
+  private final int textLength;
+  private final LineView line = new LineView();
+  private int nextLineStart;
+  private int lineNumber;
+  private boolean finished;
+
+  public LineIterator(final CharSequence text) {
+    this.text = text;
+    this.chars = (text instanceof CharArraySequence) ? ((CharArraySequence) text).array() : null;
+    this.textLength = text.length();
+  }
+
+  /**
+   * Moves to the next line.
+   * @return false once every line has been visited
+   */
+  public boolean next() {
+    if (nextLineStart >= textLength) {
+      finished = true;
+      return false;
+    }
+    int start = nextLineStart;
+    int end = (chars != null) ? lineEnd(chars, start, textLength) : lineEnd(text, start, textLength);
+    nextLineStart = end + 1;
+    if (end < textLength && charAt(end) == '\r' && end + 1 < textLength && charAt(end + 1) == '\n') {
+      nextLineStart++;
+    }
+    line.start = start;
+    line.length = end - start;
+    lineNumber++;
+    return true;
+  }
+
+  /**
+   * @return true once {@link #next()} returned false, from then on {@link #lineNumber()} is the number of lines
+   */
+  public boolean isFinished() {
+    return finished;
+  }
+
+  /**
+   * The current line, without its terminator. Only valid until the next call to {@link #next()}.
+   */
+  public CharSequence line() {
+    return line;
+  }
+
+  /**
+   * 1 for the first line
+   */
+  public int lineNumber() {
+    return lineNumber;
+  }
+
+  /**
+   * Offset of the current line's first character in the content
+   */
+  public int lineStart() {
+    return line.start;
+  }
+
+  /**
+   * Offset just past the current line's last character, before its terminator
+   */
+  public int lineEnd() {
+    return line.start + line.length;
+  }
+
+  private char charAt(final int index) {
+    return (chars != null) ? chars[index] : text.charAt(index);
+  }
+
+  private static int lineEnd(final char[] chars, final int start, final int end) {
+    for (int i = start; i < end; i++) {
+      char c = chars[i];
+      if (c == '\n' || c == '\r') {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  private static int lineEnd(final CharSequence text, final int start, final int end) {
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (c == '\n' || c == '\r') {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  private final class LineView implements CharSequence {
+    private int start;
+    private int length;
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(final int index) {
+      if (index < 0 || index >= length) {
+        throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+      }
+      return LineIterator.this.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(final int subStart, final int subEnd) {
+      if (subStart < 0 || subEnd > length || subStart > subEnd) {
+        throw new IndexOutOfBoundsException("start " + subStart + ", end " + subEnd + ", length " + length);
+      }
+      return text.subSequence(start + subStart, start + subEnd);
+    }
+
+    @Override
+    public String toString() {
+      return (chars != null) ? new String(chars, start, length) : text.subSequence(start, start + length).toString();
+    }
+  }
+}
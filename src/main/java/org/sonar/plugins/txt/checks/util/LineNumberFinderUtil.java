@@ -1,14 +1,16 @@
 package org.sonar.plugins.txt.checks.util;
 
 public class LineNumberFinderUtil {
-  public static int countLines(String str, int stopAtPosition) {
-    if(str == null || str.isEmpty()) {
+  public static int countLines(CharSequence str, int stopAtPosition) {
+    if(str == null || str.length() == 0) {
         return 0;
     }
     int lines = 1;
-    int pos = 0;
-    while ((pos = str.indexOf("\n", pos) + 1) != 0 && pos <= stopAtPosition) {
+    int end = Math.min(stopAtPosition, str.length());
+    for (int pos = 0; pos < end; pos++) {
+      if (str.charAt(pos) == '\n') {
         lines++;
+      }
     }
     return lines;
   }
@@ -0,0 +1,97 @@
+package org.sonar.plugins.txt.checks.util;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cheap test placed in front of a regular expression: text that contains none of the literals the expression requires
+ * can't match, so the regex doesn't need to run against it. See {@link RegexLiteralExtractor#prefilterLiterals(String)}.
+ * When the expression turns on case-insensitive matching the literals are looked for without regard to case.
+ * <p>
+ * Callers count the evaluations it spared them on the file being analysed, see
+ * {@link org.sonar.plugins.txt.checks.TextSourceFile#evaluationsAvoided(long)}.
+ */
+public final class LiteralPrefilter {
+
+  private final List<String> literals;
+  private final boolean ignoreCase;
+
+  private LiteralPrefilter(final List<String> literals, final boolean ignoreCase) {
+    this.literals = literals;
+    this.ignoreCase = ignoreCase;
+  }
+
+  /**
+   * @return null when nothing useful can be learnt from the expression; the regex then has to run against everything
+   */
+  public static LiteralPrefilter forExpression(final String regex) {
+    List<String> literals = RegexLiteralExtractor.prefilterLiterals(regex);
+    return (literals == null) ? null : new LiteralPrefilter(Collections.unmodifiableList(literals), RegexLiteralExtractor.ignoresCase(regex));
+  }
+
+  /**
+   * @return the literals, case folded when {@link #ignoresCase()}
+   */
+  public List<String> getLiterals() {
+    return literals;
+  }
+
+  public boolean ignoresCase() {
+    return ignoreCase;
+  }
+
+  /**
+   * @return false when the regex certainly doesn't match the text. True means the regex has to be evaluated.
+   */
+  public boolean mightMatch(final CharSequence text) {
+    for (String literal : literals) {
+      if (ignoreCase ? containsIgnoringCase(text, literal) : contains(text, literal)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean contains(final CharSequence text, final String literal) {
+    if (text instanceof String) {
+      return ((String) text).contains(literal);
+    }
+    char first = literal.charAt(0);
+    int last = text.length() - literal.length();
+    for (int i = 0; i <= last; i++) {
+      if (text.charAt(i) == first && regionMatches(text, i + 1, literal)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean containsIgnoringCase(final CharSequence text, final String foldedLiteral) {
+    char first = foldedLiteral.charAt(0);
+    int last = text.length() - foldedLiteral.length();
+    for (int i = 0; i <= last; i++) {
+      if (RegexLiteralExtractor.foldCase(text.charAt(i)) == first && regionMatchesIgnoringCase(text, i + 1, foldedLiteral)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean regionMatchesIgnoringCase(final CharSequence text, final int offset, final String foldedLiteral) {
+    for (int j = 1; j < foldedLiteral.length(); j++) {
+      if (RegexLiteralExtractor.foldCase(text.charAt(offset + j - 1)) != foldedLiteral.charAt(j)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean regionMatches(final CharSequence text, final int offset, final String literal) {
+    for (int j = 1; j < literal.length(); j++) {
+      if (text.charAt(offset + j - 1) != literal.charAt(j)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,207 @@
+package org.sonar.plugins.txt.checks.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Read-only view of a memory-mapped UTF-8 file as characters, for files too large to decode onto the heap in one go.
+ * The file is decoded lazily, one window of characters at a time, and only a few windows are kept in memory so heap use
+ * doesn't depend on the file's size. A checkpoint table, built by one decoding pass when the view is created, records
+ * which byte offset every window starts at so any window can be decoded again on its own. The same pass builds the
+ * file's {@link LineIndex}.
+ * <p>
+ * Instances are not thread-safe: each one belongs to the analysis of a single file.
+ */
+public final class MappedCharSequence implements CharSequence {
+
+  static final int WINDOW_CHARS = 64 * 1024;
+  // Enough for a regex to backtrack across a window boundary without decoding the same windows over and over
+  private static final int CACHED_WINDOWS = 4;
+
+  private final ByteBuffer bytes;
+  private final int[] windowCharStart;
+  private final int[] windowByteStart;
+  private final int length;
+  private final LineIndex lineIndex;
+  private final CharsetDecoder decoder = newDecoder();
+
+  private final char[][] cachedChars = new char[CACHED_WINDOWS][];
+  private final int[] cachedWindow = new int[CACHED_WINDOWS];
+  private final long[] cachedLastUse = new long[CACHED_WINDOWS];
+  private long useCounter;
+
+  // The window the last charAt() landed in; sequential access almost always stays in it
+  private char[] currentChars = new char[0];
+  private int currentStart;
+  private int currentEnd;
+
+  private MappedCharSequence(final ByteBuffer bytes, final int[] windowCharStart, final int[] windowByteStart, final LineIndex.Builder newlines) {
+    this.bytes = bytes;
+    this.windowCharStart = windowCharStart;
+    this.windowByteStart = windowByteStart;
+    this.length = windowCharStart[windowCharStart.length - 1];
+    this.lineIndex = newlines.build(length);
+    Arrays.fill(cachedWindow, -1);
+  }
+
+  /**
+   * Maps the whole file and builds the checkpoint table. The mapping stays valid after the channel is closed.
+   * @throws LargeFileEncounteredException when the file is larger than a single mapping or a CharSequence can be
+   */
+  public static MappedCharSequence map(final FileChannel channel) throws IOException {
+    long size = channel.size();
+    if (size > Integer.MAX_VALUE) {
+      throw new LargeFileEncounteredException();
+    }
+    return of(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+  }
+
+  /**
+   * Same as {@link #map(FileChannel)} for a file that is already mapped, from position 0 up to the limit.
+   */
+  static MappedCharSequence of(final ByteBuffer bytes) {
+    int windows = 0;
+    int[] charStarts = new int[16];
+    int[] byteStarts = new int[16];
+    long chars = 0;
+    CharsetDecoder decoder = newDecoder();
+    CharBuffer scratch = CharBuffer.allocate(WINDOW_CHARS);
+    LineIndex.Builder newlines = new LineIndex.Builder();
+    ByteBuffer in = bytes.duplicate();
+    while (true) {
+      if (windows + 1 >= charStarts.length) {
+        charStarts = Arrays.copyOf(charStarts, charStarts.length * 2);
+        byteStarts = Arrays.copyOf(byteStarts, byteStarts.length * 2);
+      }
+      charStarts[windows] = (int) chars;
+      byteStarts[windows] = in.position();
+      scratch.clear();
+      CoderResult result = decoder.decode(in, scratch, true);
+      if (chars + scratch.position() > Integer.MAX_VALUE) {
+        throw new LargeFileEncounteredException();
+      }
+      newlines.scan(scratch.array(), 0, scratch.position(), (int) chars);
+      chars += scratch.position();
+      windows++;
+      if (result.isUnderflow()) {
+        break;
+      }
+    }
+    charStarts[windows] = (int) chars;
+    byteStarts[windows] = bytes.limit();
+
+    return new MappedCharSequence(bytes, Arrays.copyOf(charStarts, windows + 1), Arrays.copyOf(byteStarts, windows + 1), newlines);
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(final int index) {
+    if (index >= currentStart && index < currentEnd) {
+      return currentChars[index - currentStart];
+    }
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+    }
+    selectWindow(windowOf(index));
+    return currentChars[index - currentStart];
+  }
+
+  /**
+   * Copies the characters onto the heap.
+   */
+  @Override
+  public CharSequence subSequence(final int start, final int end) {
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+    }
+    StringBuilder copy = new StringBuilder(end - start);
+    for (int i = start; i < end; i++) {
+      copy.append(charAt(i));
+    }
+    return copy.toString();
+  }
+
+  /**
+   * Copies the whole file onto the heap, which is what this class exists to avoid. Only meant for debugging.
+   */
+  @Override
+  public String toString() {
+    return subSequence(0, length).toString();
+  }
+
+  LineIndex lineIndex() {
+    return lineIndex;
+  }
+
+  int windowCount() {
+    return windowCharStart.length - 1;
+  }
+
+  private int windowOf(final int index) {
+    int found = Arrays.binarySearch(windowCharStart, 0, windowCharStart.length - 1, index);
+    if (found < 0) {
+      found = -found - 2;
+    }
+    // Skip the empty windows a decoding pass can leave behind so the index lands in the window that holds it
+    while (windowCharStart[found + 1] <= index) {
+      found++;
+    }
+    return found;
+  }
+
+  private void selectWindow(final int window) {
+    useCounter++;
+    int slot = -1;
+    int leastRecentlyUsed = 0;
+    for (int i = 0; i < CACHED_WINDOWS; i++) {
+      if (cachedWindow[i] == window) {
+        slot = i;
+        break;
+      }
+      if (cachedLastUse[i] < cachedLastUse[leastRecentlyUsed]) {
+        leastRecentlyUsed = i;
+      }
+    }
+    if (slot < 0) {
+      slot = leastRecentlyUsed;
+      decodeWindow(window, slot);
+    }
+    cachedLastUse[slot] = useCounter;
+    currentChars = cachedChars[slot];
+    currentStart = windowCharStart[window];
+    currentEnd = windowCharStart[window + 1];
+  }
+
+  private void decodeWindow(final int window, final int slot) {
+    if (cachedChars[slot] == null) {
+      cachedChars[slot] = new char[WINDOW_CHARS];
+    }
+    ByteBuffer in = bytes.duplicate();
+    in.limit(windowByteStart[window + 1]);
+    in.position(windowByteStart[window]);
+    CharBuffer out = CharBuffer.wrap(cachedChars[slot]);
+
+    decoder.reset();
+    decoder.decode(in, out, true);
+    decoder.flush(out);
+    if (out.position() != windowCharStart[window + 1] - windowCharStart[window]) {
+      throw new IllegalStateException("Window " + window + " decoded differently than when the file was first mapped");
+    }
+    cachedWindow[slot] = window;
+  }
+
+  private static CharsetDecoder newDecoder() {
+    return (StandardCharsets.UTF_8).newDecoder().onMalformedInput(CodingErrorAction.IGNORE);
+  }
+}
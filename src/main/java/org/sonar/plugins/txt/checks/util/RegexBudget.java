@@ -0,0 +1,92 @@
+package org.sonar.plugins.txt.checks.util;
+
+/**
+ * Bounds the work one rule's regular expressions may do against one file. java.util.regex offers no way to interrupt a
+ * match, and a pattern with nested quantifiers can backtrack for hours on the wrong input, so the text is handed to
+ * the Matcher through a view that counts every character the Matcher reads. Once the budget's steps are used up the
+ * next read throws {@link RegexBudgetExceededException}, which unwinds the match.
+ * <p>
+ * The steps add up across every text guarded by the same budget, so a rule evaluated one line at a time gets one
+ * budget for the whole file rather than one per line. Instances are not thread-safe.
+ */
+public final class RegexBudget {
+
+  public static final long DEFAULT_STEPS_PER_CHARACTER = 1000;
+  // Small files still get enough for a few quadratic passes over their lines
+  static final long MIN_STEPS = 10_000_000;
+
+  private final long maxSteps;
+  // Without a limit the Matcher reads the text directly and steps aren't counted
+  private final boolean unlimited;
+  private final GuardedText guardedText = new GuardedText();
+  private long steps;
+  private int evaluations;
+
+  private RegexBudget(final long maxSteps, final boolean unlimited) {
+    this.maxSteps = maxSteps;
+    this.unlimited = unlimited;
+  }
+
+  /**
+   * @param stepsPerCharacter how many characters the Matchers may read per character of the file; 0 or less for no limit
+   */
+  public static RegexBudget forText(final int textLength, final long stepsPerCharacter) {
+    if (stepsPerCharacter <= 0) {
+      return new RegexBudget(Long.MAX_VALUE, true);
+    }
+    long maxSteps = (textLength > Long.MAX_VALUE / stepsPerCharacter) ? Long.MAX_VALUE : textLength * stepsPerCharacter;
+    return new RegexBudget(Math.max(MIN_STEPS, maxSteps), false);
+  }
+
+  /**
+   * @return the text to hand to a Matcher in place of the given one. The same view is returned every time, pointed at
+   *         the latest text, so a Matcher must be done with one text before the next one is guarded. The text itself
+   *         when there is no limit.
+   */
+  public CharSequence guard(final CharSequence text) {
+    evaluations++;
+    if (unlimited) {
+      return text;
+    }
+    guardedText.text = text;
+    return guardedText;
+  }
+
+  public long getSteps() {
+    return steps;
+  }
+
+  /**
+   * How many texts were guarded, that is how many times a regular expression was evaluated under this budget
+   */
+  public int getEvaluations() {
+    return evaluations;
+  }
+
+  private final class GuardedText implements CharSequence {
+    private CharSequence text;
+
+    @Override
+    public int length() {
+      return text.length();
+    }
+
+    @Override
+    public char charAt(final int index) {
+      if (++steps > maxSteps) {
+        throw new RegexBudgetExceededException(maxSteps);
+      }
+      return text.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+      return text.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+      return text.toString();
+    }
+  }
+}
@@ -0,0 +1,12 @@
+package org.sonar.plugins.txt.checks.util;
+
+/**
+ * Thrown from inside a Matcher once a rule's {@link RegexBudget} for the current file is used up. Unwinds the match
+ * that was running and the rest of the rule's evaluation against the file.
+ */
+public class RegexBudgetExceededException extends RuntimeException {
+
+  public RegexBudgetExceededException(final long maxSteps) {
+    super("Regular expression evaluation used up its budget of " + maxSteps + " steps");
+  }
+}
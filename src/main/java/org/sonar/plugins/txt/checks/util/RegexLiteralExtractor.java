@@ -0,0 +1,568 @@
+package org.sonar.plugins.txt.checks.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Works out what literal text a java.util.regex expression is made of so the scanner can use plain string searching
+ * instead of the regex engine. The parser understands a conservative subset of the Java syntax. Anything it does not
+ * fully understand (comments mode, unusual escapes, ...) makes it give up, and the caller then keeps using the regex.
+ * <p>
+ * Inline flags are understood. Only (?i) changes what can be learnt: the expression's literals no longer stand for
+ * exact text, so it has no literal alternatives, and its prefilter literals are case folded (see
+ * {@link #foldCase(char)}) to be searched for without regard to case.
+ */
+public final class RegexLiteralExtractor {
+
+  // Beyond this many alternatives an expression isn't worth expanding into a literal set
+  private static final int MAX_ALTERNATIVES = 256;
+  // Shorter required literals filter out too little to be worth searching for
+  private static final int MIN_PREFILTER_LITERAL_LENGTH = 2;
+  private static final int UNBOUNDED = -1;
+
+  private final String regex;
+  private int pos;
+  private List<List<Item>> branches;
+  // Set once (?i) turned case-insensitive matching on anywhere in the expression
+  private boolean caseInsensitive;
+
+  private RegexLiteralExtractor(final String regex) {
+    this.regex = regex;
+  }
+
+  /**
+   * When evaluating the expression with Matcher.find() against a single line is the same as asking "does the line
+   * contain one of these strings?", returns those strings. Otherwise returns null.
+   * <p>
+   * Examples: {@code banned-host.example.com} gives itself, {@code .*(log4j-1\.2|commons-logging).*} gives both
+   * library names and {@code ^key=} gives null because of the anchor.
+   */
+  public static List<String> literalAlternatives(final String regex) {
+    RegexLiteralExtractor parser = parse(regex);
+    if (parser == null || parser.caseInsensitive) {
+      return null;
+    }
+    List<List<Item>> branches = parser.branches;
+
+    Set<String> alternatives = new LinkedHashSet<>();
+    for (List<Item> branch : branches) {
+      // A leading or trailing ".*" doesn't change whether find() succeeds on a single line
+      int from = 0;
+      int to = branch.size();
+      while (from < to && branch.get(from).isDotStar()) {
+        from++;
+      }
+      while (to > from && branch.get(to - 1).isDotStar()) {
+        to--;
+      }
+      Set<String> exact = sequenceExact(branch.subList(from, to));
+      if (exact == null || exact.contains("")) {
+        return null;
+      }
+      alternatives.addAll(exact);
+    }
+    return alternatives.size() > MAX_ALTERNATIVES ? null : new ArrayList<>(alternatives);
+  }
+
+  /**
+   * Returns strings of which every match of the expression contains at least one, or null when no such useful set
+   * could be worked out. For {@code url=jdbc:oracle:thin:@.*prod} that is "url=jdbc:oracle:thin:@": text that doesn't
+   * contain it can't match, so the regex doesn't need to run against it.
+   * <p>
+   * When the expression turns on case-insensitive matching with (?i) the literals are case folded, see
+   * {@link #ignoresCase(String)}. Only valid for expressions compiled without the CASE_INSENSITIVE, COMMENTS or LITERAL
+   * flags. The DOTALL and MULTILINE flags, given either way, don't change the result.
+   */
+  public static List<String> prefilterLiterals(final String regex) {
+    RegexLiteralExtractor parser = parse(regex);
+    if (parser == null) {
+      return null;
+    }
+    List<List<Item>> branches = parser.branches;
+
+    // One literal per branch is enough: the longest, as it is the least likely to occur by chance
+    Set<String> anyOf = new LinkedHashSet<>();
+    for (List<Item> branch : branches) {
+      String longest = "";
+      for (String required : sequenceRequired(branch)) {
+        if (required.length() > longest.length()) {
+          longest = required;
+        }
+      }
+      if (longest.length() < MIN_PREFILTER_LITERAL_LENGTH) {
+        return null;
+      }
+      if (parser.caseInsensitive) {
+        // Case is folded one char at a time, which leaves supplementary characters out
+        if (longest.codePointCount(0, longest.length()) != longest.length()) {
+          return null;
+        }
+        longest = foldCase(longest);
+      }
+      anyOf.add(longest);
+    }
+    return new ArrayList<>(anyOf);
+  }
+
+  /**
+   * @return true when the expression turns on case-insensitive matching, so that its prefilter literals must be
+   *         searched for without regard to case
+   */
+  public static boolean ignoresCase(final String regex) {
+    RegexLiteralExtractor parser = parse(regex);
+    return parser != null && parser.caseInsensitive;
+  }
+
+  /**
+   * The form in which characters are compared when case is ignored. Two characters that java.util.regex matches
+   * against each other case-insensitively, with or without UNICODE_CASE, fold to the same character.
+   */
+  static char foldCase(final char c) {
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+  static String foldCase(final String text) {
+    char[] folded = new char[text.length()];
+    for (int i = 0; i < folded.length; i++) {
+      folded[i] = foldCase(text.charAt(i));
+    }
+    return new String(folded);
+  }
+
+  /**
+   * @return the parser holding the expression's branches, or null when it can't be understood
+   */
+  private static RegexLiteralExtractor parse(final String regex) {
+    RegexLiteralExtractor parser = new RegexLiteralExtractor(regex);
+    try {
+      parser.branches = parser.parseAlternation();
+    } catch (UnsupportedSyntaxException e) {
+      return null;
+    }
+    return (parser.pos == regex.length()) ? parser : null;
+  }
+
+  private List<List<Item>> parseAlternation() {
+    List<List<Item>> branches = new ArrayList<>();
+    branches.add(parseSequence());
+    while (pos < regex.length() && regex.charAt(pos) == '|') {
+      pos++;
+      branches.add(parseSequence());
+    }
+    return branches;
+  }
+
+  private List<Item> parseSequence() {
+    List<Item> items = new ArrayList<>();
+    while (pos < regex.length() && regex.charAt(pos) != '|' && regex.charAt(pos) != ')') {
+      Node atom = parseAtom();
+      if (atom == null) {
+        // (?flags) matches nothing and can't be quantified
+        if (isQuantifierAhead()) {
+          throw new UnsupportedSyntaxException();
+        }
+        continue;
+      }
+      if (atom.literal != null && atom.literal.length() > 1 && isQuantifierAhead()) {
+        // A quantifier after \Q...\E only applies to the last quoted character
+        String literal = atom.literal;
+        items.add(new Item(Node.literal(literal.substring(0, literal.length() - 1)), 1, 1, false));
+        atom = Node.literal(literal.substring(literal.length() - 1));
+      }
+      items.add(parseQuantifier(atom));
+    }
+    return items;
+  }
+
+  private Node parseAtom() {
+    char c = regex.charAt(pos++);
+    switch (c) {
+      case '(':
+        return parseGroup();
+      case '[':
+        skipCharacterClass();
+        return Node.OPAQUE;
+      case '.':
+        return Node.DOT;
+      case '^':
+      case '$':
+        return Node.ANCHOR;
+      case '\\':
+        return parseEscape();
+      case '*':
+      case '+':
+      case '?':
+      case '{':
+        throw new UnsupportedSyntaxException();
+      default:
+        return Node.literal(String.valueOf(c));
+    }
+  }
+
+  /**
+   * @return null for (?flags), which only changes how what follows it matches
+   */
+  private Node parseGroup() {
+    boolean lookaroundOrAtomic = false;
+    if (pos < regex.length() && regex.charAt(pos) == '?') {
+      pos++;
+      if (startsWith(":")) {
+        pos++;
+      } else if (pos < regex.length() && isFlag(regex.charAt(pos))) {
+        parseFlags();
+        if (startsWith(")")) {
+          pos++;
+          return null;
+        }
+        // (?flags:...) is a non-capturing group with the flags
+        pos++;
+      } else if (startsWith("=") || startsWith("!") || startsWith(">")) {
+        pos++;
+        lookaroundOrAtomic = true;
+      } else if (startsWith("<=") || startsWith("<!")) {
+        pos += 2;
+        lookaroundOrAtomic = true;
+      } else if (startsWith("<")) {
+        int end = regex.indexOf('>', pos);
+        if (end < 0) {
+          throw new UnsupportedSyntaxException();
+        }
+        pos = end + 1;
+      } else {
+        throw new UnsupportedSyntaxException();
+      }
+    }
+
+    List<List<Item>> branches = parseAlternation();
+    if (pos >= regex.length() || regex.charAt(pos) != ')') {
+      throw new UnsupportedSyntaxException();
+    }
+    pos++;
+
+    if (lookaroundOrAtomic) {
+      return Node.OPAQUE;
+    }
+    Set<String> exact = new LinkedHashSet<>();
+    for (List<Item> branch : branches) {
+      Set<String> branchExact = sequenceExact(branch);
+      if (branchExact == null) {
+        // Not a finite set of strings but a group with a single branch still tells us what text it requires
+        return (branches.size() == 1) ? Node.requiring(sequenceRequired(branch)) : Node.OPAQUE;
+      }
+      exact.addAll(branchExact);
+    }
+    return exact.size() > MAX_ALTERNATIVES ? Node.OPAQUE : Node.exact(exact);
+  }
+
+  private static boolean isFlag(final char c) {
+    return "idmsuxU-".indexOf(c) >= 0;
+  }
+
+  /**
+   * Reads the flags of (?flags) or (?flags:...) up to the closing parenthesis or the colon, which is left to the
+   * caller. Flags before a '-' are turned on, those after it off.
+   */
+  private void parseFlags() {
+    boolean on = true;
+    while (pos < regex.length() && isFlag(regex.charAt(pos))) {
+      char flag = regex.charAt(pos++);
+      if (flag == '-') {
+        on = false;
+      } else if (flag == 'x' && on) {
+        // Comments mode changes what the rest of the expression means
+        throw new UnsupportedSyntaxException();
+      } else if (flag == 'i' && on) {
+        // Whether it is turned off again further on doesn't matter: folding case everywhere only makes the literals
+        // match more text
+        caseInsensitive = true;
+      }
+    }
+    if (!startsWith(")") && !startsWith(":")) {
+      throw new UnsupportedSyntaxException();
+    }
+  }
+
+  private Node parseEscape() {
+    if (pos >= regex.length()) {
+      throw new UnsupportedSyntaxException();
+    }
+    char c = regex.charAt(pos++);
+    if (!Character.isLetterOrDigit(c)) {
+      return Node.literal(String.valueOf(c));
+    }
+    switch (c) {
+      case 'Q':
+        int end = regex.indexOf("\\E", pos);
+        String quoted = (end < 0) ? regex.substring(pos) : regex.substring(pos, end);
+        pos = (end < 0) ? regex.length() : end + 2;
+        return quoted.isEmpty() ? Node.literal("") : Node.literal(quoted);
+      case 't':
+        return Node.literal("\t");
+      case 'n':
+        return Node.literal("\n");
+      case 'r':
+        return Node.literal("\r");
+      case 'f':
+        return Node.literal("\f");
+      case 'a':
+        return Node.literal("\u0007");
+      case 'e':
+        return Node.literal("\u001B");
+      case 'b':
+      case 'B':
+      case 'A':
+      case 'G':
+      case 'Z':
+      case 'z':
+        return Node.ANCHOR;
+      case 'd':
+      case 'D':
+      case 's':
+      case 'S':
+      case 'w':
+      case 'W':
+      case 'h':
+      case 'H':
+      case 'v':
+      case 'V':
+      case 'R':
+      case 'X':
+        return Node.OPAQUE;
+      case 'p':
+      case 'P':
+        if (startsWith("{")) {
+          skipPast('}');
+        } else {
+          pos++;
+        }
+        return Node.OPAQUE;
+      case 'k':
+        skipPast('>');
+        return Node.OPAQUE;
+      case 'c':
+        pos++;
+        return Node.OPAQUE;
+      default:
+        if (Character.isDigit(c)) {
+          // Back reference or octal escape
+          while (pos < regex.length() && Character.isDigit(regex.charAt(pos))) {
+            pos++;
+          }
+          return Node.OPAQUE;
+        }
+        throw new UnsupportedSyntaxException();
+    }
+  }
+
+  private void skipCharacterClass() {
+    if (startsWith("^")) {
+      pos++;
+    }
+    if (startsWith("]")) {
+      throw new UnsupportedSyntaxException();
+    }
+    int depth = 1;
+    while (pos < regex.length()) {
+      char c = regex.charAt(pos++);
+      if (c == '\\') {
+        if (startsWith("Q") || startsWith("p{") || startsWith("P{")) {
+          throw new UnsupportedSyntaxException();
+        }
+        pos++;
+      } else if (c == '[') {
+        depth++;
+      } else if (c == ']' && --depth == 0) {
+        return;
+      }
+    }
+    throw new UnsupportedSyntaxException();
+  }
+
+  private boolean isQuantifierAhead() {
+    return startsWith("*") || startsWith("+") || startsWith("?") || startsWith("{");
+  }
+
+  private Item parseQuantifier(final Node atom) {
+    if (!isQuantifierAhead()) {
+      return new Item(atom, 1, 1, false);
+    }
+    char c = regex.charAt(pos++);
+    int min;
+    int max;
+    if (c == '*') {
+      min = 0;
+      max = UNBOUNDED;
+    } else if (c == '+') {
+      min = 1;
+      max = UNBOUNDED;
+    } else if (c == '?') {
+      min = 0;
+      max = 1;
+    } else {
+      int end = regex.indexOf('}', pos);
+      if (end < 0) {
+        throw new UnsupportedSyntaxException();
+      }
+      String[] bounds = regex.substring(pos, end).split(",", -1);
+      try {
+        min = Integer.parseInt(bounds[0]);
+        max = (bounds.length == 1) ? min : (bounds[1].isEmpty() ? UNBOUNDED : Integer.parseInt(bounds[1]));
+      } catch (NumberFormatException e) {
+        throw new UnsupportedSyntaxException();
+      }
+      if (bounds.length > 2) {
+        throw new UnsupportedSyntaxException();
+      }
+      pos = end + 1;
+    }
+    boolean possessive = false;
+    if (startsWith("?")) {
+      pos++;
+    } else if (startsWith("+")) {
+      pos++;
+      possessive = true;
+    }
+    return new Item(atom, min, max, possessive);
+  }
+
+  private static Set<String> sequenceExact(final List<Item> items) {
+    Set<String> result = Collections.singleton("");
+    for (Item item : items) {
+      Set<String> itemExact = item.exact();
+      if (itemExact == null) {
+        return null;
+      }
+      Set<String> combined = new LinkedHashSet<>();
+      for (String prefix : result) {
+        for (String suffix : itemExact) {
+          combined.add(prefix + suffix);
+        }
+      }
+      if (combined.size() > MAX_ALTERNATIVES) {
+        return null;
+      }
+      result = combined;
+    }
+    return result;
+  }
+
+  /**
+   * Literal strings that every match of the sequence contains. Adjacent literal items are joined into one string.
+   */
+  private static List<String> sequenceRequired(final List<Item> items) {
+    List<String> required = new ArrayList<>();
+    StringBuilder run = new StringBuilder();
+    for (Item item : items) {
+      String single = item.singleString();
+      if (single != null) {
+        run.append(single);
+        continue;
+      }
+      if (run.length() > 0) {
+        required.add(run.toString());
+        run.setLength(0);
+      }
+      if (item.min >= 1) {
+        required.addAll(item.atom.required);
+      }
+    }
+    if (run.length() > 0) {
+      required.add(run.toString());
+    }
+    return required;
+  }
+
+  private boolean startsWith(final String text) {
+    return regex.startsWith(text, pos);
+  }
+
+  private void skipPast(final char c) {
+    int end = regex.indexOf(c, pos);
+    if (end < 0) {
+      throw new UnsupportedSyntaxException();
+    }
+    pos = end + 1;
+  }
+
+  /**
+   * One parsed atom: a literal, a finite set of exact strings, or something the literal analysis can't fully see
+   * through. In every case 'required' lists text that any match of the atom contains.
+   */
+  private static final class Node {
+    static final Node OPAQUE = new Node(null, null, Collections.<String>emptyList());
+    static final Node DOT = new Node(null, null, Collections.<String>emptyList());
+    static final Node ANCHOR = new Node(null, null, Collections.<String>emptyList());
+
+    final String literal;
+    final Set<String> exact;
+    final List<String> required;
+
+    private Node(final String literal, final Set<String> exact, final List<String> required) {
+      this.literal = literal;
+      this.exact = exact;
+      this.required = required;
+    }
+
+    static Node literal(final String literal) {
+      return new Node(literal, Collections.singleton(literal), Collections.singletonList(literal));
+    }
+
+    static Node exact(final Set<String> exact) {
+      List<String> required = (exact.size() == 1) ? new ArrayList<>(exact) : Collections.<String>emptyList();
+      return new Node(null, exact, required);
+    }
+
+    static Node requiring(final List<String> required) {
+      return new Node(null, null, required);
+    }
+  }
+
+  private static final class Item {
+    final Node atom;
+    final int min;
+    final int max;
+    final boolean possessive;
+
+    Item(final Node atom, final int min, final int max, final boolean possessive) {
+      this.atom = atom;
+      this.min = min;
+      this.max = max;
+      this.possessive = possessive;
+    }
+
+    /**
+     * The one string this item always matches, or null when it can match different text.
+     */
+    String singleString() {
+      return (min == 1 && max == 1 && atom.exact != null && atom.exact.size() == 1) ? atom.exact.iterator().next() : null;
+    }
+
+    boolean isDotStar() {
+      return atom == Node.DOT && min == 0 && max == UNBOUNDED && !possessive;
+    }
+
+    Set<String> exact() {
+      if (atom.exact == null) {
+        return null;
+      }
+      if (min == 1 && max == 1) {
+        return atom.exact;
+      }
+      if (min == 0 && max == 1 && !possessive) {
+        Set<String> optional = new LinkedHashSet<>(atom.exact);
+        optional.add("");
+        return optional;
+      }
+      return null;
+    }
+  }
+
+  private static final class UnsupportedSyntaxException extends RuntimeException {
+    UnsupportedSyntaxException() {
+      super(null, null, false, false);
+    }
+  }
+}
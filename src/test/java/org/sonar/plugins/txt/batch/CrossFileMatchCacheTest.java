@@ -0,0 +1,102 @@
+package org.sonar.plugins.txt.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.plugins.txt.TextPlugin;
+import org.sonar.plugins.txt.checks.AbstractTextCheck;
+import org.sonar.plugins.txt.checks.CrossFileMatchStore;
+import org.sonar.plugins.txt.checks.MultiFileIfOneStringExistsThenBothMustExistCheck;
+import org.sonar.plugins.txt.checks.TextSourceFile;
+
+public class CrossFileMatchCacheTest {
+
+  private static final RuleKey RULE_KEY = RuleKey.of(TextPlugin.REPOSITORY_KEY, "multiFile");
+
+  @Test
+  public void issuesAreRaisedFromTheMatchesOfAnUnchangedFile() {
+    InputFile inputFile = inputFile("src/app.properties", "key=value\ntrigger\n");
+    MapBackedCache firstAnalysis = new MapBackedCache(new HashMap<>());
+    MultiFileIfOneStringExistsThenBothMustExistCheck check = createCheck("trigger");
+    CrossFileMatchStore store = new CrossFileMatchStore(0, null, true);
+    check.validate(store, new TextSourceFile(inputFile), "projectKey");
+    new CrossFileMatchCache(firstAnalysis, checks(check)).store(inputFile, store);
+
+    MapBackedCache secondAnalysis = new MapBackedCache(firstAnalysis.next);
+    MultiFileIfOneStringExistsThenBothMustExistCheck unchangedCheck = createCheck("trigger");
+    CrossFileMatchCache crossFileMatchCache = new CrossFileMatchCache(secondAnalysis, checks(unchangedCheck));
+    CrossFileMatchStore nextStore = new CrossFileMatchStore(0, null, true);
+    unchangedCheck.setCrossFileMatchStore(nextStore);
+
+    assertTrue(crossFileMatchCache.replay(inputFile, nextStore));
+    List<TextSourceFile> filesWithIssues = unchangedCheck.raiseIssuesAfterScan();
+
+    assertEquals(1, filesWithIssues.size());
+    assertEquals(2, filesWithIssues.get(0).getTextIssues().get(0).getLine());
+    assertEquals(1, crossFileMatchCache.getReplayedFileCount());
+    assertEquals(firstAnalysis.next, secondAnalysis.next);
+  }
+
+  @Test
+  public void changedRuleConfigurationIsScannedAgain() {
+    InputFile inputFile = inputFile("src/app.properties", "trigger");
+    MapBackedCache firstAnalysis = new MapBackedCache(new HashMap<>());
+    MultiFileIfOneStringExistsThenBothMustExistCheck check = createCheck("trigger");
+    CrossFileMatchStore store = new CrossFileMatchStore(0, null, true);
+    check.validate(store, new TextSourceFile(inputFile), "projectKey");
+    new CrossFileMatchCache(firstAnalysis, checks(check)).store(inputFile, store);
+
+    CrossFileMatchCache crossFileMatchCache = new CrossFileMatchCache(new MapBackedCache(firstAnalysis.next), checks(createCheck("trig+er")));
+
+    assertFalse(crossFileMatchCache.replay(inputFile, new CrossFileMatchStore(0, null, true)));
+  }
+
+  private static MultiFileIfOneStringExistsThenBothMustExistCheck createCheck(final String triggerExpression) {
+    MultiFileIfOneStringExistsThenBothMustExistCheck check = new MultiFileIfOneStringExistsThenBothMustExistCheck();
+    check.setRuleKey(RULE_KEY);
+    check.setTriggerExpression(triggerExpression);
+    check.setTriggerFilePattern("**/*.properties");
+    check.setMustAlsoExistExpression("required");
+    check.setMustAlsoExistFilePattern("**/*.xml");
+    check.setMessage("required is missing");
+    check.prepare("projectKey");
+    return check;
+  }
+
+  private static List<AbstractTextCheck> checks(final AbstractTextCheck check) {
+    return Collections.singletonList(check);
+  }
+
+  private static InputFile inputFile(final String path, final String contents) {
+    return new TestInputFileBuilder("projectKey", path).setContents(contents).setStatus(InputFile.Status.SAME).build();
+  }
+
+  private static final class MapBackedCache implements AnalysisCache {
+    private final Map<String, byte[]> previous;
+    private final Map<String, byte[]> next = new HashMap<>();
+
+    MapBackedCache(final Map<String, byte[]> previous) {
+      this.previous = previous;
+    }
+
+    @Override
+    public byte[] read(final String key) {
+      return previous.get(key);
+    }
+
+    @Override
+    public void write(final String key, final byte[] value) {
+      next.put(key, value);
+    }
+  }
+
+}
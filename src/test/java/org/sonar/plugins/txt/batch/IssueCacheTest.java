@@ -0,0 +1,146 @@
+package org.sonar.plugins.txt.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.plugins.txt.TextPlugin;
+import org.sonar.plugins.txt.checks.AbstractTextCheck;
+import org.sonar.plugins.txt.checks.SimpleTextMatchCheck;
+import org.sonar.plugins.txt.checks.TextIssue;
+
+public class IssueCacheTest {
+
+  private static final RuleKey RULE_KEY = RuleKey.of(TextPlugin.REPOSITORY_KEY, "simple");
+
+  @Test
+  public void issuesOfAnUnchangedFileAreReplayedAndCarriedOver() {
+    InputFile inputFile = inputFile("key=value\nprod-db-01\n");
+    List<AbstractTextCheck> checks = Collections.<AbstractTextCheck>singletonList(createCheck("prod-db-01"));
+    MapBackedCache firstAnalysis = new MapBackedCache(new HashMap<>());
+    new IssueCache(firstAnalysis, checks).store(inputFile, Arrays.asList(new TextIssue(RULE_KEY, 2, "found it")));
+
+    MapBackedCache secondAnalysis = new MapBackedCache(firstAnalysis.next);
+    IssueCache issueCache = new IssueCache(secondAnalysis, checks);
+    List<TextIssue> replayed = issueCache.replay(inputFile);
+
+    assertEquals(1, replayed.size());
+    assertEquals(RULE_KEY, replayed.get(0).getRuleKey());
+    assertEquals(2, replayed.get(0).getLine());
+    assertEquals("found it", replayed.get(0).getMessage());
+    assertEquals(1, issueCache.getReplayedFileCount());
+    assertEquals(firstAnalysis.next, secondAnalysis.next);
+  }
+
+  @Test
+  public void changedContentIsAnalysedAgain() {
+    List<AbstractTextCheck> checks = Collections.<AbstractTextCheck>singletonList(createCheck("prod-db-01"));
+    MapBackedCache firstAnalysis = new MapBackedCache(new HashMap<>());
+    new IssueCache(firstAnalysis, checks).store(inputFile("prod-db-01"), Collections.<TextIssue>emptyList());
+
+    assertNull(new IssueCache(new MapBackedCache(firstAnalysis.next), checks).replay(inputFile("prod-db-02")));
+  }
+
+  @Test
+  public void fileTheScannerReportsAsChangedIsAnalysedAgain() {
+    List<AbstractTextCheck> checks = Collections.<AbstractTextCheck>singletonList(createCheck("prod-db-01"));
+    MapBackedCache firstAnalysis = new MapBackedCache(new HashMap<>());
+    new IssueCache(firstAnalysis, checks).store(inputFile("prod-db-01"), Collections.<TextIssue>emptyList());
+
+    InputFile changed = new TestInputFileBuilder("projectKey", "src/app.properties").setContents("prod-db-01").setStatus(InputFile.Status.CHANGED).build();
+
+    assertNull(new IssueCache(new MapBackedCache(firstAnalysis.next), checks).replay(changed));
+  }
+
+  @Test
+  public void fileWithoutAHashFromTheScannerIsACacheMissAndIsNotRead() {
+    InputFile inputFile = mock(InputFile.class);
+    when(inputFile.key()).thenReturn("projectKey:src/app.properties");
+    when(inputFile.status()).thenReturn(InputFile.Status.SAME);
+    MapBackedCache cache = new MapBackedCache(new HashMap<>());
+    IssueCache issueCache = new IssueCache(cache, Collections.<AbstractTextCheck>singletonList(createCheck("prod-db-01")));
+
+    issueCache.store(inputFile, Collections.<TextIssue>emptyList());
+
+    assertNull(issueCache.replay(inputFile));
+    assertTrue(cache.next.isEmpty());
+    verify(inputFile, never()).inputStream();
+  }
+
+  @Test
+  public void changedRuleConfigurationIsAnalysedAgain() {
+    InputFile inputFile = inputFile("prod-db-01");
+    MapBackedCache firstAnalysis = new MapBackedCache(new HashMap<>());
+    new IssueCache(firstAnalysis, Collections.<AbstractTextCheck>singletonList(createCheck("prod-db-01"))).store(inputFile, Collections.<TextIssue>emptyList());
+
+    IssueCache issueCache = new IssueCache(new MapBackedCache(firstAnalysis.next), Collections.<AbstractTextCheck>singletonList(createCheck("prod-db-0[12]")));
+
+    assertNull(issueCache.replay(inputFile));
+  }
+
+  @Test
+  public void fingerprintCoversInheritedRuleProperties() {
+    SimpleTextMatchCheck excluding = createCheck("prod-db-01");
+    excluding.setDoNotFireForTheseFileNamesRegex("local\\.properties");
+
+    assertNotEquals(IssueCache.fingerprint(Collections.<AbstractTextCheck>singletonList(createCheck("prod-db-01"))),
+        IssueCache.fingerprint(Collections.<AbstractTextCheck>singletonList(excluding)));
+  }
+
+  @Test
+  public void serializationRoundTrip() throws IOException {
+    List<TextIssue> issues = Arrays.asList(new TextIssue(RULE_KEY, 1, "première"), new TextIssue(RULE_KEY, 7, "second"));
+
+    List<TextIssue> roundTripped = IssueCache.deserialize(IssueCache.serialize(issues));
+
+    assertEquals(issues.toString(), roundTripped.toString());
+  }
+
+  private static SimpleTextMatchCheck createCheck(final String expression) {
+    SimpleTextMatchCheck check = new SimpleTextMatchCheck();
+    check.setRuleKey(RULE_KEY);
+    check.setExpression(expression);
+    check.setFilePattern("**/*.properties");
+    check.setMessage("found it");
+    return check;
+  }
+
+  private static InputFile inputFile(final String contents) {
+    return new TestInputFileBuilder("projectKey", "src/app.properties").setContents(contents).setStatus(InputFile.Status.SAME).build();
+  }
+
+  private static final class MapBackedCache implements AnalysisCache {
+    private final Map<String, byte[]> previous;
+    private final Map<String, byte[]> next = new HashMap<>();
+
+    MapBackedCache(final Map<String, byte[]> previous) {
+      this.previous = previous;
+    }
+
+    @Override
+    public byte[] read(final String key) {
+      return previous.get(key);
+    }
+
+    @Override
+    public void write(final String key, final byte[] value) {
+      next.put(key, value);
+    }
+  }
+
+}
@@ -1,6 +1,7 @@
 package org.sonar.plugins.txt.batch;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -11,6 +12,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -33,6 +35,8 @@ import org.sonar.api.batch.sensor.issue.Issue;
 import org.sonar.api.rule.RuleKey;
 import org.sonar.plugins.txt.TextPlugin;
 import org.sonar.plugins.txt.checks.AbstractTextCheck;
+import org.sonar.plugins.txt.checks.MultilineTextMatchCheck;
+import org.sonar.plugins.txt.checks.SimpleTextMatchCheck;
 import org.sonar.plugins.txt.checks.TextIssue;
 import org.sonar.plugins.txt.checks.TextSourceFile;
 import org.sonar.plugins.txt.testutils.FileTestUtils;
@@ -122,6 +126,165 @@ public class IssueSensorTest {
 	    assertEquals(1, sensorContextTester.allIssues().size());
    }
 
+    @Test
+    public void analyse_multipleThreads_issuesSavedInFileSystemOrder() {
+      // Setup
+      for (int i = 0; i < 20; i++) {
+        fs.add(createInputFile("setup" + i + ".properties", TextPlugin.LANGUAGE_KEY));
+      }
+      sensorContextTester.settings().setProperty(TextPlugin.THREADS_KEY, "4");
+
+      Mockito.doAnswer(new Answer<Void>() {
+        @Override
+        public Void answer(final InvocationOnMock invocation) throws Throwable {
+          TextSourceFile sourceFile = (TextSourceFile)invocation.getArguments()[0];
+          sourceFile.addViolation(new TextIssue(dummyRuleKey, 1, "rule violated"));
+          return null;
+        }
+      }).when(textCheckMock).validate(Mockito.any(TextSourceFile.class), Mockito.matches("projectKey"));
+
+      // Run
+      sensor.execute(sensorContextTester);
+
+      // Verify
+      List<String> expectedOrder = new ArrayList<>();
+      for (InputFile inputFile : fs.inputFiles(fs.predicates().all())) {
+        expectedOrder.add(inputFile.key());
+      }
+      List<String> actualOrder = new ArrayList<>();
+      for (Issue issue : sensorContextTester.allIssues()) {
+        actualOrder.add(issue.primaryLocation().inputComponent().key());
+      }
+      assertEquals(expectedOrder, actualOrder);
+    }
+
+    @Test
+    public void analyse_ruleWithInvalidRegexIsDroppedBeforeAnyFileIsScanned() {
+      // Setup
+      fs.add(createInputFile("setup.properties", TextPlugin.LANGUAGE_KEY));
+      fs.add(createInputFile("setup.properties2", TextPlugin.LANGUAGE_KEY));
+
+      SimpleTextMatchCheck invalidCheck = Mockito.spy(new SimpleTextMatchCheck());
+      invalidCheck.setExpression("(unclosed group");
+      invalidCheck.setFilePattern("**/*");
+      sensor = createSensorFor(invalidCheck);
+
+      // Run
+      sensor.execute(sensorContextTester);
+
+      // Verify
+      Mockito.verify(invalidCheck, Mockito.never()).validate(Mockito.any(TextSourceFile.class), Mockito.anyString());
+      assertEquals(0, sensorContextTester.allIssues().size());
+    }
+
+    @Test
+    public void analyse_ruleExcludedForProjectIsDroppedBeforeAnyFileIsScanned() {
+      // Setup
+      fs.add(createInputFile("setup.properties", TextPlugin.LANGUAGE_KEY));
+
+      SimpleTextMatchCheck excludedCheck = Mockito.spy(new SimpleTextMatchCheck());
+      excludedCheck.setExpression("asdf");
+      excludedCheck.setDoNotFireForProjectKeysRegex("^project");
+      sensor = createSensorFor(excludedCheck);
+
+      // Run
+      sensor.execute(sensorContextTester);
+
+      // Verify
+      Mockito.verify(excludedCheck, Mockito.never()).validate(Mockito.any(TextSourceFile.class), Mockito.anyString());
+    }
+
+    @Test
+    public void analyse_filesNoRuleAppliesToAreNeverVisited() throws IOException {
+      // Setup
+      fs.add(createInputFile("setup.properties", TextPlugin.LANGUAGE_KEY));
+      Path emptyFilePath = Paths.get(tempFileSystemBaseDir.toString(), "empty.xml");
+      FileUtils.write(emptyFilePath.toFile(), "", StandardCharsets.UTF_8);
+      fs.add(createInputFile("empty.xml", TextPlugin.LANGUAGE_KEY));
+
+      MultilineTextMatchCheck xmlCheck = Mockito.spy(new MultilineTextMatchCheck());
+      xmlCheck.setSearchRegularExpression("<bean.*?/>");
+      xmlCheck.setFilePattern("**/*.xml");
+      sensor = createSensorFor(xmlCheck);
+
+      // Run
+      sensor.execute(sensorContextTester);
+
+      // Verify: the .properties file doesn't match the rule's pattern and the .xml file has nothing the rule could match
+      Mockito.verify(xmlCheck, Mockito.never()).validate(Mockito.any(TextSourceFile.class), Mockito.anyString());
+    }
+
+    @Test(timeout = 60_000)
+    public void analyse_ruleThatKeepsUsingUpItsRegexBudgetIsDisabled() throws IOException {
+      // Setup
+      for (String name : new String[] {"a.properties", "b.properties", "c.properties"}) {
+        FileUtils.write(Paths.get(tempFileSystemBaseDir.toString(), name).toFile(), "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!", StandardCharsets.UTF_8);
+        fs.add(createInputFile(name, TextPlugin.LANGUAGE_KEY));
+      }
+      sensorContextTester.settings().setProperty(TextPlugin.REGEX_BUDGET_DISABLE_AFTER_FILES_KEY, "2");
+
+      MultilineTextMatchCheck backtrackingCheck = Mockito.spy(new MultilineTextMatchCheck());
+      backtrackingCheck.setSearchRegularExpression("((a+)+)+b");
+      backtrackingCheck.setFilePattern("**/*.properties");
+      sensor = createSensorFor(backtrackingCheck);
+
+      // Run
+      sensor.execute(sensorContextTester);
+
+      // Verify: each evaluation was cut short and the third file wasn't evaluated at all
+      Mockito.verify(backtrackingCheck, Mockito.times(2)).validate(Mockito.any(TextSourceFile.class), Mockito.anyString());
+      assertEquals(0, sensorContextTester.allIssues().size());
+    }
+
+    @Test
+    public void analyse_ruleProfileIsWrittenToTheWorkDirectory() throws IOException {
+      // Setup
+      Path sampleFilePath = Paths.get(tempFileSystemBaseDir.toString(), "setup.properties");
+      FileUtils.write(sampleFilePath.toFile(), "asdf\nasdf2\nasdf3", StandardCharsets.UTF_8);
+      fs.add(createInputFile("setup.properties", TextPlugin.LANGUAGE_KEY));
+      fs.add(createInputFile("other.xml", TextPlugin.LANGUAGE_KEY));
+      Path workDir = Paths.get(tempFileSystemBaseDir.toString(), "work");
+      sensorContextTester.fileSystem().setWorkDir(workDir);
+
+      MultilineTextMatchCheck check = new MultilineTextMatchCheck();
+      check.setSearchRegularExpression("asdf\\d");
+      check.setFilePattern("**/*.properties");
+      sensor = createSensorFor(check);
+
+      // Run
+      sensor.execute(sensorContextTester);
+
+      // Verify
+      String report = new String(Files.readAllBytes(workDir.resolve(RuleProfiler.REPORT_FILE_NAME)), StandardCharsets.UTF_8);
+      assertTrue(report, report.contains("{\"ruleKey\": \"repoKey:ruleKey\", \"literalScanner\": false, \"filesEvaluated\": 1, \"filesSkippedByPattern\": 0, "
+          + "\"bytesScanned\": 16, \"linesScanned\": 3, \"regexEvaluations\": 1, \"regexEvaluationsAvoided\": 0, \"issues\": 1, "));
+    }
+
+    @Test
+    public void analyse_evaluationsAvoidedByPrefiltersAreCountedPerScan() throws IOException {
+      // Setup: the expression's literal is missing from the second file so its regex doesn't need to run against it
+      FileUtils.write(Paths.get(tempFileSystemBaseDir.toString(), "setup.properties").toFile(), "asdf\nasdf2\nasdf3", StandardCharsets.UTF_8);
+      FileUtils.write(Paths.get(tempFileSystemBaseDir.toString(), "other.properties").toFile(), "qwer\nqwer2", StandardCharsets.UTF_8);
+      fs.add(createInputFile("setup.properties", TextPlugin.LANGUAGE_KEY));
+      fs.add(createInputFile("other.properties", TextPlugin.LANGUAGE_KEY));
+      Path workDir = Paths.get(tempFileSystemBaseDir.toString(), "work");
+      sensorContextTester.fileSystem().setWorkDir(workDir);
+
+      MultilineTextMatchCheck check = new MultilineTextMatchCheck();
+      check.setSearchRegularExpression("asdf\\d");
+      check.setFilePattern("**/*.properties");
+      sensor = createSensorFor(check);
+
+      // Run twice: the second scan must not add to what the first one counted
+      sensor.execute(sensorContextTester);
+      sensor.execute(sensorContextTester);
+
+      // Verify
+      String report = new String(Files.readAllBytes(workDir.resolve(RuleProfiler.REPORT_FILE_NAME)), StandardCharsets.UTF_8);
+      assertTrue(report, report.contains("\"filesEvaluated\": 2, "));
+      assertTrue(report, report.contains("\"regexEvaluations\": 1, \"regexEvaluationsAvoided\": 1, "));
+    }
+
 	  @Before
     public void createIssueSensorBackedByMocks() {
 			CheckFactory checkFactory = mock(CheckFactory.class);
@@ -135,6 +298,17 @@ public class IssueSensorTest {
       sensor = new TextIssueSensor(fs, sensorContextTester, checkFactory);
     }
 
+    private TextIssueSensor createSensorFor(final Object check) {
+      CheckFactory checkFactory = mock(CheckFactory.class);
+      Checks<Object> checks = mock(Checks.class);
+      when(checkFactory.create(Mockito.anyString())).thenReturn(checks);
+      when(checks.addAnnotatedChecks(Mockito.any(Iterable.class))).thenReturn(checks);
+      when(checks.all()).thenReturn(Arrays.asList(check));
+      when(checks.ruleKey(check)).thenReturn(dummyRuleKey);
+
+      return new TextIssueSensor(fs, sensorContextTester, checkFactory);
+    }
+
 	  private DefaultInputFile createInputFile(final String name, final String language) {
 	    return TestInputFileBuilder.create(".", Paths.get(tempFileSystemBaseDir.toPath().toString(), name).toString())
           .setLanguage(language)
@@ -0,0 +1,266 @@
+package org.sonar.plugins.txt.checks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.plugins.txt.TextPlugin;
+import org.sonar.plugins.txt.checks.AbstractCrossFileCheck.RulePart;
+import org.sonar.plugins.txt.testutils.FileTestUtils;
+
+public class CrossFileMatchStoreTest {
+
+  private static final RuleKey RULE_1 = RuleKey.of(TextPlugin.REPOSITORY_KEY, "rule1");
+  private static final RuleKey RULE_2 = RuleKey.of(TextPlugin.REPOSITORY_KEY, "rule2");
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void matchesAreKeptPerRulePartAndFileInRecordedOrder() {
+    CrossFileMatchStore store = new CrossFileMatchStore();
+    InputFile file1 = FileTestUtils.createInputFileShell("CrossFileMatchStoreTest/file1");
+    InputFile file2 = FileTestUtils.createInputFileShell("CrossFileMatchStoreTest/file2");
+
+    for (int line = 1; line <= 10; line++) {
+      store.record(file1, RULE_1, RulePart.DisallowPattern, line, "rule 1 message");
+    }
+    store.record(file2, RULE_1, RulePart.DisallowPattern, 7, "rule 1 message");
+    store.record(file2, RULE_2, RulePart.TriggerPattern, 3, "rule 2 message");
+
+    Map<InputFile, int[]> rule1Matches = store.getMatches(RULE_1, RulePart.DisallowPattern);
+    assertEquals(2, rule1Matches.size());
+    assertArrayEquals(new int[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, rule1Matches.get(file1));
+    assertArrayEquals(new int[] {7}, rule1Matches.get(file2));
+    assertTrue(store.getMatches(RULE_1, RulePart.TriggerPattern).isEmpty());
+    assertArrayEquals(new int[] {3}, store.getMatches(RULE_2, RulePart.TriggerPattern).get(file2));
+
+    assertEquals("rule 1 message", store.getMessage(RULE_1));
+    assertEquals("rule 2 message", store.getMessage(RULE_2));
+    assertEquals(2, store.fileCount());
+  }
+
+  @Test
+  public void presenceNeedsNoRecordedMatch() {
+    CrossFileMatchStore store = new CrossFileMatchStore();
+
+    assertFalse(store.hasMatches(RULE_1, RulePart.TriggerPattern));
+    store.markPresent(RULE_1, RulePart.TriggerPattern);
+
+    assertTrue(store.hasMatches(RULE_1, RulePart.TriggerPattern));
+    assertFalse(store.hasMatches(RULE_1, RulePart.DisallowPattern));
+    assertTrue(store.getMatches(RULE_1, RulePart.TriggerPattern).isEmpty());
+    assertEquals(0, store.fileCount());
+    assertNull(store.getMessage(RULE_1));
+
+    store.record(FileTestUtils.createInputFileShell("CrossFileMatchStoreTest/after-presence"), RULE_1, RulePart.DisallowPattern, 2, "msg");
+
+    assertEquals("msg", store.getMessage(RULE_1));
+  }
+
+  @Test
+  public void completedFilesAreSpilledOnceOverBudgetAndReadBackInUriOrder() throws IOException {
+    Path spillDirectory = temporaryFolder.newFolder().toPath();
+    InputFile spilledFile = FileTestUtils.createInputFileShell("CrossFileMatchStoreTest/b-spilled");
+    InputFile fileInMemory = FileTestUtils.createInputFileShell("CrossFileMatchStoreTest/a-in-memory");
+
+    try (CrossFileMatchStore store = new CrossFileMatchStore(1, spillDirectory, false)) {
+      for (int line = 1; line <= 1000; line++) {
+        store.record(spilledFile, RULE_1, RulePart.DisallowPattern, line, "msg");
+      }
+      store.record(spilledFile, RULE_2, RulePart.TriggerPattern, 5, "msg");
+      long heapBeforeSpill = store.estimatedHeapBytes();
+      store.fileCompleted(spilledFile);
+
+      assertTrue(store.hasSpilled());
+      assertTrue(store.estimatedHeapBytes() < heapBeforeSpill - 4000);
+      assertEquals(1, countFiles(spillDirectory));
+
+      // Not completed yet so it stays in memory even though the store is over budget
+      store.record(fileInMemory, RULE_1, RulePart.DisallowPattern, 42, "msg");
+
+      assertTrue(store.hasMatches(RULE_2, RulePart.TriggerPattern));
+      Map<InputFile, int[]> matches = store.getMatches(RULE_1, RulePart.DisallowPattern);
+      assertEquals(1000, matches.get(spilledFile).length);
+      assertEquals(1, matches.get(spilledFile)[0]);
+      assertEquals(1000, matches.get(spilledFile)[999]);
+      assertArrayEquals(new int[] {42}, matches.get(fileInMemory));
+      assertArrayEquals(new int[] {5}, store.getMatches(RULE_2, RulePart.TriggerPattern).get(spilledFile));
+
+      StringBuilder order = new StringBuilder();
+      store.forEachFile(RULE_1, RulePart.DisallowPattern, (inputFile, lines) -> order.append(inputFile.filename()).append(' '));
+      assertEquals("a-in-memory b-spilled ", order.toString());
+    }
+
+    assertEquals(0, countFiles(spillDirectory));
+  }
+
+  @Test
+  public void heapStaysWithinBudgetAcrossSeveralSpills() throws IOException {
+    Path spillDirectory = temporaryFolder.newFolder().toPath();
+    long budget = 64 * 1024;
+    int files = 200;
+    int linesPerFile = 500;
+
+    try (CrossFileMatchStore store = new CrossFileMatchStore(budget, spillDirectory, false)) {
+      for (int i = 0; i < files; i++) {
+        InputFile inputFile = FileTestUtils.createInputFileShell(String.format("CrossFileMatchStoreTest/f%03d", files - i));
+        for (int line = 1; line <= linesPerFile; line++) {
+          store.record(inputFile, RULE_1, RulePart.DisallowPattern, line, "msg");
+          store.record(inputFile, RULE_2, RulePart.TriggerPattern, linesPerFile - line + 1, "msg");
+        }
+        store.fileCompleted(inputFile);
+
+        assertTrue("over budget after file " + i + ": " + store.estimatedHeapBytes(), store.estimatedHeapBytes() <= budget);
+      }
+
+      assertTrue(countFiles(spillDirectory) >= 3);
+      List<String> filenames = new ArrayList<>();
+      store.forEachFile(RULE_1, RulePart.DisallowPattern, (inputFile, lines) -> {
+        filenames.add(inputFile.filename());
+        assertEquals(linesPerFile, lines.length);
+        assertEquals(1, lines[0]);
+        assertEquals(linesPerFile, lines[linesPerFile - 1]);
+      });
+      assertEquals(files, filenames.size());
+      List<String> sorted = new ArrayList<>(filenames);
+      Collections.sort(sorted);
+      assertEquals(sorted, filenames);
+      assertEquals(files, store.getMatches(RULE_2, RulePart.TriggerPattern).size());
+      assertEquals(linesPerFile, store.getMatches(RULE_2, RulePart.TriggerPattern).values().iterator().next()[0]);
+    }
+  }
+
+  @Test
+  public void linesOfAFileSpilledByDifferentRunsAreMergedInRecordedOrder() throws IOException {
+    Path spillDirectory = temporaryFolder.newFolder().toPath();
+    InputFile file1 = FileTestUtils.createInputFileShell("CrossFileMatchStoreTest/file1");
+    InputFile file2 = FileTestUtils.createInputFileShell("CrossFileMatchStoreTest/file2");
+    InputFile file3 = FileTestUtils.createInputFileShell("CrossFileMatchStoreTest/file3");
+
+    try (CrossFileMatchStore store = new CrossFileMatchStore(1, spillDirectory, false)) {
+      store.record(file3, RULE_1, RulePart.DisallowPattern, 1, "msg");
+      store.fileCompleted(file3);
+      store.record(file1, RULE_1, RulePart.DisallowPattern, 2, "msg");
+      store.fileCompleted(file1);
+      // Scanned again, as for the dependent parts of a triggered rule
+      store.record(file3, RULE_1, RulePart.DisallowPattern, 3, "msg");
+      store.fileCompleted(file3);
+      store.record(file3, RULE_1, RulePart.DisallowPattern, 4, "msg");
+      store.record(file2, RULE_1, RulePart.DisallowPattern, 5, "msg");
+
+      assertEquals(3, countFiles(spillDirectory));
+      StringBuilder order = new StringBuilder();
+      store.forEachFile(RULE_1, RulePart.DisallowPattern, (inputFile, lines) -> order.append(inputFile.filename()).append(Arrays.toString(lines)).append(' '));
+      assertEquals("file1[2] file2[5] file3[1, 3, 4] ", order.toString());
+    }
+  }
+
+  @Test
+  public void nothingIsSpilledWithinBudget() throws IOException {
+    Path spillDirectory = temporaryFolder.newFolder().toPath();
+    InputFile inputFile = FileTestUtils.createInputFileShell("CrossFileMatchStoreTest/file1");
+
+    try (CrossFileMatchStore store = new CrossFileMatchStore(1024 * 1024, spillDirectory, false)) {
+      store.record(inputFile, RULE_1, RulePart.DisallowPattern, 1, "msg");
+      store.fileCompleted(inputFile);
+
+      assertFalse(store.hasSpilled());
+      assertEquals(0, countFiles(spillDirectory));
+    }
+  }
+
+  @Test
+  public void serializedMatchesOfAFileAreRestoredIntoAnotherStore() throws IOException {
+    InputFile file1 = FileTestUtils.createInputFileShell("CrossFileMatchStoreTest/file1");
+    InputFile file2 = FileTestUtils.createInputFileShell("CrossFileMatchStoreTest/file2");
+    CrossFileMatchStore previousAnalysis = new CrossFileMatchStore(0, null, true);
+    previousAnalysis.record(file1, RULE_1, RulePart.DisallowPattern, 3, "première");
+    previousAnalysis.record(file1, RULE_1, RulePart.DisallowPattern, 9, "première");
+    previousAnalysis.record(file1, RULE_2, RulePart.TriggerPattern, 1, "rule 2 message");
+    previousAnalysis.record(file2, RULE_1, RulePart.DisallowPattern, 4, "première");
+
+    CrossFileMatchStore store = new CrossFileMatchStore();
+    store.restoreMatchesOf(file1, previousAnalysis.serializeMatchesOf(file1));
+
+    assertArrayEquals(new int[] {3, 9}, store.getMatches(RULE_1, RulePart.DisallowPattern).get(file1));
+    assertArrayEquals(new int[] {1}, store.getMatches(RULE_2, RulePart.TriggerPattern).get(file1));
+    assertEquals("première", store.getMessage(RULE_1));
+    assertEquals(1, store.fileCount());
+  }
+
+  @Test
+  public void damagedSerializedMatchesRecordNothing() throws IOException {
+    InputFile inputFile = FileTestUtils.createInputFileShell("CrossFileMatchStoreTest/file1");
+    CrossFileMatchStore previousAnalysis = new CrossFileMatchStore();
+    previousAnalysis.record(inputFile, RULE_1, RulePart.DisallowPattern, 3, "msg");
+    byte[] serialized = previousAnalysis.serializeMatchesOf(inputFile);
+
+    CrossFileMatchStore store = new CrossFileMatchStore();
+    try {
+      store.restoreMatchesOf(inputFile, Arrays.copyOf(serialized, serialized.length - 1));
+    } catch (IOException e) {
+      // Expected
+    }
+
+    assertFalse(store.hasMatches(RULE_1, RulePart.DisallowPattern));
+  }
+
+  @Test
+  public void heapFootprintPerRecordedMatch() {
+    int files = 100;
+    int matchesPerFile = 20_000;
+    InputFile[] inputFiles = new InputFile[files];
+    for (int i = 0; i < files; i++) {
+      inputFiles[i] = FileTestUtils.createInputFileShell("CrossFileMatchStoreTest/broad" + i);
+    }
+
+    long heapBefore = usedHeap();
+    CrossFileMatchStore store = new CrossFileMatchStore();
+    for (int i = 0; i < files; i++) {
+      for (int line = 1; line <= matchesPerFile; line++) {
+        store.record(inputFiles[i], RULE_1, RulePart.DisallowPattern, line, "broad rule message");
+      }
+    }
+    long heapAfter = usedHeap();
+
+    long matches = (long) files * matchesPerFile;
+    double estimatedBytesPerMatch = (double) store.estimatedHeapBytes() / matches;
+    double measuredBytesPerMatch = (double) (heapAfter - heapBefore) / matches;
+
+    // An int per line number plus the slack left by growing the arrays. One object per match used to take over 100 bytes.
+    assertTrue("estimated " + estimatedBytesPerMatch + " bytes per match", estimatedBytesPerMatch < 8);
+    assertTrue("measured " + measuredBytesPerMatch + " bytes per match", measuredBytesPerMatch < 16);
+    assertEquals(matchesPerFile, store.getMatches(RULE_1, RulePart.DisallowPattern).get(inputFiles[0]).length);
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static long countFiles(final Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.count();
+    }
+  }
+}
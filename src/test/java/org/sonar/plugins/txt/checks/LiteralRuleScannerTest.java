@@ -0,0 +1,111 @@
+package org.sonar.plugins.txt.checks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.plugins.txt.TextPlugin;
+
+public class LiteralRuleScannerTest extends AbstractCheckTester {
+
+  private static final String PROJECT_KEY = "com.mycorp.projectA.service:service-do-X";
+
+  @Test
+  public void onlyRulesWithLiteralTextAreFused() {
+    SimpleTextMatchCheck literal = createCheck("literal", ".*objectionable string.*");
+    SimpleTextMatchCheck prefiltered = createCheck("prefiltered", "^objectionable string");
+    SimpleTextMatchCheck regex = createCheck("regex", "^[a-z]+=\\d+$");
+
+    LiteralRuleScanner scanner = LiteralRuleScanner.create(Arrays.<AbstractTextCheck>asList(literal, prefiltered, regex));
+
+    assertEquals(Arrays.asList(literal, prefiltered), scanner.getFusedChecks());
+    assertTrue(!scanner.isFused(regex));
+  }
+
+  @Test
+  public void candidateLinesAreConfirmedWithTheRegex() throws IOException {
+    File file = super.createTempFile("url=jdbc:oracle:thin:@prod-db-01\njdbc:oracle:thin:@test-db-01\n# jdbc:oracle:thin:@prod-db-02");
+    List<AbstractTextCheck> checks = Arrays.<AbstractTextCheck>asList(
+        createCheck("prodUrl", "^url=jdbc:oracle:thin:@prod.*"),
+        createCheck("anyProd", "jdbc:oracle:thin:@prod-db-\\d+"));
+
+    List<TextIssue> expected = new ArrayList<>();
+    for (AbstractTextCheck check : checks) {
+      expected.addAll(parseAndCheck(file, check, PROJECT_KEY).getTextIssues());
+    }
+
+    TextSourceFile fused = new TextSourceFile(new TestInputFileBuilder(".", file.getPath()).build());
+    LiteralRuleScanner.create(checks).scan(fused);
+
+    assertEquals(3, fused.getTextIssues().size());
+    assertEquals(describe(expected), describe(fused.getTextIssues()));
+  }
+
+  @Test
+  public void raisesTheSameIssuesAsTheIndividualChecks() throws IOException {
+    File file = super.createTempFile("jdbc:oracle:thin:@prod-db-01\nlog4j-1.2.17.jar\n\ncommons-logging and prod-db-01\nnothing here");
+    List<AbstractTextCheck> checks = Arrays.<AbstractTextCheck>asList(
+        createCheck("host", "prod-db-01"),
+        createCheck("library", ".*(log4j-1\\.2|commons-logging).*"),
+        createCheck("unused", "not present anywhere"));
+
+    List<TextIssue> expected = new ArrayList<>();
+    for (AbstractTextCheck check : checks) {
+      expected.addAll(parseAndCheck(file, check, PROJECT_KEY).getTextIssues());
+    }
+
+    TextSourceFile fused = new TextSourceFile(new TestInputFileBuilder(".", file.getPath()).build());
+    LiteralRuleScanner.create(checks).scan(fused);
+
+    assertEquals(4, fused.getTextIssues().size());
+    assertEquals(describe(expected), describe(fused.getTextIssues()));
+  }
+
+  @Test
+  public void filePatternAndFileNameExclusionStillApply() throws IOException {
+    File file = super.createTempFile("prod-db-01");
+    SimpleTextMatchCheck otherFiles = createCheck("otherFiles", "prod-db-01");
+    otherFiles.setFilePattern("**/*.properties");
+    SimpleTextMatchCheck excludedName = createCheck("excludedName", "prod-db-01");
+    excludedName.setDoNotFireForTheseFileNamesRegex("file.xml");
+    prepare(otherFiles, excludedName);
+
+    TextSourceFile textSourceFile = new TextSourceFile(new TestInputFileBuilder(".", file.getPath()).build());
+    LiteralRuleScanner.create(Arrays.<AbstractTextCheck>asList(otherFiles, excludedName)).scan(textSourceFile);
+
+    assertEquals(0, textSourceFile.getTextIssues().size());
+  }
+
+  private SimpleTextMatchCheck createCheck(final String ruleKey, final String expression) {
+    SimpleTextMatchCheck check = new SimpleTextMatchCheck();
+    check.setRuleKey(RuleKey.of(TextPlugin.REPOSITORY_KEY, ruleKey));
+    check.setExpression(expression);
+    check.setFilePattern("**/*");
+    check.setMessage(ruleKey + " matched");
+    check.prepare(PROJECT_KEY);
+    return check;
+  }
+
+  private void prepare(final AbstractTextCheck... checks) {
+    for (AbstractTextCheck check : checks) {
+      check.prepare(PROJECT_KEY);
+    }
+  }
+
+  private static List<String> describe(final List<TextIssue> issues) {
+    List<String> descriptions = new ArrayList<>();
+    for (TextIssue issue : issues) {
+      descriptions.add(issue.toString());
+    }
+    descriptions.sort(null);
+    return descriptions;
+  }
+
+}
@@ -9,10 +9,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -125,52 +122,51 @@ public class MultiFileIfOneExistsThenBothMustExistCheckTest extends AbstractCros
   public void recordMatchTest(){
     // Set up
     MultiFileIfOneStringExistsThenBothMustExistCheck chk = new MultiFileIfOneStringExistsThenBothMustExistCheck();
-    Map<InputFile, List<CrossFileScanPrelimIssue>> rawResults = new HashMap<>();
-    chk.setCrossFileChecksRawResults(rawResults);
+    CrossFileMatchStore matchStore = new CrossFileMatchStore();
+    chk.setCrossFileMatchStore(matchStore);
 
     // Execute
     DefaultInputFile inputFile1 = FileTestUtils.createInputFileShell(tempInputFilesPath + "somepath");
     DefaultInputFile inputFile2 = FileTestUtils.createInputFileShell(tempInputFilesPath + "somepath2");
 
     chk.setRuleKey(RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1"));
-    chk.setTextSourceFile(new TextSourceFile(inputFile1));
-    chk.recordMatch(RulePart.TriggerPattern, 1, "msg");
-    chk.recordMatch(RulePart.TriggerPattern, 1, "msg");
+    TextSourceFile textSourceFile1 = new TextSourceFile(inputFile1);
+    chk.recordMatch(textSourceFile1, RulePart.TriggerPattern, 1, "msg");
+    chk.recordMatch(textSourceFile1, RulePart.TriggerPattern, 1, "msg");
 
     chk.setRuleKey(RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule2"));
-    chk.setTextSourceFile(new TextSourceFile(inputFile2));
-    chk.recordMatch(RulePart.TriggerPattern, 1, "msg");
-    chk.recordMatch(RulePart.TriggerPattern, 1, "msg");
+    TextSourceFile textSourceFile2 = new TextSourceFile(inputFile2);
+    chk.recordMatch(textSourceFile2, RulePart.TriggerPattern, 1, "msg");
+    chk.recordMatch(textSourceFile2, RulePart.TriggerPattern, 1, "msg");
 
     // Verify
-    Assert.assertTrue(rawResults.size() == 2);
-    List<CrossFileScanPrelimIssue> issuesForOneFile = rawResults.get(inputFile1);
-    Assert.assertTrue(issuesForOneFile.size() == 2);
+    Assert.assertTrue(matchStore.fileCount() == 2);
+    int[] matchedLinesOfOneFile = matchStore.getMatches(RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1"), RulePart.TriggerPattern).get(inputFile1);
+    Assert.assertTrue(matchedLinesOfOneFile.length == 2);
 
-    issuesForOneFile = rawResults.get(inputFile2);
-    Assert.assertTrue(issuesForOneFile.size() == 2);
+    matchedLinesOfOneFile = matchStore.getMatches(RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule2"), RulePart.TriggerPattern).get(inputFile2);
+    Assert.assertTrue(matchedLinesOfOneFile.length == 2);
+    Assert.assertTrue(matchStore.getMatches(RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1"), RulePart.TriggerPattern).get(inputFile2) == null);
   }
 
   @Test
   public void raiseIssuesAfterScanTest() {
     // Set up
     MultiFileIfOneStringExistsThenBothMustExistCheck chk = new MultiFileIfOneStringExistsThenBothMustExistCheck();
-    Map<InputFile, List<CrossFileScanPrelimIssue>> rawResults = new HashMap<>();
+    CrossFileMatchStore matchStore = new CrossFileMatchStore();
 
-    chk.setCrossFileChecksRawResults(rawResults);
-    List<CrossFileScanPrelimIssue> issuesForOneFile = new LinkedList<>();
+    chk.setCrossFileMatchStore(matchStore);
+    InputFile file1 = FileTestUtils.createInputFileShell(tempInputFilesPath + "file1");
     // Case A: trigger and "must exist" are present. No issue should be raised.
-    issuesForOneFile.add(new CrossFileScanPrelimIssue(RulePart.TriggerPattern, RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1"), 1, "msg"));
-    issuesForOneFile.add(new CrossFileScanPrelimIssue(RulePart.MustAlsoExistPattern, RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1"), 1, "msg"));
+    matchStore.record(file1, RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1"), RulePart.TriggerPattern, 1, "msg");
+    matchStore.record(file1, RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1"), RulePart.MustAlsoExistPattern, 1, "msg");
     // Case B: trigger exists but "must exist" pattern is not present. An issue should be raised.
-    issuesForOneFile.add(new CrossFileScanPrelimIssue(RulePart.TriggerPattern, RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule2"), 1, "msg"));  // no corresponding "must also exist" pattern was found, should trigger raising an issue
+    matchStore.record(file1, RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule2"), RulePart.TriggerPattern, 1, "msg");  // no corresponding "must also exist" pattern was found, should trigger raising an issue
     // Case C: Trigger was not found. The "must exist" pattern is present. No issue should be raised.
-    issuesForOneFile.add(new CrossFileScanPrelimIssue(RulePart.MustAlsoExistPattern, RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule3"), 1, "msg"));
+    matchStore.record(file1, RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule3"), RulePart.MustAlsoExistPattern, 1, "msg");
     // Case D: Neither Trigger nor "must exist" was found. No issue should be raised.
        // This space intentionally left blank. No matches found.
 
-    rawResults.put(FileTestUtils.createInputFileShell(tempInputFilesPath + "file1"), issuesForOneFile);
-
     // Execute
     chk.setRuleKey(RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1"));
     List<TextSourceFile> rule1Results = chk.raiseIssuesAfterScan();
@@ -192,6 +188,23 @@ public class MultiFileIfOneExistsThenBothMustExistCheckTest extends AbstractCros
 
   }
 
+  @Test
+  public void mustAlsoExistMatchInAnyFileSatisfiesTriggersInEveryFile() {
+    // Set up
+    MultiFileIfOneStringExistsThenBothMustExistCheck chk = new MultiFileIfOneStringExistsThenBothMustExistCheck();
+    CrossFileMatchStore matchStore = new CrossFileMatchStore();
+    chk.setCrossFileMatchStore(matchStore);
+    RuleKey ruleKey = RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1");
+    chk.setRuleKey(ruleKey);
+
+    matchStore.record(FileTestUtils.createInputFileShell(tempInputFilesPath + "triggerFile1"), ruleKey, RulePart.TriggerPattern, 1, "msg");
+    matchStore.record(FileTestUtils.createInputFileShell(tempInputFilesPath + "mustExistFile"), ruleKey, RulePart.MustAlsoExistPattern, 1, "msg");
+    matchStore.record(FileTestUtils.createInputFileShell(tempInputFilesPath + "triggerFile2"), ruleKey, RulePart.TriggerPattern, 1, "msg");
+
+    // Execute & Verify
+    Assert.assertTrue(chk.raiseIssuesAfterScan().isEmpty());
+  }
+
   @Before
   public void createIssueSensorBackedByMocks() {
     Checks<Object> checks = mock(Checks.class);
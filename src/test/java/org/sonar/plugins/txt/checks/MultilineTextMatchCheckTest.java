@@ -14,8 +14,8 @@ import org.sonar.plugins.txt.TextPlugin;
 public class MultilineTextMatchCheckTest extends AbstractCheckTester {
 
   @Test
-  public void largeTextFile_noScanPerformed() throws IOException {
-    char[] buffer = new char[MultilineTextMatchCheck.MAX_CHARACTERS_SCANNED-33]; // fit the trigger expression in below the max
+  public void largeTextFile_scanIsPerformed() throws IOException {
+    char[] buffer = new char[600000]; // beyond the 500,000 characters that used to be the most these rules would scan
     Arrays.fill(buffer, 'a');
 
     // Set up
@@ -30,12 +30,37 @@ public class MultilineTextMatchCheckTest extends AbstractCheckTester {
 
     // Check
     List<TextIssue> issuesFound = result.getTextIssues();
-    assertTrue(issuesFound.size() == 0);
+    assertTrue(issuesFound.size() == 1);
+  }
+
+  @Test
+  public void textFileLargerThanTheInMemoryDecodingLimit_scanIsPerformed() throws IOException {
+    StringBuilder content = new StringBuilder();
+    while (content.length() < 9 * 1024 * 1024) {
+      content.append("some.key=some value\n");
+    }
+    int linesBeforeMatch = content.length() / "some.key=some value\n".length();
+    content.append("prod-server-01\nprod-server-02:1000");
+
+    // Set up
+    super.createFileSystem();
+    File tempFile1 = super.createTempFile(content.toString());
+    MultilineTextMatchCheck check = new MultilineTextMatchCheck();
+    check.setRuleKey(RuleKey.of(TextPlugin.REPOSITORY_KEY, "someRuleKey_for_class_" + check.getClass().getName()));
+    check.setSearchRegularExpression("prod-server-01.*prod-server-02:1000");
+
+    // Run
+    TextSourceFile result = parseAndCheck(tempFile1, check, "com.mycorp.projectA.service:service-do-X");
+
+    // Check
+    List<TextIssue> issuesFound = result.getTextIssues();
+    assertTrue(issuesFound.size() == 1);
+    assertTrue(issuesFound.get(0).getLine() == linesBeforeMatch + 1);
   }
 
   @Test
-  public void largeTextFileJustUnderLimit_scanIsPerformed() throws IOException {
-    char[] buffer = new char[MultilineTextMatchCheck.MAX_CHARACTERS_SCANNED-150]; // fit the trigger expression in below the max
+  public void largeTextFileJustUnderFormerLimit_scanIsPerformed() throws IOException {
+    char[] buffer = new char[500001-150]; // fit the trigger expression in below the former maximum
     Arrays.fill(buffer, 'a');
 
     // Set up
@@ -14,13 +14,13 @@ import org.sonar.plugins.txt.TextPlugin;
 public class RequiredStringNotPresentCheckTest extends AbstractCheckTester {
 
   @Test
-  public void largeTextFile_noScanPerformed() throws IOException {
-    char[] buffer = new char[RequiredStringNotPresentCheck.MAX_CHARACTERS_SCANNED-33]; // fit the trigger expression in below the max
+  public void largeTextFile_scanIsPerformed() throws IOException {
+    char[] buffer = new char[600000]; // beyond the 500,000 characters that used to be the most these rules would scan
     Arrays.fill(buffer, 'a');
 
     // Set up
     super.createFileSystem();
-    File tempFile1 = super.createTempFile(String.valueOf(buffer) + "prod-server-01.*prod-server-02:1000,\nprod-server-03");
+    File tempFile1 = super.createTempFile(String.valueOf(buffer) + "prod-server-01.*prod-server-02:1000,\nprod-server-04");
     RequiredStringNotPresentCheck check = new RequiredStringNotPresentCheck();
     check.setRuleKey(RuleKey.of(TextPlugin.REPOSITORY_KEY, "someRuleKey_for_class_" + check.getClass().getName()));
     check.setTriggerExpression("prod-server-01.*prod-server-02:1000");
@@ -31,12 +31,12 @@ public class RequiredStringNotPresentCheckTest extends AbstractCheckTester {
 
     // Check
     List<TextIssue> issuesFound = result.getTextIssues();
-    assertTrue(issuesFound.size() == 0);
+    assertTrue(issuesFound.size() == 1);
   }
 
   @Test
-  public void largeTextFileJustUnderLimit_scanIsPerformed() throws IOException {
-    char[] buffer = new char[RequiredStringNotPresentCheck.MAX_CHARACTERS_SCANNED-150]; // fit the trigger expression in below the max
+  public void largeTextFileJustUnderFormerLimit_scanIsPerformed() throws IOException {
+    char[] buffer = new char[500001-150]; // fit the trigger expression in below the former maximum
     Arrays.fill(buffer, 'a');
 
     // Set up
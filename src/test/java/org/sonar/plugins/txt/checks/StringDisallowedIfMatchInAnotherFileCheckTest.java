@@ -9,10 +9,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -120,47 +117,166 @@ public class StringDisallowedIfMatchInAnotherFileCheckTest extends AbstractCross
     assertEquals(RuleKey.of(TextPlugin.REPOSITORY_KEY, "StringDisallowedIfMatchInAnotherFileCheck"), issueRaised.ruleKey());
   }
 
+  @Test
+  public void analyse_twoPhase_disallowIsOnlySearchedForOnceTriggered() throws IOException {
+    // Setup
+    Path inputFilePath = Paths.get(tempInputFilesPath.toString(), "effective-pom.xml");
+    fs.add(FileTestUtils.createInputFile(inputFilePath, String.join("\n", Arrays.asList("The first line", "<target>1.8</target>", "The third line"))));
+
+    inputFilePath = Paths.get(tempInputFilesPath.toString(), "feature-setup-env.properties");
+    fs.add(FileTestUtils.createInputFile(inputFilePath, String.join("\n", Arrays.asList("The first line", "JAVA_HOME=/software/java64/jdk1.7.0_60", "The third line"))));
+
+    realStringDisallowedMultiFileCheck.setTriggerFilePattern("**/effective-pom.xml");
+    realStringDisallowedMultiFileCheck.setTriggerExpression(".*<target>1.8</target>.*");
+    realStringDisallowedMultiFileCheck.setDisallowFilePattern("**/*setup-env*");
+    realStringDisallowedMultiFileCheck.setDisallowExpression(".*JAVA_HOME=.*jdk1.(6|7).*");
+    realStringDisallowedMultiFileCheck.setMessage("Project compiled to target Java 8 is being booted under a prior JVM version.");
+    sensorContext.settings().setProperty(TextPlugin.CROSS_FILE_TWO_PHASE_KEY, "true");
+
+    // Run
+    sensor.execute(sensorContext);
+
+    // Verify
+    assertEquals(1, sensorContext.allIssues().size());
+    Issue issueRaised = sensorContext.allIssues().iterator().next();
+    assertEquals(".:target/surefire-test-resources/StringDisallowedIfMatchInAnotherFileCheckTest/feature-setup-env.properties", issueRaised.primaryLocation().inputComponent().key());
+    assertEquals(2, issueRaised.primaryLocation().textRange().start().line());
+  }
+
+  @Test
+  public void analyse_twoPhase_issueCarriesTheConfiguredMessage() throws IOException {
+    // Setup: in two-phase mode the trigger is only marked present, before any disallowed match is recorded
+    Path inputFilePath = Paths.get(tempInputFilesPath.toString(), "effective-pom.xml");
+    fs.add(FileTestUtils.createInputFile(inputFilePath, String.join("\n", Arrays.asList("The first line", "<target>1.8</target>", "The third line"))));
+
+    inputFilePath = Paths.get(tempInputFilesPath.toString(), "feature-setup-env.properties");
+    fs.add(FileTestUtils.createInputFile(inputFilePath, String.join("\n", Arrays.asList("The first line", "JAVA_HOME=/software/java64/jdk1.7.0_60", "The third line"))));
+
+    realStringDisallowedMultiFileCheck.setTriggerFilePattern("**/effective-pom.xml");
+    realStringDisallowedMultiFileCheck.setTriggerExpression(".*<target>1.8</target>.*");
+    realStringDisallowedMultiFileCheck.setDisallowFilePattern("**/*setup-env*");
+    realStringDisallowedMultiFileCheck.setDisallowExpression(".*JAVA_HOME=.*jdk1.(6|7).*");
+    realStringDisallowedMultiFileCheck.setMessage("Project compiled to target Java 8 is being booted under a prior JVM version.");
+    sensorContext.settings().setProperty(TextPlugin.CROSS_FILE_TWO_PHASE_KEY, "true");
+
+    // Run
+    sensor.execute(sensorContext);
+
+    // Verify
+    assertEquals(1, sensorContext.allIssues().size());
+    assertEquals("Project compiled to target Java 8 is being booted under a prior JVM version.",
+        sensorContext.allIssues().iterator().next().primaryLocation().message());
+  }
+
+  @Test
+  public void analyse_twoPhase_noTriggerNoIssue() throws IOException {
+    // Setup
+    Path inputFilePath = Paths.get(tempInputFilesPath.toString(), "effective-pom.xml");
+    fs.add(FileTestUtils.createInputFile(inputFilePath, String.join("\n", Arrays.asList("The first line", "<target>1.7</target>", "The third line"))));
+
+    inputFilePath = Paths.get(tempInputFilesPath.toString(), "feature-setup-env.properties");
+    fs.add(FileTestUtils.createInputFile(inputFilePath, String.join("\n", Arrays.asList("The first line", "JAVA_HOME=/software/java64/jdk1.7.0_60", "The third line"))));
+
+    realStringDisallowedMultiFileCheck.setTriggerFilePattern("**/effective-pom.xml");
+    realStringDisallowedMultiFileCheck.setTriggerExpression(".*<target>1.8</target>.*");
+    realStringDisallowedMultiFileCheck.setDisallowFilePattern("**/*setup-env*");
+    realStringDisallowedMultiFileCheck.setDisallowExpression(".*JAVA_HOME=.*jdk1.(6|7).*");
+    realStringDisallowedMultiFileCheck.setMessage("Project compiled to target Java 8 is being booted under a prior JVM version.");
+    sensorContext.settings().setProperty(TextPlugin.CROSS_FILE_TWO_PHASE_KEY, "true");
+
+    // Run
+    sensor.execute(sensorContext);
+
+    // Verify
+    assertEquals(0, sensorContext.allIssues().size());
+  }
+
   @Test
   public void recordMatchTest(){
     // Set up
     StringDisallowedIfMatchInAnotherFileCheck chk = new StringDisallowedIfMatchInAnotherFileCheck();
-    Map<InputFile, List<CrossFileScanPrelimIssue>> rawResults = new HashMap<>();
-    chk.setCrossFileChecksRawResults(rawResults);
+    CrossFileMatchStore matchStore = new CrossFileMatchStore();
+    chk.setCrossFileMatchStore(matchStore);
 
     // Execute
     chk.setRuleKey(RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1"));
 //    Path inputFilePath = Paths.get(tempInputFilesPath.toString(), "effective-pom.xml");
-    chk.setTextSourceFile(new TextSourceFile(FileTestUtils.createInputFileShell(tempInputFilesPath.toString() + "somepath")));
-    chk.recordMatch(RulePart.TriggerPattern, 1, "msg");
-    chk.recordMatch(RulePart.TriggerPattern, 1, "msg");
+    TextSourceFile textSourceFile1 = new TextSourceFile(FileTestUtils.createInputFileShell(tempInputFilesPath.toString() + "somepath"));
+    chk.recordMatch(textSourceFile1, RulePart.DisallowPattern, 1, "msg");
+    chk.recordMatch(textSourceFile1, RulePart.DisallowPattern, 1, "msg");
 
     chk.setRuleKey(RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule2"));
-    chk.setTextSourceFile(new TextSourceFile(FileTestUtils.createInputFileShell(tempInputFilesPath.toString() + "someOtherPath")));
-    chk.recordMatch(RulePart.TriggerPattern, 1, "msg");
-    chk.recordMatch(RulePart.TriggerPattern, 1, "msg");
+    TextSourceFile textSourceFile2 = new TextSourceFile(FileTestUtils.createInputFileShell(tempInputFilesPath.toString() + "someOtherPath"));
+    chk.recordMatch(textSourceFile2, RulePart.DisallowPattern, 1, "msg");
+    chk.recordMatch(textSourceFile2, RulePart.DisallowPattern, 1, "msg");
+
+    // Verify
+    Assert.assertTrue(matchStore.fileCount() == 2);
+
+    int[] matchedLinesOfOneFile = matchStore.getMatches(RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1"), RulePart.DisallowPattern).get(FileTestUtils.createInputFileShell(tempInputFilesPath.toString() + "somepath"));
+    Assert.assertTrue(matchedLinesOfOneFile.length == 2);
+
+    matchedLinesOfOneFile = matchStore.getMatches(RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule2"), RulePart.DisallowPattern).get(FileTestUtils.createInputFileShell(tempInputFilesPath.toString() + "someOtherPath"));
+    Assert.assertTrue(matchedLinesOfOneFile.length == 2);
+  }
+
+  @Test
+  public void triggerMatchesAreOnlyMarkedAsPresent(){
+    // Set up
+    StringDisallowedIfMatchInAnotherFileCheck chk = new StringDisallowedIfMatchInAnotherFileCheck();
+    CrossFileMatchStore matchStore = new CrossFileMatchStore();
+    chk.setCrossFileMatchStore(matchStore);
+    RuleKey ruleKey = RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1");
+    chk.setRuleKey(ruleKey);
+
+    // Execute
+    TextSourceFile textSourceFile = new TextSourceFile(FileTestUtils.createInputFileShell(tempInputFilesPath.toString() + "somepath"));
+    Assert.assertFalse(chk.isAlreadySatisfied(RulePart.TriggerPattern));
+    chk.recordMatch(textSourceFile, RulePart.TriggerPattern, 1, "msg");
 
     // Verify
-    Assert.assertTrue(rawResults.size() == 2);
+    Assert.assertTrue(chk.isAlreadySatisfied(RulePart.TriggerPattern));
+    Assert.assertTrue(matchStore.hasMatches(ruleKey, RulePart.TriggerPattern));
+    Assert.assertTrue(matchStore.getMatches(ruleKey, RulePart.TriggerPattern).isEmpty());
+    Assert.assertFalse(chk.isAlreadySatisfied(RulePart.DisallowPattern));
+  }
 
-    List<CrossFileScanPrelimIssue> issuesForOneFile = rawResults.get(FileTestUtils.createInputFileShell(tempInputFilesPath.toString() + "somepath"));
-    Assert.assertTrue(issuesForOneFile.size() == 2);
+  @Test
+  public void triggerIsOnlySearchedForUntilFound() throws IOException {
+    // Set up
+    DefaultInputFile firstFile = FileTestUtils.createInputFile(Paths.get(tempInputFilesPath.toString(), "first.properties"), "trigger\ntrigger\nJAVA_HOME=/jdk1.7");
+    DefaultInputFile secondFile = FileTestUtils.createInputFile(Paths.get(tempInputFilesPath.toString(), "second.properties"), "trigger\nJAVA_HOME=/jdk1.7");
+
+    StringDisallowedIfMatchInAnotherFileCheck chk = new StringDisallowedIfMatchInAnotherFileCheck();
+    chk.setRuleKey(RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1"));
+    chk.setTriggerFilePattern("**/*.properties");
+    chk.setTriggerExpression("trigger");
+    chk.setDisallowFilePattern("**/*.properties");
+    chk.setDisallowExpression("jdk1\\.7");
+    chk.setMessage("msg");
+    CrossFileMatchStore matchStore = new CrossFileMatchStore();
 
-    issuesForOneFile = rawResults.get(FileTestUtils.createInputFileShell(tempInputFilesPath.toString() + "someOtherPath"));
-    Assert.assertTrue(issuesForOneFile.size() == 2);
+    // Execute
+    chk.validate(matchStore, new TextSourceFile(firstFile), "project");
+    chk.validate(matchStore, new TextSourceFile(secondFile), "project");
+
+    // Verify
+    Assert.assertTrue(matchStore.hasMatches(chk.getRuleKey(), RulePart.TriggerPattern));
+    Assert.assertEquals(2, matchStore.getMatches(chk.getRuleKey(), RulePart.DisallowPattern).size());
+    Assert.assertEquals(2, chk.raiseIssuesAfterScan().size());
   }
 
   @Test
   public void raiseIssuesAfterScanTest() {
     // Set up
     StringDisallowedIfMatchInAnotherFileCheck chk = new StringDisallowedIfMatchInAnotherFileCheck();
-    Map<InputFile, List<CrossFileScanPrelimIssue>> rawResults = new HashMap<>();
-
-    chk.setCrossFileChecksRawResults(rawResults);
-    List<CrossFileScanPrelimIssue> issuesForOneFile = new LinkedList<>();
-    issuesForOneFile.add(new CrossFileScanPrelimIssue(RulePart.TriggerPattern, RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1"), 1, "msg"));
-    issuesForOneFile.add(new CrossFileScanPrelimIssue(RulePart.DisallowPattern, RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1"), 1, "msg"));
-    issuesForOneFile.add(new CrossFileScanPrelimIssue(RulePart.DisallowPattern, RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule2"), 1, "msg"));  // not triggered, should not raise an issue
-    rawResults.put(FileTestUtils.createInputFileShell(tempInputFilesPath.toString() + "file1"), issuesForOneFile);
+    CrossFileMatchStore matchStore = new CrossFileMatchStore();
+
+    chk.setCrossFileMatchStore(matchStore);
+    InputFile file1 = FileTestUtils.createInputFileShell(tempInputFilesPath.toString() + "file1");
+    matchStore.record(file1, RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1"), RulePart.TriggerPattern, 1, "msg");
+    matchStore.record(file1, RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1"), RulePart.DisallowPattern, 1, "msg");
+    matchStore.record(file1, RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule2"), RulePart.DisallowPattern, 1, "msg");  // not triggered, should not raise an issue
 
     // Execute
     chk.setRuleKey(RuleKey.of(TextPlugin.REPOSITORY_KEY,"rule1"));
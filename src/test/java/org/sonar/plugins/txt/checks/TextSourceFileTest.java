@@ -0,0 +1,81 @@
+package org.sonar.plugins.txt.checks;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.plugins.txt.checks.util.LineIterator;
+
+public class TextSourceFileTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void contentsAreReadOnlyOnce() throws IOException {
+    InputFile inputFile = mockInputFile("line1\nline2");
+    TextSourceFile textSourceFile = new TextSourceFile(inputFile);
+
+    textSourceFile.getContents();
+    textSourceFile.getLines();
+    textSourceFile.getContents();
+
+    verify(inputFile, times(1)).inputStream();
+  }
+
+  @Test
+  public void linesSplitTheSameWayAsLineNumberReader() throws IOException {
+    TextSourceFile textSourceFile = new TextSourceFile(mockInputFile("a\r\nb\rc\n\nd\n"));
+
+    assertEquals(Arrays.asList("a", "b", "c", "", "d"), textSourceFile.getLines());
+  }
+
+  @Test
+  public void lineCountIsOnlyKnownOnceACheckWalkedTheLines() throws IOException {
+    TextSourceFile textSourceFile = new TextSourceFile(mockInputFile("a\r\nb\rc\n\nd\n"));
+
+    assertEquals(-1, textSourceFile.getLineCount());
+    LineIterator lines = textSourceFile.lineIterator();
+    lines.next();
+    assertEquals(-1, textSourceFile.getLineCount());
+    while (lines.next()) {
+      // walked the way a single-line check walks them
+    }
+    assertEquals(5, textSourceFile.getLineCount());
+  }
+
+  @Test
+  public void localFilesAreReadWithoutOpeningAStream() throws IOException {
+    File file = temporaryFolder.newFile();
+    Files.write(file.toPath(), "line1\nline2".getBytes(StandardCharsets.UTF_8));
+    InputFile inputFile = mockInputFile("unused");
+    when(inputFile.path()).thenReturn(file.toPath());
+
+    TextSourceFile textSourceFile = new TextSourceFile(inputFile);
+
+    assertEquals("line1\nline2", textSourceFile.getContents().toString());
+    verify(inputFile, never()).inputStream();
+  }
+
+  private InputFile mockInputFile(final String content) throws IOException {
+    InputFile inputFile = mock(InputFile.class);
+    when(inputFile.inputStream()).thenReturn(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    when(inputFile.uri()).thenReturn(URI.create("file:///somefile.txt"));
+    return inputFile;
+  }
+
+}
@@ -0,0 +1,74 @@
+package org.sonar.plugins.txt.checks.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class AhoCorasickAutomatonTest {
+
+  @Test
+  public void overlappingLiteralsAreAllFound() {
+    AhoCorasickAutomaton automaton = AhoCorasickAutomaton.build(Arrays.asList("he", "she", "his", "hers", "café"));
+
+    assertEquals(bits(0, 1, 3), find(automaton, "ushers"));
+    assertEquals(bits(2), find(automaton, "this"));
+    assertEquals(bits(4), find(automaton, "un café noir"));
+    assertEquals(bits(), find(automaton, "cafe"));
+  }
+
+  @Test
+  public void nonAsciiCharactersGoSparseBeyondTheTableLimit() {
+    Random random = new Random(42);
+    List<String> literals = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      literals.add(randomText(random, 10, i % 10 == 0));
+    }
+    AhoCorasickAutomaton automaton = AhoCorasickAutomaton.build(literals);
+
+    // Every distinct character in a column of its own would take thousands of times more
+    assertTrue(automaton.tableEntries() <= AhoCorasickAutomaton.MAX_TABLE_ENTRIES);
+    for (int i = 0; i < 200; i++) {
+      StringBuilder text = new StringBuilder(randomText(random, 20, false));
+      String literal = literals.get(random.nextInt(literals.size()));
+      text.append(literal, 0, 1 + random.nextInt(literal.length())).append(randomText(random, 5, true));
+      text.append(literals.get(random.nextInt(literals.size()))).append(randomText(random, 20, false));
+
+      BitSet expected = new BitSet();
+      for (int id = 0; id < literals.size(); id++) {
+        if (text.indexOf(literals.get(id)) >= 0) {
+          expected.set(id);
+        }
+      }
+      assertEquals(expected, find(automaton, text));
+    }
+  }
+
+  private static String randomText(final Random random, final int length, final boolean withAscii) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      // A small alphabet so that literals share prefixes and failure links have somewhere to go
+      text.append(withAscii && random.nextBoolean() ? (char) ('a' + random.nextInt(4)) : (char) (0x4E00 + random.nextInt(3000)));
+    }
+    return text.toString();
+  }
+
+  private static BitSet find(final AhoCorasickAutomaton automaton, final CharSequence text) {
+    BitSet found = new BitSet();
+    automaton.findAll(text, 0, text.length(), found);
+    return found;
+  }
+
+  private static BitSet bits(final int... ids) {
+    BitSet bits = new BitSet();
+    for (int id : ids) {
+      bits.set(id);
+    }
+    return bits;
+  }
+}
@@ -0,0 +1,234 @@
+package org.sonar.plugins.txt.checks.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileIOUtilTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void smallFileDecodesLikeTheStreamReader() throws IOException {
+    assertDecodesLikeTheStreamReader(contentOfSize(1000));
+  }
+
+  @Test
+  public void mappedFileDecodesLikeTheStreamReader() throws IOException {
+    assertDecodesLikeTheStreamReader(contentOfSize(200 * 1024));
+  }
+
+  @Test
+  public void emptyFile() throws IOException {
+    assertDecodesLikeTheStreamReader(new byte[0]);
+  }
+
+  @Test
+  public void asciiFilesAreExposedWithoutDecoding() throws IOException {
+    for (int size : new int[] {1000, 200 * 1024}) {
+      byte[] content = asciiContentOfSize(size);
+      File file = temporaryFolder.newFile();
+      Files.write(file.toPath(), content);
+
+      CharSequence contents = FileIOUtil.readFileContents(file.toPath());
+
+      assertTrue(contents instanceof AsciiByteSequence);
+      assertEquals(new String(content, StandardCharsets.US_ASCII), contents.toString());
+      assertEquals("key", contents.subSequence(0, 3).toString());
+    }
+  }
+
+  @Test
+  public void oneNonAsciiByteAnywhereFallsBackToTheDecoder() throws IOException {
+    // Past the last whole word, so only the byte at a time tail sees it
+    byte[] content = asciiContentOfSize(200 * 1024 + 3);
+    content[content.length - 2] = (byte) 0xC3;
+    content[content.length - 1] = (byte) 0xA9;
+    File file = temporaryFolder.newFile();
+    Files.write(file.toPath(), content);
+
+    CharSequence contents = FileIOUtil.readFileContents(file.toPath());
+
+    assertFalse(contents instanceof AsciiByteSequence);
+    assertEquals(new String(content, StandardCharsets.UTF_8), contents.toString());
+  }
+
+  @Test
+  public void byteOrderMarkIsSkipped() throws IOException {
+    for (byte[] content : new byte[][] {asciiContentOfSize(1000), asciiContentOfSize(200 * 1024), contentOfSize(1000), contentOfSize(200 * 1024)}) {
+      File file = temporaryFolder.newFile();
+      Files.write(file.toPath(), withByteOrderMark(content));
+
+      CharSequence contents = FileIOUtil.readFileContentsIntoThreadBuffer(file.toPath());
+
+      assertEquals(FileIOUtil.readInputStreamToString(new ByteArrayInputStream(content), file.toString()), contents.toString());
+      FileIOUtil.releaseThreadBuffer(contents);
+    }
+  }
+
+  @Test
+  public void asciiFileWithAByteOrderMarkIsStillExposedWithoutDecoding() throws IOException {
+    for (int size : new int[] {1000, 200 * 1024}) {
+      byte[] content = asciiContentOfSize(size);
+      File file = temporaryFolder.newFile();
+      Files.write(file.toPath(), withByteOrderMark(content));
+
+      CharSequence contents = FileIOUtil.readFileContentsIntoThreadBuffer(file.toPath());
+
+      assertTrue(contents instanceof AsciiByteSequence);
+      assertEquals(new String(content, StandardCharsets.US_ASCII), contents.toString());
+      assertEquals(1, LineIndex.of(contents).lineOf(0));
+      FileIOUtil.releaseThreadBuffer(contents);
+    }
+  }
+
+  @Test
+  public void threadBufferIsOnlyReusedOnceReleased() throws IOException {
+    File first = temporaryFolder.newFile();
+    Files.write(first.toPath(), "first file".getBytes(StandardCharsets.UTF_8));
+    File second = temporaryFolder.newFile();
+    Files.write(second.toPath(), "second".getBytes(StandardCharsets.UTF_8));
+
+    CharSequence firstContents = FileIOUtil.readFileContentsIntoThreadBuffer(first.toPath());
+    CharSequence secondContents = FileIOUtil.readFileContentsIntoThreadBuffer(second.toPath());
+
+    assertEquals("first file", firstContents.toString());
+    assertEquals("second", secondContents.toString());
+    FileIOUtil.releaseThreadBuffer(secondContents);
+    FileIOUtil.releaseThreadBuffer(firstContents);
+    assertEquals("second", FileIOUtil.readFileContentsIntoThreadBuffer(second.toPath()).toString());
+  }
+
+  @Test
+  public void releasedThreadStateIsNotReused() throws IOException {
+    File file = temporaryFolder.newFile();
+    Files.write(file.toPath(), contentOfSize(1000));
+
+    CharSequence first = FileIOUtil.readFileContentsIntoThreadBuffer(file.toPath());
+    FileIOUtil.releaseThreadBuffer(first);
+    CharSequence reused = FileIOUtil.readFileContentsIntoThreadBuffer(file.toPath());
+    FileIOUtil.releaseThreadBuffer(reused);
+    FileIOUtil.releaseThreadState();
+    CharSequence afterRelease = FileIOUtil.readFileContentsIntoThreadBuffer(file.toPath());
+
+    assertTrue(((CharArraySequence) reused).array() == ((CharArraySequence) first).array());
+    assertFalse(((CharArraySequence) afterRelease).array() == ((CharArraySequence) first).array());
+    assertEquals(reused.toString(), afterRelease.toString());
+    FileIOUtil.releaseThreadBuffer(afterRelease);
+  }
+
+  @Test
+  public void readingFilesIntoTheThreadBufferAllocatesCloseToNothing() throws IOException {
+    byte[] content = contentOfSize(32 * 1024);
+    List<Path> files = new ArrayList<>();
+    for (int i = 0; i < 64; i++) {
+      File file = temporaryFolder.newFile();
+      Files.write(file.toPath(), content);
+      files.add(file.toPath());
+    }
+    double megabytesRead = files.size() * (double) content.length / (1024 * 1024);
+    com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+
+    // The first round sizes the thread's buffers
+    readAndRelease(files);
+    long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+    readAndRelease(files);
+    double bytesAllocatedPerMegabyte = (threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore) / megabytesRead;
+
+    // A few hundred bytes per file to open it. Decoding into fresh buffers allocates over 2 MB per MB read.
+    assertTrue("allocated " + bytesAllocatedPerMegabyte + " bytes per MB read", bytesAllocatedPerMegabyte < 64 * 1024);
+  }
+
+  @Test
+  public void lineIndexIsBuiltWhileReading() throws IOException {
+    // Heap decoded, ASCII from the thread's buffer and mapped, then decoded a window at a time
+    for (byte[] content : new byte[][] {contentOfSize(1000), asciiContentOfSize(1000), asciiContentOfSize(200 * 1024), contentOfSize(9 * 1024 * 1024)}) {
+      File file = temporaryFolder.newFile();
+      Files.write(file.toPath(), content);
+
+      CharSequence contents = FileIOUtil.readFileContentsIntoThreadBuffer(file.toPath());
+      LineIndex lineIndex = LineIndex.attachedTo(contents);
+      String text = contents.toString();
+
+      assertNotNull(lineIndex);
+      assertEquals(LineIndex.of(text).lineCount(), lineIndex.lineCount());
+      for (int offset = 0; offset <= text.length(); offset += 1 + text.length() / 500) {
+        assertEquals("offset " + offset, LineNumberFinderUtil.countLines(text, offset), lineIndex.lineOf(offset));
+      }
+      FileIOUtil.releaseThreadBuffer(contents);
+    }
+  }
+
+  @Test
+  public void splitLinesAcceptsAnyCharSequence() {
+    assertEquals(Arrays.asList("a", "b", "", "c"), FileIOUtil.splitLines(new StringBuilder("a\r\nb\r\rc\n")));
+  }
+
+  private static void readAndRelease(final List<Path> files) throws IOException {
+    for (Path file : files) {
+      FileIOUtil.releaseThreadBuffer(FileIOUtil.readFileContentsIntoThreadBuffer(file));
+    }
+  }
+
+  private void assertDecodesLikeTheStreamReader(final byte[] content) throws IOException {
+    File file = temporaryFolder.newFile();
+    Files.write(file.toPath(), content);
+
+    String expected = FileIOUtil.readInputStreamToString(new ByteArrayInputStream(content), file.toString());
+
+    assertEquals(expected, FileIOUtil.readFileContents(file.toPath()).toString());
+  }
+
+  private static byte[] withByteOrderMark(final byte[] content) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+    out.write(content);
+    return out.toByteArray();
+  }
+
+  private static byte[] asciiContentOfSize(final int size) {
+    byte[] content = new byte[size];
+    byte[] line = "key=value\r\n".getBytes(StandardCharsets.US_ASCII);
+    for (int i = 0; i < size; i++) {
+      content[i] = line[i % line.length];
+    }
+    return content;
+  }
+
+  /**
+   * Multi-byte characters mixed with malformed sequences, which the tolerant decoder drops
+   */
+  private static byte[] contentOfSize(final int size) throws IOException {
+    byte[][] pieces = {
+      "key=value\n".getBytes(StandardCharsets.UTF_8),
+      "café €\r\n".getBytes(StandardCharsets.UTF_8),
+      "😀".getBytes(StandardCharsets.UTF_8),
+      {(byte) 0xC3},
+      {(byte) 0xFF, (byte) 0x80}
+    };
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; out.size() < size; i++) {
+      out.write(pieces[i % pieces.length]);
+    }
+    return out.toByteArray();
+  }
+
+}
@@ -0,0 +1,57 @@
+package org.sonar.plugins.txt.checks.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import org.junit.Test;
+import org.sonar.api.utils.WildcardPattern;
+
+public class FilePatternMatcherTest {
+
+  private static final List<String> PATTERNS = Arrays.asList(
+      "**/*.properties", "**/*", "**", "src/**", "src/**/", "/a/**/b", "**/a/*/b?", "a/", "*", "",
+      // "**" glued to other characters can span directories and is left to WildcardPattern
+      "**.properties", "a**/b",
+      // Regular expression characters are literals
+      "**/app(1).properties", "**/[x].xml", "a\\b");
+
+  private static final List<String> PATHS = Arrays.asList(
+      "/home/user/src/app.properties", "home/user/app(1).properties", "/src", "src/", "src/x", "src//", "/", "",
+      "a/b", "a//b", "/a/x/b", "a/x/y/b", "x/a/y/bc", "a", "ab/b.properties", "[x].xml", "q/[x].xml", "a/x.properties/");
+
+  @Test
+  public void agreesWithWildcardPattern() {
+    FilePatternMatcher matcher = FilePatternMatcher.build(PATTERNS);
+
+    for (String path : PATHS) {
+      BitSet matched = matcher.match(path);
+      for (String pattern : PATTERNS) {
+        assertEquals("'" + pattern + "' against '" + path + "'", WildcardPattern.create(pattern).match(path), matched.get(matcher.indexOf(pattern)));
+      }
+    }
+  }
+
+  @Test
+  public void nullsAndDuplicatesAreIgnored() {
+    FilePatternMatcher matcher = FilePatternMatcher.build(Arrays.asList("**/*.xml", null, "**/*.xml", "**/*.properties"));
+
+    assertEquals(0, matcher.indexOf("**/*.xml"));
+    assertEquals(1, matcher.indexOf("**/*.properties"));
+    assertEquals(-1, matcher.indexOf("**/*.txt"));
+    assertTrue(matcher.match("/src/app.properties").get(1));
+    assertFalse(matcher.match("/src/app.properties").get(0));
+  }
+
+  @Test
+  public void globsStayWithinTheSegment() {
+    assertTrue(FilePatternMatcher.globMatches("*.prop*", "app.properties"));
+    assertTrue(FilePatternMatcher.globMatches("a?c", "abc"));
+    assertTrue(FilePatternMatcher.globMatches("*", ""));
+    assertFalse(FilePatternMatcher.globMatches("a?c", "ac"));
+    assertFalse(FilePatternMatcher.globMatches("*.xml", "app.xml.bak"));
+  }
+}
@@ -0,0 +1,79 @@
+package org.sonar.plugins.txt.checks.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LineIndexTest {
+
+  @Test
+  public void agreesWithCountLines() {
+    String text = "first\nsecond\r\n\nfourth\rstill fourth\n";
+    char[] padded = (text + "unused").toCharArray();
+
+    for (CharSequence sequence : new CharSequence[] {text, new CharArraySequence(padded, text.length())}) {
+      LineIndex lineIndex = LineIndex.of(sequence);
+      for (int offset = 0; offset <= text.length(); offset++) {
+        assertEquals("offset " + offset, LineNumberFinderUtil.countLines(text, offset), lineIndex.lineOf(offset));
+      }
+    }
+  }
+
+  @Test
+  public void lookupsInAnyOrderAcrossBlocks() {
+    StringBuilder text = new StringBuilder();
+    Random random = new Random(7);
+    while (text.length() < 5 * LineIndex.BLOCK_CHARS) {
+      text.append(random.nextInt(10) == 0 ? '\n' : 'x');
+    }
+    LineIndex lineIndex = LineIndex.of(text);
+
+    for (int i = 0; i < 2000; i++) {
+      int offset = random.nextInt(text.length() + 1);
+      assertEquals("offset " + offset, LineNumberFinderUtil.countLines(text, offset), lineIndex.lineOf(offset));
+    }
+    for (int offset = 0; offset <= text.length(); offset += 97) {
+      assertEquals("offset " + offset, LineNumberFinderUtil.countLines(text, offset), lineIndex.lineOf(offset));
+      assertEquals("offset " + offset, offset - text.lastIndexOf("\n", offset - 1) - 1, lineIndex.columnOf(offset));
+    }
+    assertEquals(LineNumberFinderUtil.countLines(text, text.length()), lineIndex.lineCount());
+  }
+
+  @Test
+  public void columnsOfLinesSpanningEmptyBlocks() {
+    StringBuilder text = new StringBuilder("a\n");
+    for (int i = 0; i < 3 * LineIndex.BLOCK_CHARS; i++) {
+      text.append('x');
+    }
+    text.append("\nb");
+    LineIndex lineIndex = LineIndex.of(text);
+
+    assertEquals(2, lineIndex.lineOf(2 * LineIndex.BLOCK_CHARS));
+    assertEquals(2 * LineIndex.BLOCK_CHARS - 2, lineIndex.columnOf(2 * LineIndex.BLOCK_CHARS));
+    assertEquals(3, lineIndex.lineOf(text.length() - 1));
+    assertEquals(0, lineIndex.columnOf(text.length() - 1));
+  }
+
+  @Test
+  public void columns() {
+    LineIndex lineIndex = LineIndex.of("ab\ncd\n\nef");
+
+    assertEquals(0, lineIndex.columnOf(0));
+    assertEquals(2, lineIndex.columnOf(2));
+    assertEquals(1, lineIndex.columnOf(4));
+    assertEquals(0, lineIndex.columnOf(6));
+    assertEquals(1, lineIndex.columnOf(8));
+    assertEquals(4, lineIndex.lineCount());
+  }
+
+  @Test
+  public void emptyText() {
+    LineIndex lineIndex = LineIndex.of("");
+
+    assertEquals(0, lineIndex.lineOf(0));
+    assertEquals(0, lineIndex.lineCount());
+  }
+
+}
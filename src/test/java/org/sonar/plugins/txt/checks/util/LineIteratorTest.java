@@ -0,0 +1,84 @@
+package org.sonar.plugins.txt.checks.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+public class LineIteratorTest {
+
+  @Test
+  public void agreesWithSplitLines() {
+    String[] texts = {"", "a", "a\n", "a\r\nb\r\rc\n", "\n\n", "\r", "a\n\r\nb", "last line without terminator"};
+
+    for (String text : texts) {
+      char[] padded = (text + "unused").toCharArray();
+      for (CharSequence sequence : new CharSequence[] {text, new CharArraySequence(padded, text.length())}) {
+        List<String> lines = new ArrayList<>();
+        LineIterator lineIterator = new LineIterator(sequence);
+        while (lineIterator.next()) {
+          lines.add(lineIterator.line().toString());
+          assertEquals(lines.size(), lineIterator.lineNumber());
+          assertEquals(lineIterator.line().toString(), sequence.subSequence(lineIterator.lineStart(), lineIterator.lineEnd()).toString());
+        }
+        assertEquals("'" + text + "'", FileIOUtil.splitLines(text), lines);
+      }
+    }
+  }
+
+  @Test
+  public void matchersResetOntoTheLineView() {
+    Matcher matcher = Pattern.compile("^b+$").matcher("");
+    LineIterator lineIterator = new LineIterator("aaaa\nbb\nb");
+    List<Integer> matchingLines = new ArrayList<>();
+    while (lineIterator.next()) {
+      if (matcher.reset(lineIterator.line()).find()) {
+        matchingLines.add(lineIterator.lineNumber());
+      }
+    }
+
+    assertEquals(2, matchingLines.size());
+    assertEquals(Integer.valueOf(2), matchingLines.get(0));
+    assertEquals(Integer.valueOf(3), matchingLines.get(1));
+  }
+
+  @Test
+  public void scanningShortLinesAllocatesNothingPerLine() {
+    int lineCount = 1_000_000;
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < lineCount; i++) {
+      text.append("key").append(i % 100).append("=value\n");
+    }
+    char[] chars = text.toString().toCharArray();
+    CharArraySequence contents = new CharArraySequence(chars, chars.length);
+    Matcher matcher = Pattern.compile("key4\\d=").matcher("");
+    com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+
+    // Warm up first so that nothing the JIT or class loading does on the first pass is counted
+    countMatchingLines(contents, matcher);
+    long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+    int matchingLines = countMatchingLines(contents, matcher);
+    long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+    assertEquals(lineCount / 10, matchingLines);
+    // A String per line would take over 60 MB here
+    assertTrue("allocated " + allocated + " bytes", allocated < 64 * 1024);
+  }
+
+  private static int countMatchingLines(final CharSequence contents, final Matcher matcher) {
+    int matchingLines = 0;
+    LineIterator lineIterator = new LineIterator(contents);
+    while (lineIterator.next()) {
+      if (matcher.reset(lineIterator.line()).find()) {
+        matchingLines++;
+      }
+    }
+    return matchingLines;
+  }
+}
@@ -0,0 +1,95 @@
+package org.sonar.plugins.txt.checks.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedCharSequenceTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void decodesLikeTheStreamReaderAcrossWindows() throws IOException {
+    byte[] content = mixedContent(5 * MappedCharSequence.WINDOW_CHARS);
+    String expected = FileIOUtil.readInputStreamToString(new ByteArrayInputStream(content), "test");
+
+    MappedCharSequence mapped = map(content);
+
+    assertTrue(mapped.windowCount() > 4);
+    assertEquals(expected.length(), mapped.length());
+    Random random = new Random(7);
+    for (int i = 0; i < 100000; i++) {
+      int index = random.nextInt(expected.length());
+      assertEquals(expected.charAt(index), mapped.charAt(index));
+    }
+    assertEquals(expected, mapped.toString());
+  }
+
+  @Test
+  public void dotallMatchSpanningWindows() throws IOException {
+    StringBuilder content = new StringBuilder("BEGIN\n");
+    while (content.length() < 3 * MappedCharSequence.WINDOW_CHARS) {
+      content.append("filler line\n");
+    }
+    content.append("END");
+
+    Matcher matcher = Pattern.compile("BEGIN.*END", Pattern.DOTALL).matcher(map(content.toString().getBytes(StandardCharsets.UTF_8)));
+
+    assertTrue(matcher.find());
+    assertEquals(0, matcher.start());
+    assertEquals(content.length(), matcher.end());
+  }
+
+  @Test
+  public void emptyFile() throws IOException {
+    assertEquals(0, map(new byte[0]).length());
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void indexBeyondTheEnd() throws IOException {
+    map("abc".getBytes(StandardCharsets.UTF_8)).charAt(3);
+  }
+
+  private MappedCharSequence map(final byte[] content) throws IOException {
+    File file = temporaryFolder.newFile();
+    Files.write(file.toPath(), content);
+    try (FileChannel channel = FileChannel.open(file.toPath())) {
+      return MappedCharSequence.map(channel);
+    }
+  }
+
+  /**
+   * Multi-byte and supplementary characters, so windows end up holding different numbers of bytes, mixed with
+   * malformed sequences that the tolerant decoder drops
+   */
+  private static byte[] mixedContent(final int size) throws IOException {
+    byte[][] pieces = {
+      "key=value\n".getBytes(StandardCharsets.UTF_8),
+      "café €\r\n".getBytes(StandardCharsets.UTF_8),
+      "😀".getBytes(StandardCharsets.UTF_8),
+      {(byte) 0xC3},
+      {(byte) 0xFF, (byte) 0x80}
+    };
+    Random random = new Random(42);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    while (out.size() < size) {
+      out.write(pieces[random.nextInt(pieces.length)]);
+    }
+    return out.toByteArray();
+  }
+
+}
@@ -0,0 +1,41 @@
+package org.sonar.plugins.txt.checks.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+public class RegexBudgetTest {
+
+  private static final String NO_MATCH = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!";
+
+  @Test(expected = RegexBudgetExceededException.class, timeout = 60_000)
+  public void catastrophicBacktrackingIsCutShort() {
+    RegexBudget budget = RegexBudget.forText(NO_MATCH.length(), RegexBudget.DEFAULT_STEPS_PER_CHARACTER);
+
+    // Left alone this takes far longer than the test's timeout
+    Pattern.compile("((a+)+)+b").matcher(budget.guard(NO_MATCH)).find();
+  }
+
+  @Test
+  public void stepsAddUpAcrossGuardedTexts() {
+    RegexBudget budget = RegexBudget.forText(10, 1);
+    Pattern pattern = Pattern.compile("b");
+
+    pattern.matcher(budget.guard("aaaa")).find();
+    long stepsOfFirstText = budget.getSteps();
+    pattern.matcher(budget.guard("aaaa")).find();
+
+    assertTrue(stepsOfFirstText >= 4);
+    assertEquals(2 * stepsOfFirstText, budget.getSteps());
+  }
+
+  @Test
+  public void noLimitLeavesTheTextAlone() {
+    RegexBudget budget = RegexBudget.forText(NO_MATCH.length(), 0);
+
+    assertSame(NO_MATCH, budget.guard(NO_MATCH));
+  }
+}
@@ -0,0 +1,99 @@
+package org.sonar.plugins.txt.checks.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class RegexLiteralExtractorTest {
+
+  @Test
+  public void plainAndEscapedLiterals() {
+    assertEquals(Arrays.asList("banned-host"), RegexLiteralExtractor.literalAlternatives("banned-host"));
+    assertEquals(Arrays.asList("banned-host.example.com"), RegexLiteralExtractor.literalAlternatives("banned-host\\.example\\.com"));
+    assertEquals(Arrays.asList("a.b*c"), RegexLiteralExtractor.literalAlternatives("\\Qa.b*c\\E"));
+  }
+
+  @Test
+  public void surroundingDotStarIsIgnored() {
+    assertEquals(Arrays.asList("objectionable string"), RegexLiteralExtractor.literalAlternatives(".*objectionable string.*"));
+    assertEquals(Arrays.asList("log4j-1.2", "commons-logging"), RegexLiteralExtractor.literalAlternatives(".*(log4j-1\\.2|commons-logging).*"));
+  }
+
+  @Test
+  public void alternationsAndOptionalCharactersAreExpanded() {
+    assertEquals(Arrays.asList("ts_sort_numeric", "ts_sort_datetime"), RegexLiteralExtractor.literalAlternatives(".*(ts_sort_numeric|ts_sort_datetime).*"));
+    assertEquals(Arrays.asList("colour", "color"), RegexLiteralExtractor.literalAlternatives("colou?r"));
+  }
+
+  @Test
+  public void expressionsThatNeedTheRegexEngine() {
+    assertNull(RegexLiteralExtractor.literalAlternatives("^objectionable string"));
+    assertNull(RegexLiteralExtractor.literalAlternatives("banned-host.example.com"));
+    assertNull(RegexLiteralExtractor.literalAlternatives("(?i)foo"));
+    assertNull(RegexLiteralExtractor.literalAlternatives("foo\\d+"));
+    assertNull(RegexLiteralExtractor.literalAlternatives("foo|"));
+    assertNull(RegexLiteralExtractor.literalAlternatives(".*"));
+    assertNull(RegexLiteralExtractor.literalAlternatives("(unclosed"));
+  }
+
+  @Test
+  public void prefilterUsesTheLongestRequiredLiteral() {
+    assertEquals(Arrays.asList("url=jdbc:oracle:thin:@"), RegexLiteralExtractor.prefilterLiterals("^url=jdbc:oracle:thin:@.*prod"));
+    assertEquals(Arrays.asList("banned-host"), RegexLiteralExtractor.prefilterLiterals("banned-host.example.com"));
+    assertEquals(Arrays.asList("password"), RegexLiteralExtractor.prefilterLiterals("(?:db\\.)?password\\s*=\\s*\\S+"));
+    assertEquals(Arrays.asList("Begin", "End"), RegexLiteralExtractor.prefilterLiterals("^Begin\\d|End$"));
+  }
+
+  @Test
+  public void prefilterGivesUpWhenNothingIsRequired() {
+    assertNull(RegexLiteralExtractor.prefilterLiterals("^[a-z]+=\\d+$"));
+    assertNull(RegexLiteralExtractor.prefilterLiterals("(password)?\\s+"));
+    assertNull(RegexLiteralExtractor.prefilterLiterals("foo|\\d+"));
+    assertNull(RegexLiteralExtractor.prefilterLiterals("a.b"));
+  }
+
+  @Test
+  public void inlineFlagsThatDontAffectLiteralsAreIgnored() {
+    assertEquals(Arrays.asList("banned-host"), RegexLiteralExtractor.literalAlternatives("(?m)banned-host"));
+    assertEquals(Arrays.asList("objectionable"), RegexLiteralExtractor.literalAlternatives("(?s).*objectionable.*"));
+    assertEquals(Arrays.asList("foo", "bar"), RegexLiteralExtractor.literalAlternatives("(?sm:foo|bar)"));
+    assertEquals(Arrays.asList("password"), RegexLiteralExtractor.prefilterLiterals("(?d)password\\s*="));
+    assertEquals(Arrays.asList("Begin"), RegexLiteralExtractor.prefilterLiterals("(?-i)^Begin\\d"));
+    assertFalse(RegexLiteralExtractor.ignoresCase("(?-i)^Begin\\d"));
+  }
+
+  @Test
+  public void caseInsensitiveFlagFoldsThePrefilterLiterals() {
+    assertEquals(Arrays.asList("password"), RegexLiteralExtractor.prefilterLiterals("(?i)PassWord\\s*=\\s*\\S+"));
+    assertTrue(RegexLiteralExtractor.ignoresCase("(?i)PassWord\\s*=\\s*\\S+"));
+    // Literals outside the flag's scope are folded too: matching more text than needed is harmless in a prefilter
+    assertEquals(Arrays.asList("begin", "end"), RegexLiteralExtractor.prefilterLiterals("(?i:Begin)\\d|End$"));
+    assertEquals(Arrays.asList("\u00e9t\u00e9"), RegexLiteralExtractor.prefilterLiterals("(?iu)\u00c9T\u00c9\\d"));
+    // Not exactly the same text any more
+    assertNull(RegexLiteralExtractor.literalAlternatives("(?i:foo)"));
+  }
+
+  @Test
+  public void caseInsensitivePrefilterMatchesAnyCase() {
+    LiteralPrefilter prefilter = LiteralPrefilter.forExpression("(?i)password\\s*=");
+
+    assertTrue(prefilter.ignoresCase());
+    assertTrue(prefilter.mightMatch("db.PASSWORD = secret"));
+    assertTrue(prefilter.mightMatch(new StringBuilder("db.Password=secret")));
+    assertFalse(prefilter.mightMatch("db.user = admin"));
+    assertFalse(LiteralPrefilter.forExpression("password\\s*=").mightMatch("db.PASSWORD = secret"));
+  }
+
+  @Test
+  public void inlineFlagsThatCantBeSeenThrough() {
+    assertNull(RegexLiteralExtractor.prefilterLiterals("(?x)pass word"));
+    assertNull(RegexLiteralExtractor.prefilterLiterals("(?i)*password"));
+    assertNull(RegexLiteralExtractor.prefilterLiterals("(?q)password"));
+    assertNull(RegexLiteralExtractor.prefilterLiterals("(?i)\uD801\uDC00\uD801\uDC01"));
+  }
+
+}